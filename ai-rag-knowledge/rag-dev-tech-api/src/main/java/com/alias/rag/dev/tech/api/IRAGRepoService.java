@@ -1,9 +1,11 @@
 package com.alias.rag.dev.tech.api;
 
 import com.alias.rag.dev.tech.api.dto.RagRepoDTO;
+import com.alias.rag.dev.tech.api.dto.RagSnippetDTO;
 import com.alias.rag.dev.tech.api.response.Response;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 public interface IRAGRepoService {
 
@@ -15,5 +17,7 @@ public interface IRAGRepoService {
 
   Response<String> codeReviewContext(RagRepoDTO ragRepoDTO);
 
+  Response<Map<String, List<RagSnippetDTO>>> codeReviewContextPerFile(RagRepoDTO ragRepoDTO);
+
   Response<List<String>> queryTagList(RagRepoDTO ragRepoDTO);
 }
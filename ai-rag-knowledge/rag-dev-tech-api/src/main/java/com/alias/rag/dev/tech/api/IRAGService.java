@@ -1,9 +1,12 @@
 package com.alias.rag.dev.tech.api;
 
+import com.alias.rag.dev.tech.api.dto.RagFileQueryDTO;
 import com.alias.rag.dev.tech.api.dto.RagRepoDTO;
+import com.alias.rag.dev.tech.api.dto.RagSnippetDTO;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 
 public interface IRAGService {
 
@@ -87,6 +90,17 @@ public interface IRAGService {
    */
   String reviewCodeContext(String repoName, String code);
 
+  /**
+   * 按文件检索上下文：所有文件的查询在一次批量 embed + 一次 SQL 往返内完成
+   *
+   * @param repoName 仓库名称
+   * @param files 每个变更文件的路径与变更代码
+   * @param topK 每个文件返回的片段数
+   * @return 以文件路径为 key、按得分降序排列的片段
+   */
+  Map<String, List<RagSnippetDTO>> reviewCodeContextPerFile(
+      String repoName, List<RagFileQueryDTO> files, int topK);
+
   /**
    * 获取仓库的 Git tag 列表
    *
@@ -0,0 +1,22 @@
+package com.alias.rag.dev.tech.api.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.io.Serial;
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RagFileQueryDTO implements Serializable {
+
+  @Serial private static final long serialVersionUID = 1L;
+
+  @Schema(description = "变更文件路径，作为结果的 key", example = "src/main/java/Foo.java")
+  private String path;
+
+  @Schema(description = "该文件的变更代码（hunk）", example = "public class Foo { ... }")
+  private String code;
+}
@@ -3,6 +3,7 @@ package com.alias.rag.dev.tech.api.dto;
 import io.swagger.v3.oas.annotations.media.Schema;
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.List;
 import lombok.Data;
 
 @Data
@@ -24,4 +25,10 @@ public class RagRepoDTO implements Serializable {
 
   @Schema(description = "代码内容（用于代码审查上下文）", example = "public class Test { ... }")
   private String code;
+
+  @Schema(description = "按文件检索上下文时的查询列表（每个变更文件一条）")
+  private List<RagFileQueryDTO> files;
+
+  @Schema(description = "按文件检索时每个文件返回的片段数", example = "6")
+  private Integer topK;
 }
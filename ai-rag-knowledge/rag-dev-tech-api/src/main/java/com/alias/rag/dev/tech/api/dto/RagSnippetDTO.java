@@ -0,0 +1,22 @@
+package com.alias.rag.dev.tech.api.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.io.Serial;
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RagSnippetDTO implements Serializable {
+
+  @Serial private static final long serialVersionUID = 1L;
+
+  @Schema(description = "检索到的代码片段")
+  private String content;
+
+  @Schema(description = "相似度得分，越大越相关", example = "0.82")
+  private Double score;
+}
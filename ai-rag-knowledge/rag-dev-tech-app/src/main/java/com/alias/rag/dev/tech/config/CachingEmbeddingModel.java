@@ -0,0 +1,180 @@
+package com.alias.rag.dev.tech.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
+import org.redisson.api.RedissonClient;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * 带缓存的向量模型，key 为 模型名 + 文本 SHA-256
+ *
+ * <p>一级缓存为进程内 LRU，二级缓存为可选的 Redis（通过 RedissonClient），只有未命中的文本才会交给底层模型批量 embed
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+  private static final String REDIS_KEY_PREFIX = "rag:embedding:";
+
+  private final EmbeddingModel delegate;
+
+  private final String defaultModelName;
+
+  private final Map<String, float[]> localCache;
+
+  private final RedissonClient redissonClient;
+
+  private final Duration redisTtl;
+
+  public CachingEmbeddingModel(
+      EmbeddingModel delegate,
+      String defaultModelName,
+      int localMaxEntries,
+      RedissonClient redissonClient,
+      Duration redisTtl) {
+    this.delegate = delegate;
+    this.defaultModelName = defaultModelName;
+    this.redissonClient = redissonClient;
+    this.redisTtl = redisTtl;
+    this.localCache =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > localMaxEntries;
+              }
+            });
+  }
+
+  @Override
+  public EmbeddingResponse call(EmbeddingRequest request) {
+    List<String> texts = request.getInstructions();
+    String modelName = resolveModelName(request.getOptions());
+
+    float[][] vectors = new float[texts.size()][];
+    String[] keys = new String[texts.size()];
+    for (int i = 0; i < texts.size(); i++) {
+      keys[i] = cacheKey(modelName, texts.get(i));
+      vectors[i] = localCache.get(keys[i]);
+    }
+
+    // 二级缓存：一次 MGET 取回所有本地未命中的 key
+    if (redissonClient != null) {
+      Set<String> redisKeys = new LinkedHashSet<>();
+      for (int i = 0; i < texts.size(); i++) {
+        if (vectors[i] == null) {
+          redisKeys.add(keys[i]);
+        }
+      }
+      if (!redisKeys.isEmpty()) {
+        try {
+          Map<String, float[]> found =
+              redissonClient.getBuckets().get(redisKeys.toArray(new String[0]));
+          for (int i = 0; i < texts.size(); i++) {
+            if (vectors[i] == null && found.get(keys[i]) != null) {
+              vectors[i] = found.get(keys[i]);
+              localCache.put(keys[i], vectors[i]);
+            }
+          }
+        } catch (Exception e) {
+          log.warn("[embeddingCache] redis lookup failed, fallback to model: {}", e.getMessage());
+        }
+      }
+    }
+
+    // 未命中的文本去重后批量交给底层模型
+    Map<String, Integer> missIndex = new LinkedHashMap<>();
+    List<String> missTexts = new ArrayList<>();
+    for (int i = 0; i < texts.size(); i++) {
+      if (vectors[i] == null && !missIndex.containsKey(keys[i])) {
+        missIndex.put(keys[i], missTexts.size());
+        missTexts.add(texts.get(i));
+      }
+    }
+
+    if (!missTexts.isEmpty()) {
+      EmbeddingResponse response =
+          delegate.call(new EmbeddingRequest(missTexts, request.getOptions()));
+      List<Embedding> results = response.getResults();
+      Map<String, float[]> computed = new LinkedHashMap<>();
+      for (Map.Entry<String, Integer> entry : missIndex.entrySet()) {
+        float[] vector = results.get(entry.getValue()).getOutput();
+        computed.put(entry.getKey(), vector);
+        localCache.put(entry.getKey(), vector);
+      }
+      for (int i = 0; i < texts.size(); i++) {
+        if (vectors[i] == null) {
+          vectors[i] = computed.get(keys[i]);
+        }
+      }
+      writeToRedis(computed);
+    }
+
+    log.debug(
+        "[embeddingCache] model={} requested={} embedded={}",
+        modelName,
+        texts.size(),
+        missTexts.size());
+
+    List<Embedding> embeddings = new ArrayList<>(texts.size());
+    for (int i = 0; i < vectors.length; i++) {
+      embeddings.add(new Embedding(vectors[i], i));
+    }
+    return new EmbeddingResponse(embeddings);
+  }
+
+  @Override
+  public float[] embed(Document document) {
+    return embed(document.getText());
+  }
+
+  @Override
+  public int dimensions() {
+    return delegate.dimensions();
+  }
+
+  private void writeToRedis(Map<String, float[]> computed) {
+    if (redissonClient == null || computed.isEmpty()) {
+      return;
+    }
+    try {
+      RBatch batch = redissonClient.createBatch();
+      for (Map.Entry<String, float[]> entry : computed.entrySet()) {
+        batch.<float[]>getBucket(entry.getKey()).setAsync(entry.getValue(), redisTtl);
+      }
+      batch.execute();
+    } catch (Exception e) {
+      log.warn("[embeddingCache] redis write failed: {}", e.getMessage());
+    }
+  }
+
+  private String resolveModelName(EmbeddingOptions options) {
+    if (options != null && options.getModel() != null && !options.getModel().isBlank()) {
+      return options.getModel();
+    }
+    return defaultModelName;
+  }
+
+  private String cacheKey(String modelName, String text) {
+    return REDIS_KEY_PREFIX + modelName + ":" + sha256(text);
+  }
+
+  private static String sha256(String text) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest((text != null ? text : "").getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(hash);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.alias.rag.dev.tech.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * 写入使用普通 INSERT 的 PgVectorStore
+ *
+ * <p>PgVectorStore 默认以 ON CONFLICT (id) 写入，要求 id 上有唯一约束；按 repo 分区的 vector_store（见
+ * vector_store_partitioned.sql）无法建立该约束。这里与 RAGServiceImpl 的批量写入保持一致：document id
+ * 每次新生成，直接 INSERT，检索与删除沿用父类实现
+ */
+public class InsertOnlyPgVectorStore extends PgVectorStore {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final EmbeddingModel embeddingModel;
+
+  private final String vectorTableName;
+
+  public InsertOnlyPgVectorStore(
+      PgVectorStoreBuilder builder,
+      JdbcTemplate jdbcTemplate,
+      EmbeddingModel embeddingModel,
+      String vectorTableName) {
+    super(builder);
+    this.jdbcTemplate = jdbcTemplate;
+    this.embeddingModel = embeddingModel;
+    this.vectorTableName = vectorTableName;
+  }
+
+  @Override
+  public void doAdd(List<Document> documents) {
+    if (documents == null || documents.isEmpty()) {
+      return;
+    }
+    List<float[]> embeddings =
+        embeddingModel.embed(
+            documents.stream()
+                .map(d -> Objects.toString(d.getText(), ""))
+                .collect(Collectors.toList()));
+    List<Object[]> rows = new ArrayList<>(documents.size());
+    for (int i = 0; i < documents.size(); i++) {
+      Document doc = documents.get(i);
+      rows.add(
+          new Object[] {
+            UUID.fromString(doc.getId()),
+            doc.getText(),
+            toJson(doc),
+            new PGvector(embeddings.get(i))
+          });
+    }
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO "
+            + vectorTableName
+            + " (id, content, metadata, embedding) VALUES (?, ?, ?::jsonb, ?)",
+        rows);
+  }
+
+  private static String toJson(Document doc) {
+    try {
+      return mapper.writeValueAsString(doc.getMetadata());
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Invalid document metadata: " + doc.getId(), e);
+    }
+  }
+}
@@ -1,10 +1,16 @@
 package com.alias.rag.dev.tech.config;
 
+import java.time.Duration;
+import org.redisson.api.RedissonClient;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.ollama.OllamaEmbeddingModel;
 import org.springframework.ai.ollama.api.OllamaApi;
 import org.springframework.ai.ollama.api.OllamaOptions;
 import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -12,16 +18,52 @@ import org.springframework.jdbc.core.JdbcTemplate;
 @Configuration
 public class OllamaConfig {
 
+  private static final String EMBEDDING_MODEL = "qwen3-embedding:0.6b";
+
+  private static final String VECTOR_TABLE_NAME = "vector_store";
+
+  @Value("${embedding.cache.local-max-entries:20000}")
+  private int embeddingCacheLocalMaxEntries;
+
+  @Value("${embedding.cache.redis-enabled:false}")
+  private boolean embeddingCacheRedisEnabled;
+
+  @Value("${embedding.cache.redis-ttl-hours:168}")
+  private long embeddingCacheRedisTtlHours;
+
   @Bean("ollamaSimpleVectorStore")
   public SimpleVectorStore vectorStore(OllamaApi ollamaApi) {
     OllamaEmbeddingModel embeddingModel =
         OllamaEmbeddingModel.builder()
             .ollamaApi(ollamaApi)
-            .defaultOptions(OllamaOptions.builder().model("qwen3-embedding:0.6b").build())
+            .defaultOptions(OllamaOptions.builder().model(EMBEDDING_MODEL).build())
             .build();
     return SimpleVectorStore.builder(embeddingModel).build();
   }
 
+  /**
+   * pgVectorStore 与批量检索共用的向量模型，批量检索需要直接调用 embed(List)
+   *
+   * <p>外层包一层按内容哈希的缓存，重复索引或重复 review 时未变化的 chunk 不再调用 Ollama
+   */
+  @Bean("ollamaEmbeddingModel")
+  public EmbeddingModel ollamaEmbeddingModel(
+      OllamaApi ollamaApi, ObjectProvider<RedissonClient> redissonClientProvider) {
+    OllamaEmbeddingModel embeddingModel =
+        OllamaEmbeddingModel.builder()
+            .ollamaApi(ollamaApi)
+            .defaultOptions(OllamaOptions.builder().model(EMBEDDING_MODEL).build())
+            .build();
+    RedissonClient redissonClient =
+        embeddingCacheRedisEnabled ? redissonClientProvider.getIfAvailable() : null;
+    return new CachingEmbeddingModel(
+        embeddingModel,
+        EMBEDDING_MODEL,
+        embeddingCacheLocalMaxEntries,
+        redissonClient,
+        Duration.ofHours(embeddingCacheRedisTtlHours));
+  }
+
   /**
    * -- 删除旧的表（如果存在） DROP TABLE IF EXISTS public.vector_store;
    *
@@ -31,14 +73,13 @@ public class OllamaConfig {
    * <p>SELECT * FROM vector_store
    */
   @Bean("ollamaPgVectorStore")
-  public PgVectorStore pgVectorStore(OllamaApi ollamaApi, JdbcTemplate jdbcTemplate) {
-    OllamaEmbeddingModel embeddingModel =
-        OllamaEmbeddingModel.builder()
-            .ollamaApi(ollamaApi)
-            .defaultOptions(OllamaOptions.builder().model("qwen3-embedding:0.6b").build())
-            .build();
-    return PgVectorStore.builder(jdbcTemplate, embeddingModel)
-        .vectorTableName("vector_store")
-        .build();
+  public PgVectorStore pgVectorStore(
+      @Qualifier("ollamaEmbeddingModel") EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate) {
+    // 普通 INSERT 写入，兼容按 repo 分区、id 上没有唯一约束的 vector_store
+    return new InsertOnlyPgVectorStore(
+        PgVectorStore.builder(jdbcTemplate, embeddingModel).vectorTableName(VECTOR_TABLE_NAME),
+        jdbcTemplate,
+        embeddingModel,
+        VECTOR_TABLE_NAME);
   }
 }
@@ -3,6 +3,7 @@ package com.alias.rag.dev.tech.trigger.http;
 import com.alias.rag.dev.tech.api.IRAGRepoService;
 import com.alias.rag.dev.tech.api.IRAGService;
 import com.alias.rag.dev.tech.api.dto.RagRepoDTO;
+import com.alias.rag.dev.tech.api.dto.RagSnippetDTO;
 import com.alias.rag.dev.tech.api.response.Response;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.annotation.Resource;
@@ -12,6 +13,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.Git;
@@ -232,6 +234,54 @@ public class RAGRepoController implements IRAGRepoService {
     }
   }
 
+  @RequestMapping(value = "review-context-files", method = RequestMethod.POST)
+  @Override
+  public Response<Map<String, List<RagSnippetDTO>>> codeReviewContextPerFile(
+      @RequestBody RagRepoDTO ragRepoDTO) {
+    String repoName = ragRepoDTO.getRepoName();
+
+    if (repoName == null || repoName.isEmpty()) {
+      return Response.<Map<String, List<RagSnippetDTO>>>builder()
+          .code("4000")
+          .info("Repository name is required")
+          .build();
+    }
+
+    if (ragRepoDTO.getFiles() == null || ragRepoDTO.getFiles().isEmpty()) {
+      return Response.<Map<String, List<RagSnippetDTO>>>builder()
+          .code("4000")
+          .info("Files are required")
+          .build();
+    }
+
+    try {
+      // 1. 先同步仓库代码（如果不存在会自动注册）
+      log.info("Syncing repository before per-file code review: {}", repoName);
+      IRAGService.SyncResult syncResult = ragService.syncRepository(ragRepoDTO);
+      if (syncResult == null) {
+        log.warn("Failed to sync repository {}, proceeding with code review anyway", repoName);
+      }
+
+      // 2. 按文件批量检索
+      int topK =
+          ragRepoDTO.getTopK() != null && ragRepoDTO.getTopK() > 0 ? ragRepoDTO.getTopK() : 6;
+      Map<String, List<RagSnippetDTO>> contexts =
+          ragService.reviewCodeContextPerFile(repoName, ragRepoDTO.getFiles(), topK);
+
+      return Response.<Map<String, List<RagSnippetDTO>>>builder()
+          .code("0000")
+          .info("Code review context completed")
+          .data(contexts)
+          .build();
+    } catch (Exception e) {
+      log.error("Failed to retrieve per-file context in {}: {}", repoName, e.getMessage());
+      return Response.<Map<String, List<RagSnippetDTO>>>builder()
+          .code("5000")
+          .info("Code review context failed: " + e.getMessage())
+          .build();
+    }
+  }
+
   @RequestMapping(value = "tag-list", method = RequestMethod.POST)
   @Override
   public Response<List<String>> queryTagList(@RequestBody RagRepoDTO ragRepoDTO) {
@@ -1,16 +1,33 @@
 package com.alias.rag.dev.tech.trigger.service;
 
 import com.alias.rag.dev.tech.api.IRAGService;
+import com.alias.rag.dev.tech.api.dto.RagFileQueryDTO;
 import com.alias.rag.dev.tech.api.dto.RagRepoDTO;
+import com.alias.rag.dev.tech.api.dto.RagSnippetDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
 import jakarta.annotation.Resource;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -25,6 +42,7 @@ import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.reader.tika.TikaDocumentReader;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.SearchRequest;
@@ -33,7 +51,9 @@ import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.PathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Slf4j
 @Service
@@ -49,8 +69,38 @@ public class RAGServiceImpl implements IRAGService {
 
   @Resource private PgVectorStore pgVectorStore;
 
+  @Resource private EmbeddingModel ollamaEmbeddingModel;
+
+  @Resource private JdbcTemplate jdbcTemplate;
+
+  /** 全量索引时并行解析切分文件的线程数 */
+  @Value("${rag.index.parse-threads:4}")
+  private int indexParseThreads;
+
+  /** 全量索引时跨文件攒批 embed 的 chunk 数 */
+  @Value("${rag.index.embed-batch-size:64}")
+  private int indexEmbedBatchSize;
+
+  /** 向量检索时 HNSW 的候选数（hnsw.ef_search），需明显大于 topK 才能在 repo 过滤后仍取满 */
+  @Value("${rag.search.hnsw-ef-search:200}")
+  private int hnswEfSearch;
+
+  @Resource private TransactionTemplate transactionTemplate;
+
+  /** 全量索引流水线各阶段之间的队列容量 */
+  @Value("${rag.index.queue-capacity:256}")
+  private int indexQueueCapacity;
+
   private static final ObjectMapper mapper = new ObjectMapper();
 
+  // 每次 embed / LATERAL 查询的最大查询条数（每条占 2 个绑定参数）
+  private static final int SEARCH_BATCH_SIZE = 64;
+
+  // 按文件检索时每个文件参与检索的 chunk 上限
+  private static final int MAX_QUERY_CHUNKS_PER_FILE = 4;
+
+  private static final int HNSW_MAX_EF_SEARCH = 1000;
+
   @Override
   public String extractProjectName(String repoUrl) {
     String[] parts = repoUrl.split("/");
@@ -331,6 +381,26 @@ public class RAGServiceImpl implements IRAGService {
 
     long MAX_FILE_SIZE = 5L * 1024 * 1024; // 5MB，可改
 
+    // 流水线：遍历 → 并行解析切分 → 跨文件批量 embed → JDBC 批量写入，各阶段之间为有界队列
+    IndexPipeline pipeline = startIndexPipeline(repoPath, repoName);
+    try {
+      walkRepositoryFiles(
+          repoPath, repoName, ALLOWED, IGNORE_DIRS, IGNORE_FILES, MAX_FILE_SIZE, pipeline);
+    } finally {
+      pipeline.finish();
+    }
+  }
+
+  /** 遍历仓库文件，将符合条件的相对路径放入流水线 */
+  private void walkRepositoryFiles(
+      Path repoPath,
+      String repoName,
+      Set<String> ALLOWED,
+      Set<String> IGNORE_DIRS,
+      Set<String> IGNORE_FILES,
+      long MAX_FILE_SIZE,
+      IndexPipeline pipeline)
+      throws IOException {
     Files.walkFileTree(
         repoPath,
         new SimpleFileVisitor<>() {
@@ -375,7 +445,9 @@ public class RAGServiceImpl implements IRAGService {
 
             Path relativePath = repoPath.relativize(file);
             String filePath = relativePath.toString().replace("\\", "/");
-            indexSingleFile(repoPath, repoName, filePath);
+            if (!pipeline.submit(filePath)) {
+              return FileVisitResult.TERMINATE;
+            }
 
             return FileVisitResult.CONTINUE;
           }
@@ -422,6 +494,9 @@ public class RAGServiceImpl implements IRAGService {
         df.setRepository(repository);
         List<DiffEntry> diffs = df.scan(oldRev.getTree(), newRev.getTree());
 
+        // 先收集需要删除与重新索引的文件，删除合并为一条语句
+        Set<String> staleDocIds = new LinkedHashSet<>();
+        List<String> pathsToIndex = new ArrayList<>();
         for (DiffEntry diff : diffs) {
           DiffEntry.ChangeType type = diff.getChangeType();
           String path;
@@ -430,32 +505,33 @@ public class RAGServiceImpl implements IRAGService {
             case ADD:
               path = diff.getNewPath();
               if (ALLOWED.stream().noneMatch(path.toLowerCase()::endsWith)) continue;
-              indexSingleFile(repoPath, repoName, path);
+              pathsToIndex.add(path);
               break;
 
             case MODIFY:
               path = diff.getNewPath();
               if (ALLOWED.stream().noneMatch(path.toLowerCase()::endsWith)) continue;
 
-              // 先查出对应文档并删除
-              String docId = repoName + ":" + path.replace("\\", "/");
-              deleteDocumentById(docId);
-
-              // 再插入新向量
-              indexSingleFile(repoPath, repoName, path);
+              // 先删除旧文档，再插入新向量
+              staleDocIds.add(repoName + ":" + path.replace("\\", "/"));
+              pathsToIndex.add(path);
               break;
 
             case DELETE:
               path = diff.getOldPath();
-              String delDocId = repoName + ":" + path.replace("\\", "/");
-              deleteDocumentById(delDocId);
-              log.info("[{}] Deleted vector for removed file: {}", repoName, path);
+              staleDocIds.add(repoName + ":" + path.replace("\\", "/"));
+              log.info("[{}] Deleting vector for removed file: {}", repoName, path);
               break;
 
             default:
               break;
           }
         }
+
+        deleteDocumentsByIds(staleDocIds);
+        for (String path : pathsToIndex) {
+          indexSingleFile(repoPath, repoName, path);
+        }
       }
     }
 
@@ -464,41 +540,355 @@ public class RAGServiceImpl implements IRAGService {
     log.info("Updated last indexed commit for {}: {}", repoName, headCommit);
   }
 
-  /** 删除指定 docId 对应的向量 */
+  /** 删除指定 docId 对应的向量，直接按 metadata->>'id' 删除，依赖 idx_vector_store_metadata_id 表达式索引 */
   private void deleteDocumentById(String docId) {
-    SearchRequest request =
-        SearchRequest.builder()
-            .query("search all")
-            .topK(10)
-            .filterExpression(new FilterExpressionBuilder().eq("id", docId).build())
-            .build();
+    int deleted = jdbcTemplate.update("DELETE FROM vector_store WHERE metadata->>'id' = ?", docId);
+    log.info("Deleted document by id: {}, rows={}", docId, deleted);
+  }
 
-    List<Document> documents = pgVectorStore.similaritySearch(request);
-    if (!documents.isEmpty()) {
-      List<String> ids = documents.stream().map(Document::getId).collect(Collectors.toList());
-      pgVectorStore.delete(ids);
-      log.info("Deleted document by id: {}", docId);
+  /** 批量删除多个 docId 对应的向量，一条语句完成 */
+  private void deleteDocumentsByIds(Collection<String> docIds) {
+    if (docIds == null || docIds.isEmpty()) {
+      return;
+    }
+    if (docIds.size() == 1) {
+      deleteDocumentById(docIds.iterator().next());
+      return;
     }
+    String[] ids = docIds.toArray(new String[0]);
+    int deleted =
+        jdbcTemplate.update(
+            "DELETE FROM vector_store WHERE metadata->>'id' = ANY (?)",
+            ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", ids)));
+    log.info("Deleted documents by ids: count={}, rows={}", ids.length, deleted);
   }
 
-  /** 索引单个文件 */
-  private void indexSingleFile(Path repoPath, String repoName, String path) {
-    Path filePath = repoPath.resolve(path);
+  /** 索引单个文件；embed / 写入在重试后仍失败时抛出，调用方不推进已索引 commit，下次同步重新处理 */
+  private void indexSingleFile(Path repoPath, String repoName, String path) throws IOException {
     log.info("[{}] Indexing file: {}", repoName, path);
+    List<Document> chunks;
     try {
-      String normalizedPath = path.replace("\\", "/");
-      List<Document> docs = buildDocumentsForFile(filePath, normalizedPath.toLowerCase());
-      List<Document> chunks = chunkDocuments(docs);
-
-      for (Document d : chunks) {
-        String docId = repoName + ":" + normalizedPath;
-        d.getMetadata().put("id", docId);
-        d.getMetadata().put("repo", repoName);
-      }
-
-      pgVectorStore.accept(chunks);
+      chunks = buildFileChunks(repoPath, repoName, path);
     } catch (Exception e) {
       log.error("Failed to index file {}: {}", path, e.getMessage());
+      return;
+    }
+    if (chunks.isEmpty()) {
+      return;
+    }
+    try {
+      List<float[]> embeddings = embedWithRetry(repoName, chunks);
+      withRetry(repoName, "write", chunks.size(), () -> insertChunks(chunks, embeddings));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Indexing interrupted for " + repoName + ":" + path, e);
+    } catch (Exception e) {
+      throw new IOException("Failed to index file " + repoName + ":" + path, e);
+    }
+  }
+
+  /** 解析并切分单个文件，补充 id / repo 元数据 */
+  private List<Document> buildFileChunks(Path repoPath, String repoName, String path)
+      throws IOException {
+    Path filePath = repoPath.resolve(path);
+    String normalizedPath = path.replace("\\", "/");
+    List<Document> docs = buildDocumentsForFile(filePath, normalizedPath.toLowerCase());
+    List<Document> chunks = chunkDocuments(docs);
+
+    for (Document d : chunks) {
+      String docId = repoName + ":" + normalizedPath;
+      d.getMetadata().put("id", docId);
+      d.getMetadata().put("repo", repoName);
+    }
+    return chunks;
+  }
+
+  /** 启动全量索引流水线的解析、embed、写入三个阶段；任一阶段失败时取消整个流水线 */
+  private IndexPipeline startIndexPipeline(Path repoPath, String repoName) {
+    int capacity = Math.max(1, indexQueueCapacity);
+    int batchSize = Math.max(1, indexEmbedBatchSize);
+    int parseThreads = Math.max(1, indexParseThreads);
+    IndexPipeline pipeline =
+        new IndexPipeline(
+            repoName,
+            new ArrayBlockingQueue<>(capacity),
+            new ArrayBlockingQueue<>(capacity),
+            new ArrayBlockingQueue<>(Math.max(2, capacity / batchSize)),
+            Executors.newFixedThreadPool(parseThreads, namedThreadFactory("rag-index-parse-")),
+            Executors.newFixedThreadPool(2, namedThreadFactory("rag-index-stage-")),
+            parseThreads,
+            new AtomicInteger(),
+            new AtomicInteger(),
+            new AtomicReference<>(),
+            new ArrayList<>(),
+            new ArrayList<>());
+
+    // 阶段 2：并行读取、解析、切分；单个文件无法解析时跳过
+    for (int i = 0; i < parseThreads; i++) {
+      pipeline
+          .parseTasks()
+          .add(pipeline.parsePool().submit(pipeline.guard(() -> runParseStage(pipeline, repoPath))));
+    }
+
+    // 阶段 3：跨文件攒批 embed
+    pipeline
+        .stageTasks()
+        .add(pipeline.stagePool().submit(pipeline.guard(() -> runEmbedStage(pipeline, batchSize))));
+    // 阶段 4：JDBC 批量写入
+    pipeline
+        .stageTasks()
+        .add(pipeline.stagePool().submit(pipeline.guard(() -> runWriteStage(pipeline))));
+    return pipeline;
+  }
+
+  private Void runParseStage(IndexPipeline pipeline, Path repoPath) throws InterruptedException {
+    while (true) {
+      FileTask task = pipeline.fileQueue().take();
+      if (task == FILE_EOF) {
+        return null;
+      }
+      List<Document> chunks;
+      try {
+        chunks = buildFileChunks(repoPath, pipeline.repoName(), task.path());
+      } catch (Exception e) {
+        log.error("Failed to index file {}: {}", task.path(), e.getMessage());
+        continue;
+      }
+      if (!chunks.isEmpty()) {
+        pipeline.put(pipeline.chunkQueue(), new ChunkBatch(chunks));
+      }
+      pipeline.indexedFiles().incrementAndGet();
+    }
+  }
+
+  private Void runEmbedStage(IndexPipeline pipeline, int batchSize) throws Exception {
+    List<Document> pending = new ArrayList<>(batchSize);
+    while (true) {
+      ChunkBatch batch = pipeline.chunkQueue().take();
+      if (batch == CHUNKS_EOF) {
+        break;
+      }
+      for (Document chunk : batch.chunks()) {
+        pending.add(chunk);
+        if (pending.size() >= batchSize) {
+          embedBatch(pipeline, pending);
+          pending = new ArrayList<>(batchSize);
+        }
+      }
+    }
+    if (!pending.isEmpty()) {
+      embedBatch(pipeline, pending);
+    }
+    pipeline.put(pipeline.writeQueue(), WRITE_EOF);
+    return null;
+  }
+
+  private void embedBatch(IndexPipeline pipeline, List<Document> batch) throws Exception {
+    List<float[]> embeddings = embedWithRetry(pipeline.repoName(), batch);
+    pipeline.put(pipeline.writeQueue(), new EmbeddedBatch(batch, embeddings));
+  }
+
+  private Void runWriteStage(IndexPipeline pipeline) throws Exception {
+    while (true) {
+      EmbeddedBatch batch = pipeline.writeQueue().take();
+      if (batch == WRITE_EOF) {
+        return null;
+      }
+      withRetry(
+          pipeline.repoName(),
+          "write",
+          batch.documents().size(),
+          () -> insertChunks(batch.documents(), batch.embeddings()));
+      pipeline.indexedChunks().addAndGet(batch.documents().size());
+    }
+  }
+
+  private List<float[]> embedWithRetry(String repoName, List<Document> chunks) throws Exception {
+    List<String> texts =
+        chunks.stream().map(d -> Objects.toString(d.getText(), "")).collect(Collectors.toList());
+    List<List<float[]>> result = new ArrayList<>(1);
+    withRetry(repoName, "embed", chunks.size(), () -> result.add(ollamaEmbeddingModel.embed(texts)));
+    return result.get(0);
+  }
+
+  /** 按指数退避重试 embed / 写入，最终失败时抛出最后一次的异常，不静默丢弃 chunk */
+  private void withRetry(String repoName, String stage, int chunks, IndexAction action)
+      throws Exception {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        action.run();
+        return;
+      } catch (Exception e) {
+        if (attempt >= INDEX_MAX_ATTEMPTS) {
+          log.error(
+              "[{}] Failed to {} batch of {} chunks after {} attempts: {}",
+              repoName,
+              stage,
+              chunks,
+              attempt,
+              e.getMessage());
+          throw e;
+        }
+        long backoffMs = 1000L << (attempt - 1);
+        log.warn(
+            "[{}] Failed to {} batch of {} chunks, retrying in {}ms: {}",
+            repoName,
+            stage,
+            chunks,
+            backoffMs,
+            e.getMessage());
+        Thread.sleep(backoffMs);
+      }
+    }
+  }
+
+  /**
+   * JDBC 批量写入 chunk 与向量
+   *
+   * <p>chunk id 每次索引都重新生成，不需要 ON CONFLICT (id)，这样 vector_store 按 repo 分区（无法在 id 上建唯一约束）时也能写入
+   */
+  private void insertChunks(List<Document> documents, List<float[]> embeddings)
+      throws JsonProcessingException {
+    List<Object[]> rows = new ArrayList<>(documents.size());
+    for (int i = 0; i < documents.size(); i++) {
+      Document doc = documents.get(i);
+      rows.add(
+          new Object[] {
+            UUID.fromString(doc.getId()),
+            doc.getText(),
+            mapper.writeValueAsString(doc.getMetadata()),
+            new PGvector(embeddings.get(i))
+          });
+    }
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO vector_store (id, content, metadata, embedding) VALUES (?, ?, ?::jsonb, ?)",
+        rows);
+  }
+
+  private static ThreadFactory namedThreadFactory(String prefix) {
+    AtomicInteger counter = new AtomicInteger(1);
+    return r -> {
+      Thread thread = new Thread(r, prefix + counter.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /** embed / 写入单次失败后的最大尝试次数 */
+  private static final int INDEX_MAX_ATTEMPTS = 3;
+
+  /** 向下游队列投递时每次等待的时长，超时后检查流水线是否已失败 */
+  private static final long QUEUE_OFFER_TIMEOUT_MS = 500;
+
+  // 各队列的结束标记，按引用比较
+  private static final FileTask FILE_EOF = new FileTask("<eof>");
+
+  private static final ChunkBatch CHUNKS_EOF = new ChunkBatch(List.of());
+
+  private static final EmbeddedBatch WRITE_EOF = new EmbeddedBatch(List.of(), List.of());
+
+  @FunctionalInterface
+  private interface IndexAction {
+    void run() throws Exception;
+  }
+
+  private record FileTask(String path) {}
+
+  private record ChunkBatch(List<Document> chunks) {}
+
+  private record EmbeddedBatch(List<Document> documents, List<float[]> embeddings) {}
+
+  private record IndexPipeline(
+      String repoName,
+      BlockingQueue<FileTask> fileQueue,
+      BlockingQueue<ChunkBatch> chunkQueue,
+      BlockingQueue<EmbeddedBatch> writeQueue,
+      ExecutorService parsePool,
+      ExecutorService stagePool,
+      int parseThreads,
+      AtomicInteger indexedFiles,
+      AtomicInteger indexedChunks,
+      AtomicReference<Throwable> failure,
+      List<Future<Void>> parseTasks,
+      List<Future<Void>> stageTasks) {
+
+    /** 遍历线程投递路径，队列满时阻塞形成背压；流水线已失败或被中断时返回 false */
+    boolean submit(String path) {
+      try {
+        put(fileQueue, new FileTask(path));
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (CancellationException e) {
+        return false;
+      }
+    }
+
+    /** 有界投递：队列满时分段等待，流水线已失败时抛出 CancellationException，避免在无人消费的队列上永久阻塞 */
+    <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+      while (!queue.offer(item, QUEUE_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        if (failure.get() != null) {
+          throw new CancellationException("Index pipeline aborted for " + repoName);
+        }
+      }
+    }
+
+    /** 包装阶段任务：任务异常结束时取消整个流水线 */
+    Callable<Void> guard(Callable<Void> stage) {
+      return () -> {
+        try {
+          return stage.call();
+        } catch (Exception e) {
+          abort(e);
+          throw e;
+        }
+      };
+    }
+
+    /** 记录第一个失败原因并中断所有阶段 */
+    void abort(Throwable cause) {
+      if (failure.compareAndSet(null, cause)) {
+        log.error("[{}] Index pipeline aborted: {}", repoName, cause.toString());
+        parsePool.shutdownNow();
+        stagePool.shutdownNow();
+      }
+    }
+
+    /** 依次向下游发送结束标记并等待各阶段排空；任一阶段失败时抛出 */
+    void finish() throws IOException {
+      long startNs = System.nanoTime();
+      try {
+        for (int i = 0; i < parseThreads; i++) {
+          put(fileQueue, FILE_EOF);
+        }
+        for (Future<Void> task : parseTasks) {
+          task.get();
+        }
+        put(chunkQueue, CHUNKS_EOF);
+        for (Future<Void> task : stageTasks) {
+          task.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        abort(e);
+        throw new IOException("Index pipeline interrupted for " + repoName, e);
+      } catch (ExecutionException | CancellationException e) {
+        abort(e instanceof ExecutionException ? e.getCause() : e);
+      } finally {
+        parsePool.shutdownNow();
+        stagePool.shutdownNow();
+      }
+      Throwable cause = failure.get();
+      if (cause != null) {
+        throw new IOException("Index pipeline failed for " + repoName, cause);
+      }
+      log.info(
+          "[{}] Index pipeline finished. files={} chunks={} costMs={}",
+          repoName,
+          indexedFiles.get(),
+          indexedChunks.get(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
     }
   }
 
@@ -603,10 +993,10 @@ public class RAGServiceImpl implements IRAGService {
 
   @Override
   public void deleteIndexedCommit(String repoName) {
-    // 删除仓库所有向量
-    Filter.Expression filter = new FilterExpressionBuilder().eq("repo", repoName).build();
-    pgVectorStore.delete(filter);
-    log.info("Deleted all vectors for repository {}", repoName);
+    // 删除仓库所有向量，按 metadata->>'repo' 过滤可命中表达式索引，分区表上直接裁剪到该仓库的分区
+    int deleted =
+        jdbcTemplate.update("DELETE FROM vector_store WHERE metadata->>'repo' = ?", repoName);
+    log.info("Deleted all vectors for repository {}, rows={}", repoName, deleted);
   }
 
   @Override
@@ -627,33 +1017,25 @@ public class RAGServiceImpl implements IRAGService {
           chunks.size(),
           code.length());
 
-      // 阶段 1：常规相似度搜索
-      Filter.Expression stageOneFilter = new FilterExpressionBuilder().eq("repo", repoName).build();
+      // 阶段 1：常规相似度搜索，所有 chunk 一次批量 embed + 一次 SQL 往返
+      List<String> chunkTexts =
+          chunks.stream()
+              .map(c -> Objects.requireNonNull(c.getText()))
+              .collect(Collectors.toList());
+      List<List<Document>> matchesPerChunk = batchSimilaritySearch(repoName, chunkTexts, 18);
       List<Document> stageOneMatches = new ArrayList<>();
-      for (int i = 0; i < chunks.size(); i++) {
-        Document chunk = chunks.get(i);
-        String chunkText = Objects.requireNonNull(chunk.getText());
-        int queryTokens = countTokens(chunkText);
-        int queryChars = chunkText.length();
-
-        SearchRequest request =
-            SearchRequest.builder()
-                .query(chunkText)
-                .topK(18)
-                .filterExpression(stageOneFilter)
-                .build();
-        List<Document> matched = pgVectorStore.similaritySearch(request);
-        if (matched != null) {
-          stageOneMatches.addAll(matched);
-        }
+      for (int i = 0; i < chunkTexts.size(); i++) {
+        String chunkText = chunkTexts.get(i);
+        List<Document> matched = matchesPerChunk.get(i);
+        stageOneMatches.addAll(matched);
 
         log.info(
             "[reviewCodeContext][phase-1] repo={} chunk={} queryTokens={} queryChars={} matches={}",
             repoName,
             i,
-            queryTokens,
-            queryChars,
-            matched != null ? matched.size() : 0);
+            countTokens(chunkText),
+            chunkText.length(),
+            matched.size());
       }
 
       if (stageOneMatches.isEmpty()) {
@@ -712,13 +1094,14 @@ public class RAGServiceImpl implements IRAGService {
       int tokenPerMatch = Math.max(80, matchesTokens / matchesSize);
       int estimatedTopK = 8_000 / tokenPerMatch;
       log.info("[reviewCodeContext][phase-2] repo={} estimatedTopK={}", repoName, estimatedTopK);
+      SearchRequest stageTwoRequest =
+          SearchRequest.builder()
+              .query(aggregatedQuery)
+              .topK(estimatedTopK)
+              .filterExpression(limitedFilter)
+              .build();
       List<Document> stageTwoMatches =
-          pgVectorStore.similaritySearch(
-              SearchRequest.builder()
-                  .query(aggregatedQuery)
-                  .topK(estimatedTopK)
-                  .filterExpression(limitedFilter)
-                  .build());
+          withHnswSearchScope(estimatedTopK, () -> pgVectorStore.similaritySearch(stageTwoRequest));
 
       log.info(
           "[reviewCodeContext][phase-2] repo={} candidateIds={} estimatedTopK={} matches={}",
@@ -777,6 +1160,206 @@ public class RAGServiceImpl implements IRAGService {
     }
   }
 
+  @Override
+  public Map<String, List<RagSnippetDTO>> reviewCodeContextPerFile(
+      String repoName, List<RagFileQueryDTO> files, int topK) {
+    long startNs = System.nanoTime();
+    Map<String, List<RagSnippetDTO>> result = new LinkedHashMap<>();
+    try {
+      // 每个文件切分为若干 chunk，记录 chunk 所属的文件，全部 chunk 一次批量检索
+      List<String> chunkTexts = new ArrayList<>();
+      List<String> chunkPaths = new ArrayList<>();
+      for (RagFileQueryDTO file : files) {
+        if (file == null || file.getPath() == null) {
+          continue;
+        }
+        result.put(file.getPath(), new ArrayList<>());
+        if (file.getCode() == null || file.getCode().isBlank()) {
+          continue;
+        }
+        // 每个文件最多取前 MAX_QUERY_CHUNKS_PER_FILE 个 chunk，避免单个大文件占满整批检索
+        int fileChunks = 0;
+        for (Document chunk : tokenTextSplitter.apply(List.of(new Document(file.getCode())))) {
+          if (fileChunks >= MAX_QUERY_CHUNKS_PER_FILE) {
+            break;
+          }
+          if (chunk.getText() != null && !chunk.getText().isBlank()) {
+            chunkTexts.add(chunk.getText());
+            chunkPaths.add(file.getPath());
+            fileChunks++;
+          }
+        }
+      }
+      if (chunkTexts.isEmpty()) {
+        return result;
+      }
+
+      List<List<Document>> matchesPerChunk =
+          batchSimilaritySearch(repoName, chunkTexts, topK * 2);
+
+      // 同一文件的多个 chunk 命中同一片段时取最高分
+      final double scoreThreshold = 0.1d;
+      Map<String, Map<String, Document>> bestPerFile = new HashMap<>();
+      for (int i = 0; i < chunkTexts.size(); i++) {
+        Map<String, Document> best =
+            bestPerFile.computeIfAbsent(chunkPaths.get(i), k -> new LinkedHashMap<>());
+        for (Document match : matchesPerChunk.get(i)) {
+          Double score = match.getScore();
+          if (score != null && score < scoreThreshold) {
+            continue;
+          }
+          Document existing = best.get(match.getId());
+          if (existing == null
+              || Optional.ofNullable(existing.getScore()).orElse(0d)
+                  < Optional.ofNullable(score).orElse(0d)) {
+            best.put(match.getId(), match);
+          }
+        }
+      }
+
+      int totalSnippets = 0;
+      for (Map.Entry<String, Map<String, Document>> entry : bestPerFile.entrySet()) {
+        List<RagSnippetDTO> snippets =
+            entry.getValue().values().stream()
+                .sorted(
+                    Comparator.comparing(
+                            (Document m) ->
+                                Optional.ofNullable(m.getScore())
+                                    .orElse(Double.NEGATIVE_INFINITY))
+                        .reversed())
+                .limit(topK)
+                .map(m -> new RagSnippetDTO(m.getFormattedContent(), m.getScore()))
+                .collect(Collectors.toList());
+        totalSnippets += snippets.size();
+        result.put(entry.getKey(), snippets);
+      }
+
+      log.info(
+          "[reviewCodeContextPerFile] repo={} files={} chunks={} topK={} snippets={}",
+          repoName,
+          result.size(),
+          chunkTexts.size(),
+          topK,
+          totalSnippets);
+      return result;
+    } finally {
+      long totalCostMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+      log.info("[reviewCodeContextPerFile] repo={} totalCostMs={}", repoName, totalCostMs);
+    }
+  }
+
+  /**
+   * 批量相似度检索：按 {@value #SEARCH_BATCH_SIZE} 条查询切片，每片一次 embed(List) 得到查询向量，再通过 LATERAL
+   * 子查询在一次往返内完成每个查询的 topK；切片避免超出 embedding 请求大小和 JDBC 绑定参数上限
+   *
+   * @param repoName 仓库名
+   * @param queries 查询文本
+   * @param topK 每个查询返回的数量
+   * @return 与 queries 顺序一致的匹配结果
+   */
+  private List<List<Document>> batchSimilaritySearch(
+      String repoName, List<String> queries, int topK) {
+    List<List<Document>> results = new ArrayList<>(queries.size());
+    for (int i = 0; i < queries.size(); i++) {
+      results.add(new ArrayList<>());
+    }
+    for (int from = 0; from < queries.size(); from += SEARCH_BATCH_SIZE) {
+      int to = Math.min(from + SEARCH_BATCH_SIZE, queries.size());
+      searchSlice(repoName, queries.subList(from, to), topK, results.subList(from, to));
+    }
+    return results;
+  }
+
+  private void searchSlice(
+      String repoName, List<String> queries, int topK, List<List<Document>> results) {
+    long embedStartNs = System.nanoTime();
+    List<float[]> embeddings = ollamaEmbeddingModel.embed(queries);
+    log.info(
+        "[batchSimilaritySearch] repo={} queries={} embedCostMs={}",
+        repoName,
+        queries.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - embedStartNs));
+
+    String values =
+        queries.stream().map(q -> "(?, ?::vector)").collect(Collectors.joining(", "));
+    // 每个查询单独走一次 HNSW 扫描，repo 过滤在扫描之后，需要放大 ef_search
+    String sql =
+        "SELECT q.ord, v.id, v.content, v.metadata, v.distance"
+            + " FROM (VALUES "
+            + values
+            + ") AS q(ord, embedding)"
+            + " CROSS JOIN LATERAL ("
+            + "   SELECT id, content, metadata, embedding <=> q.embedding AS distance"
+            + "   FROM vector_store"
+            + "   WHERE metadata->>'repo' = ?"
+            + "   ORDER BY embedding <=> q.embedding"
+            + "   LIMIT ?"
+            + " ) v"
+            + " WHERE v.distance < 1"
+            + " ORDER BY q.ord, v.distance";
+
+    List<Object> args = new ArrayList<>(queries.size() * 2 + 2);
+    for (int i = 0; i < embeddings.size(); i++) {
+      args.add(i);
+      args.add(new PGvector(embeddings.get(i)));
+    }
+    args.add(repoName);
+    args.add(topK);
+
+    withHnswSearchScope(
+        topK,
+        () -> {
+          jdbcTemplate.query(
+              sql,
+              rs -> {
+                int ord = rs.getInt("ord");
+                double distance = rs.getDouble("distance");
+                Map<String, Object> metadata = parseMetadata(rs.getString("metadata"));
+                metadata.put("distance", distance);
+                results
+                    .get(ord)
+                    .add(
+                        Document.builder()
+                            .id(rs.getString("id"))
+                            .text(rs.getString("content"))
+                            .metadata(metadata)
+                            .score(1.0d - distance)
+                            .build());
+              },
+              args.toArray());
+          return null;
+        });
+  }
+
+  /**
+   * 在事务内以 SET LOCAL 语义设置 hnsw.ef_search 后执行检索
+   *
+   * <p>HNSW 先在全表图上取 ef_search 个候选，再按 repo / docId 过滤；共享 vector_store 时默认的 40 个候选过滤后常常不足
+   * topK。ef_search 取配置值与 topK 的较大者（pgvector 上限 1000），只作用于当前事务使用的连接。仓库很多时应改用
+   * vector_store_partitioned.sql，每个分区各自建 HNSW 索引
+   */
+  private <T> T withHnswSearchScope(int topK, Supplier<T> search) {
+    int efSearch = Math.min(HNSW_MAX_EF_SEARCH, Math.max(hnswEfSearch, topK));
+    return transactionTemplate.execute(
+        status -> {
+          jdbcTemplate.queryForObject(
+              "SELECT set_config('hnsw.ef_search', ?, true)", String.class, String.valueOf(efSearch));
+          return search.get();
+        });
+  }
+
+  private Map<String, Object> parseMetadata(String json) {
+    if (json == null || json.isBlank()) {
+      return new HashMap<>();
+    }
+    try {
+      return mapper.readValue(json, new TypeReference<HashMap<String, Object>>() {});
+    } catch (Exception e) {
+      log.warn("Failed to parse vector metadata: {}", e.getMessage());
+      return new HashMap<>();
+    }
+  }
+
   @Override
   public List<String> getRepositoryTags(String repoName) {
     return new ArrayList<>();
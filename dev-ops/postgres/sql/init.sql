@@ -84,6 +84,75 @@ CREATE TABLE IF NOT EXISTS pr_snapshots (
 );
 
 
+-- ===========================================================
+-- 文件级审查结果缓存（key = sha256(模型 + prompt 版本 + 文件变更)）
+-- ===========================================================
+CREATE TABLE IF NOT EXISTS review_cache (
+    cache_key VARCHAR(64) PRIMARY KEY,
+    model VARCHAR(100) NOT NULL,
+    prompt_version VARCHAR(64) NOT NULL,
+    file_path TEXT,
+
+    review JSONB DEFAULT '{}'::jsonb,
+
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+
+-- ===========================================================
+-- 审查结果发布 outbox（LLM 审查完成后写入，由后台 worker 发布到 GitHub 并保存 message）
+-- ===========================================================
+CREATE TABLE IF NOT EXISTS review_outbox (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    pr_url TEXT NOT NULL,
+    repo_name VARCHAR(255) NOT NULL,
+    pr_number VARCHAR(32) NOT NULL,
+    head_commit_sha VARCHAR(64),
+    model VARCHAR(100),
+    conversation_id UUID,
+    client_identifier UUID,
+
+    review JSONB DEFAULT '{}'::jsonb,
+    snapshot JSONB,                              -- 增量审查基线，发布完成后才写入 pr_snapshots
+
+    status VARCHAR(20) DEFAULT 'PENDING',        -- PENDING/PROCESSING/DONE/FAILED
+    message_saved BOOLEAN DEFAULT FALSE,         -- 已保存到 messages，重试时跳过
+    comment_posted BOOLEAN DEFAULT FALSE,        -- 已发布 PR 总结评论，重试时跳过
+    attempts INT DEFAULT 0,
+    last_error TEXT,
+    next_attempt_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    locked_until TIMESTAMP,                      -- PROCESSING 租约到期后（进程重启）可被重新领取
+    claim_token VARCHAR(64),                     -- 每次领取重新生成，进度更新须匹配，防止过期 worker 写入
+
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+
+-- ===========================================================
+-- PR 审查任务队列（多实例共享，worker 以 FOR UPDATE SKIP LOCKED 领取）
+-- ===========================================================
+CREATE TABLE IF NOT EXISTS review_jobs (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    pr_url TEXT NOT NULL,
+    model VARCHAR(100),
+
+    status VARCHAR(20) DEFAULT 'QUEUED',         -- QUEUED/RUNNING/SUCCEEDED/FAILED
+    attempts INT DEFAULT 0,
+    worker_id VARCHAR(255),                      -- 当前执行的 worker（实例）
+    locked_until TIMESTAMP,                      -- RUNNING 租约，worker 定期续约；过期后（实例退出）任务重新排队
+
+    result JSONB,                                -- 审查结果
+    last_error TEXT,
+
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    started_at TIMESTAMP,
+    finished_at TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+
 -- ===========================================================
 -- 索引
 -- ===========================================================
@@ -93,8 +162,42 @@ CREATE INDEX IF NOT EXISTS idx_conversations_client_id
 CREATE INDEX IF NOT EXISTS idx_conversations_pr_url
     ON conversations USING gin (pr_url gin_trgm_ops);
 
-CREATE INDEX IF NOT EXISTS idx_messages_conversation_id
-    ON messages(conversation_id);
+-- 按会话取最近 N 条消息（ORDER BY created_at DESC LIMIT N），同时覆盖仅按 conversation_id 的查询
+CREATE INDEX IF NOT EXISTS idx_messages_conversation_created_at
+    ON messages(conversation_id, created_at);
+
+DROP INDEX IF EXISTS idx_messages_conversation_id;
+
+-- 按时间清理过期的审查缓存
+CREATE INDEX IF NOT EXISTS idx_review_cache_updated_at
+    ON review_cache(updated_at);
+
+-- outbox worker 只扫描未完成的记录
+CREATE INDEX IF NOT EXISTS idx_review_outbox_pending
+    ON review_outbox(next_attempt_at)
+    WHERE status IN ('PENDING', 'PROCESSING');
+
+-- 按提交顺序领取排队中的任务，同时用于统计队列深度
+CREATE INDEX IF NOT EXISTS idx_review_jobs_active
+    ON review_jobs(status, created_at)
+    WHERE status IN ('QUEUED', 'RUNNING');
+
+-- 检索均按 repo 过滤，阶段 2 按 docId IN (...) 过滤
+CREATE INDEX IF NOT EXISTS idx_vector_store_metadata_repo
+    ON vector_store ((metadata->>'repo'));
+
+-- 按文件 docId（repo:path）删除向量时使用
+CREATE INDEX IF NOT EXISTS idx_vector_store_metadata_id
+    ON vector_store ((metadata->>'id'));
+
+-- 向量近邻索引（余弦距离，与 PgVectorStore 默认的 <=> 一致）
+-- repo 过滤在 HNSW 扫描之后执行，检索时由 RAGServiceImpl 在事务内调高 hnsw.ef_search（rag.search.hnsw-ef-search），
+-- 避免候选集被其他仓库占满后返回不足 topK 条
+CREATE INDEX IF NOT EXISTS idx_vector_store_embedding_hnsw
+    ON vector_store USING hnsw (embedding vector_cosine_ops)
+    WITH (m = 16, ef_construction = 64);
+
+-- 仓库数量较多时可改用 vector_store_partitioned.sql 按 repo 做 LIST 分区
 
 
 -- ===========================================================
@@ -0,0 +1,55 @@
+-- ===========================================================
+-- 可选：vector_store 按 repo 做 LIST 分区
+-- 接入仓库较多时使用，检索按 metadata->>'repo' 过滤可直接裁剪到单个分区
+-- 注意：会重建 vector_store，已有向量需要重新索引
+-- ===========================================================
+
+DROP TABLE IF EXISTS vector_store CASCADE;
+
+-- 分区表无法在不含分区键的列上建唯一约束，因此 id 只建普通索引；
+-- 所有写入路径（RAGServiceImpl 批量写入、InsertOnlyPgVectorStore）都使用普通 INSERT，
+-- 每次生成新的 id，不依赖 ON CONFLICT (id)
+CREATE TABLE vector_store (
+    id uuid NOT NULL,
+    content text,
+    metadata jsonb,
+    embedding vector(1024)
+) PARTITION BY LIST ((metadata->>'repo'));
+
+-- 未单独建分区的仓库落到默认分区
+CREATE TABLE IF NOT EXISTS vector_store_default
+    PARTITION OF vector_store DEFAULT;
+
+
+-- ===========================================================
+-- 索引（在父表上创建，自动下发到各分区）
+-- ===========================================================
+CREATE INDEX IF NOT EXISTS idx_vector_store_id
+    ON vector_store (id);
+
+CREATE INDEX IF NOT EXISTS idx_vector_store_metadata_repo
+    ON vector_store ((metadata->>'repo'));
+
+CREATE INDEX IF NOT EXISTS idx_vector_store_metadata_id
+    ON vector_store ((metadata->>'id'));
+
+CREATE INDEX IF NOT EXISTS idx_vector_store_embedding_hnsw
+    ON vector_store USING hnsw (embedding vector_cosine_ops)
+    WITH (m = 16, ef_construction = 64);
+
+
+-- ===========================================================
+-- 为指定仓库创建独立分区
+-- 用法：SELECT create_vector_store_partition('alias-rag-review');
+-- 默认分区中已有该仓库数据时需先删除（或重新索引）再创建
+-- ===========================================================
+CREATE OR REPLACE FUNCTION create_vector_store_partition(repo_name TEXT)
+RETURNS VOID AS $$
+DECLARE
+    partition_name TEXT := 'vector_store_' || substr(md5(repo_name), 1, 12);
+BEGIN
+    EXECUTE format(
+        'CREATE TABLE IF NOT EXISTS %I PARTITION OF vector_store FOR VALUES IN (%L)',
+        partition_name, repo_name);
+END;
+$$ LANGUAGE plpgsql;
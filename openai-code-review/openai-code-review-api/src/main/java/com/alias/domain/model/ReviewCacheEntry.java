@@ -0,0 +1,58 @@
+package com.alias.domain.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Review Cache Entry Model
+ * Caches the review result of a single file, keyed by model + prompt version + file changes hash
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewCacheEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Cache key (sha256 hex of model, prompt version and file changes)
+     */
+    private String cacheKey;
+
+    /**
+     * Model used for the review
+     */
+    private String model;
+
+    /**
+     * Review prompt version
+     */
+    private String promptVersion;
+
+    /**
+     * File path (for troubleshooting only, not part of the key)
+     */
+    private String filePath;
+
+    /**
+     * File review result payload (JSONB)
+     */
+    private Map<String, Object> review;
+
+    /**
+     * Creation timestamp
+     */
+    private LocalDateTime createdAt;
+
+    /**
+     * Update timestamp
+     */
+    private LocalDateTime updatedAt;
+}
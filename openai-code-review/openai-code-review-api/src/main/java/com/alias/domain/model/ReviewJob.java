@@ -0,0 +1,97 @@
+package com.alias.domain.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Review Job Model
+ * An asynchronous PR review submitted through the job API and executed by a worker on any app instance
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewJob implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String STATUS_QUEUED = "QUEUED";
+
+    public static final String STATUS_RUNNING = "RUNNING";
+
+    public static final String STATUS_SUCCEEDED = "SUCCEEDED";
+
+    public static final String STATUS_FAILED = "FAILED";
+
+    /**
+     * Job ID
+     */
+    private UUID id;
+
+    /**
+     * PR URL
+     */
+    private String prUrl;
+
+    /**
+     * Model used for the review
+     */
+    private String model;
+
+    /**
+     * Status: QUEUED/RUNNING/SUCCEEDED/FAILED
+     */
+    private String status;
+
+    /**
+     * Number of times the job has been started
+     */
+    private Integer attempts;
+
+    /**
+     * Worker (app instance) currently running the job
+     */
+    private String workerId;
+
+    /**
+     * Lease end of a RUNNING job
+     */
+    private LocalDateTime lockedUntil;
+
+    /**
+     * Review result (JSONB), set when the job succeeded
+     */
+    private Map<String, Object> result;
+
+    /**
+     * Error message, set when the job failed
+     */
+    private String lastError;
+
+    /**
+     * Creation (submit) timestamp
+     */
+    private LocalDateTime createdAt;
+
+    /**
+     * Start timestamp of the latest attempt
+     */
+    private LocalDateTime startedAt;
+
+    /**
+     * Finish timestamp
+     */
+    private LocalDateTime finishedAt;
+
+    /**
+     * Update timestamp
+     */
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,127 @@
+package com.alias.domain.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Review Outbox Entry Model
+ * A finished PR review waiting to be published to GitHub and saved as a conversation message
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewOutboxEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String STATUS_PENDING = "PENDING";
+
+    public static final String STATUS_PROCESSING = "PROCESSING";
+
+    public static final String STATUS_DONE = "DONE";
+
+    public static final String STATUS_FAILED = "FAILED";
+
+    /**
+     * Unique identifier
+     */
+    private UUID id;
+
+    /**
+     * PR URL
+     */
+    private String prUrl;
+
+    /**
+     * Repository name (owner/repo)
+     */
+    private String repoName;
+
+    /**
+     * PR number
+     */
+    private String prNumber;
+
+    /**
+     * PR head commit SHA the review was made against
+     */
+    private String headCommitSha;
+
+    /**
+     * Model used for the review
+     */
+    private String model;
+
+    /**
+     * Conversation the review message is saved to, may be null
+     */
+    private UUID conversationId;
+
+    /**
+     * Client identifier
+     */
+    private UUID clientIdentifier;
+
+    /**
+     * Merged review result (JSONB)
+     */
+    private Map<String, Object> review;
+
+    /**
+     * Incremental review baseline (JSONB), saved as the PR snapshot once the review is published; may be null
+     */
+    private Map<String, Object> snapshot;
+
+    /**
+     * Status: PENDING/PROCESSING/DONE/FAILED
+     */
+    private String status;
+
+    /**
+     * Whether the review message has been saved
+     */
+    private Boolean messageSaved;
+
+    /**
+     * Whether the PR summary comment has been posted
+     */
+    private Boolean commentPosted;
+
+    /**
+     * Number of publish attempts
+     */
+    private Integer attempts;
+
+    /**
+     * Last publish error
+     */
+    private String lastError;
+
+    /**
+     * Earliest time of the next attempt
+     */
+    private LocalDateTime nextAttemptAt;
+
+    /**
+     * Lease end of a PROCESSING entry
+     */
+    private LocalDateTime lockedUntil;
+
+    /**
+     * Creation timestamp
+     */
+    private LocalDateTime createdAt;
+
+    /**
+     * Update timestamp
+     */
+    private LocalDateTime updatedAt;
+}
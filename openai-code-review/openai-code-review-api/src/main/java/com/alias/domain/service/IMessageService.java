@@ -45,6 +45,23 @@ public interface IMessageService {
      */
     List<Message> getMessagesByConversationId(UUID conversationId, int limit, int offset);
 
+    /**
+     * Get the latest messages for a conversation
+     *
+     * @param conversationId the conversation ID
+     * @param limit          the maximum number of messages to return
+     * @return the last {@code limit} messages, ordered by creation time ascending
+     */
+    List<Message> getLatestMessages(UUID conversationId, int limit);
+
+    /**
+     * Get the ID of the latest message for a conversation
+     *
+     * @param conversationId the conversation ID
+     * @return the latest message ID, or null if the conversation has no messages
+     */
+    String getLatestMessageId(UUID conversationId);
+
     /**
      * Delete message
      *
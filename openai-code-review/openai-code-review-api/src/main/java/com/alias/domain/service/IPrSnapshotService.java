@@ -43,6 +43,15 @@ public interface IPrSnapshotService {
      */
     PrSnapshot getSnapshotByUrl(String url);
 
+    /**
+     * Get snapshot by PR URL and client identifier
+     *
+     * @param url              the PR url
+     * @param clientIdentifier the client identifier, may be null
+     * @return the snapshot or null if not found
+     */
+    PrSnapshot getSnapshotByUrlAndClientIdentifier(String url, UUID clientIdentifier);
+
     /**
      * Get snapshots by repository and PR number
      *
@@ -0,0 +1,27 @@
+package com.alias.domain.service;
+
+import com.alias.domain.model.ReviewCacheEntry;
+
+import java.util.Map;
+
+/**
+ * Review Cache Service Interface
+ * Caches per-file review results so unchanged files are not sent to the LLM again on re-review
+ */
+public interface IReviewCacheService {
+
+    /**
+     * Get a cached file review
+     *
+     * @param cacheKey the cache key
+     * @return the cached review or null if not found
+     */
+    Map<String, Object> getReview(String cacheKey);
+
+    /**
+     * Save or update a file review
+     *
+     * @param entry the cache entry to save
+     */
+    void putReview(ReviewCacheEntry entry);
+}
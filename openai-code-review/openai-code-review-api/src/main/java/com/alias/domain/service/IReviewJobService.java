@@ -0,0 +1,36 @@
+package com.alias.domain.service;
+
+import com.alias.domain.model.ReviewJob;
+
+import java.util.UUID;
+
+/**
+ * Review Job Service Interface
+ * Queues PR reviews in a shared table; workers on every app instance claim and run them
+ */
+public interface IReviewJobService {
+
+    /**
+     * Submit a PR review job
+     *
+     * @param prUrl the PR URL
+     * @param model the model to use, may be null
+     * @return the queued job, or null if the queue is full and the job was rejected
+     */
+    ReviewJob submit(String prUrl, String model);
+
+    /**
+     * Get a job by ID
+     *
+     * @param id the job ID
+     * @return the job or null if not found
+     */
+    ReviewJob getJob(UUID id);
+
+    /**
+     * Claim queued jobs up to the free worker slots and start them
+     *
+     * @return number of jobs started
+     */
+    int dispatch();
+}
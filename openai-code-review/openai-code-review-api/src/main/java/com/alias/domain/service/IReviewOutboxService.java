@@ -0,0 +1,35 @@
+package com.alias.domain.service;
+
+import com.alias.domain.model.ReviewOutboxEntry;
+
+import java.util.UUID;
+
+/**
+ * Review Outbox Service Interface
+ * Publishes finished reviews (GitHub comments + conversation message) asynchronously from a durable outbox table
+ */
+public interface IReviewOutboxService {
+
+    /**
+     * Enqueue a finished review for publishing; an entry with the same ID that is already stored is kept as is
+     *
+     * @param entry the outbox entry
+     * @return true if the entry is stored; false means the caller should publish inline
+     */
+    boolean enqueue(ReviewOutboxEntry entry);
+
+    /**
+     * Get an entry by ID
+     *
+     * @param id the entry ID
+     * @return the entry or null if not found
+     */
+    ReviewOutboxEntry getEntry(UUID id);
+
+    /**
+     * Claim and publish due entries
+     *
+     * @return number of entries processed
+     */
+    int drain();
+}
@@ -0,0 +1,127 @@
+package com.alias.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor Configuration
+ * 为 SSE 会话、异步持久化、审查任务和滚动摘要提供命名、可配置的线程池，替代 CompletableFuture 默认使用的 ForkJoinPool.commonPool
+ * <p>
+ * 通过 executor.* 指标上报队列深度、活跃线程数、完成数，以及 executor.rejected 拒绝次数；MeterRegistry 由 actuator 提供，指标经 /actuator/metrics 查看
+ */
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+
+    public static final String REVIEW_SESSION_EXECUTOR = "reviewSessionExecutor";
+
+    public static final String PERSISTENCE_EXECUTOR = "persistenceExecutor";
+
+    public static final String REVIEW_JOB_EXECUTOR = "reviewJobExecutor";
+
+    public static final String HISTORY_SUMMARY_EXECUTOR = "historySummaryExecutor";
+
+    /**
+     * SSE 会话线程池：承载 chat / review 会话的编排，主要时间花在等待 LLM 和 GitHub 的 IO 上，线程数按并发会话数配置
+     * 队列满时直接拒绝，由调用方向客户端返回繁忙错误
+     */
+    @Bean(name = REVIEW_SESSION_EXECUTOR, destroyMethod = "shutdown")
+    public ExecutorService reviewSessionExecutor(@Value("${executor.review-session.core-size:16}") int coreSize, @Value("${executor.review-session.max-size:64}") int maxSize, @Value("${executor.review-session.queue-capacity:100}") int queueCapacity, ObjectProvider<MeterRegistry> meterRegistry) {
+        return newExecutor(REVIEW_SESSION_EXECUTOR, "review-session-", coreSize, maxSize, queueCapacity, new ThreadPoolExecutor.AbortPolicy(), meterRegistry.getIfAvailable());
+    }
+
+    /**
+     * 持久化线程池：PR 快照、审查缓存、message 等短数据库写入，容量有界；队列满时在调用线程中执行，避免丢失数据
+     * 调用 LLM 或 GitHub 等耗时任务不要提交到这里，否则会阻塞所有会话的写入
+     */
+    @Bean(name = PERSISTENCE_EXECUTOR, destroyMethod = "shutdown")
+    public ExecutorService persistenceExecutor(@Value("${executor.persistence.core-size:2}") int coreSize, @Value("${executor.persistence.max-size:4}") int maxSize, @Value("${executor.persistence.queue-capacity:500}") int queueCapacity, ObjectProvider<MeterRegistry> meterRegistry) {
+        return newExecutor(PERSISTENCE_EXECUTOR, "persistence-", coreSize, maxSize, queueCapacity, new ThreadPoolExecutor.CallerRunsPolicy(), meterRegistry.getIfAvailable());
+    }
+
+    /**
+     * 审查任务 worker 线程池：每个线程执行一个从 review_jobs 领取的任务，线程数即本实例的任务并发数
+     * 任务只在有空闲 worker 时才被领取，队列只用于承接领取与执行之间的短暂间隙
+     */
+    @Bean(name = REVIEW_JOB_EXECUTOR, destroyMethod = "shutdown")
+    public ExecutorService reviewJobExecutor(@Value("${executor.review-job.workers:4}") int workers, ObjectProvider<MeterRegistry> meterRegistry) {
+        return newExecutor(REVIEW_JOB_EXECUTOR, "review-job-", workers, workers, workers, new ThreadPoolExecutor.AbortPolicy(), meterRegistry.getIfAvailable());
+    }
+
+    /**
+     * 滚动摘要线程池：每个任务阻塞调用一次模型，与持久化写入隔离；队列满时拒绝，摘要推迟到下一轮对话
+     */
+    @Bean(name = HISTORY_SUMMARY_EXECUTOR, destroyMethod = "shutdown")
+    public ExecutorService historySummaryExecutor(@Value("${executor.history-summary.core-size:1}") int coreSize, @Value("${executor.history-summary.max-size:2}") int maxSize, @Value("${executor.history-summary.queue-capacity:20}") int queueCapacity, ObjectProvider<MeterRegistry> meterRegistry) {
+        return newExecutor(HISTORY_SUMMARY_EXECUTOR, "history-summary-", coreSize, maxSize, queueCapacity, new ThreadPoolExecutor.AbortPolicy(), meterRegistry.getIfAvailable());
+    }
+
+    private static ExecutorService newExecutor(String name, String threadPrefix, int coreSize, int maxSize, int queueCapacity, RejectedExecutionHandler policy, MeterRegistry registry) {
+        int core = Math.max(1, coreSize);
+        int max = Math.max(core, maxSize);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(core, max, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), new NamedThreadFactory(threadPrefix), new CountingRejectedExecutionHandler(name, policy, registry));
+        executor.allowCoreThreadTimeOut(true);
+        log.info("Executor created. name={}, coreSize={}, maxSize={}, queueCapacity={}", name, core, max, queueCapacity);
+
+        if (registry == null) {
+            return executor;
+        }
+        // executor.active / executor.queued / executor.pool.size / executor.completed 等指标
+        return ExecutorServiceMetrics.monitor(registry, executor, name, Collections.emptyList());
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger(1);
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * 记录拒绝次数后交给实际的拒绝策略处理
+     */
+    private static final class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+        private final String name;
+        private final RejectedExecutionHandler delegate;
+        private final Counter counter;
+
+        CountingRejectedExecutionHandler(String name, RejectedExecutionHandler delegate, MeterRegistry registry) {
+            this.name = name;
+            this.delegate = delegate;
+            this.counter = registry != null ? Counter.builder("executor.rejected").tag("name", name).description("Tasks rejected because the executor queue was full").register(registry) : null;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (counter != null) {
+                counter.increment();
+            }
+            log.warn("Executor saturated, task rejected. name={}, active={}, queued={}, poolSize={}", name, executor.getActiveCount(), executor.getQueue().size(), executor.getPoolSize());
+            delegate.rejectedExecution(r, executor);
+        }
+    }
+}
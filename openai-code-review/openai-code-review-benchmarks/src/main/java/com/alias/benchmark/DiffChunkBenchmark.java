@@ -0,0 +1,47 @@
+package com.alias.benchmark;
+
+import com.alias.utils.DiffChunkUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiffChunkUtils.splitDiffByFileBlocks，chunk 上限与 review 流程的 MAX_PROMPT_CHARS 保持一致
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+public class DiffChunkBenchmark {
+
+    @Param({"1KB", "64KB", "1MB", "10MB", "50MB"})
+    public String diffSize;
+
+    @Param({"180000"})
+    public int maxPerChunk;
+
+    private String diff;
+
+    @Setup
+    public void setUp() {
+        diff = SyntheticDiffs.unifiedDiff(SyntheticDiffs.parseSize(diffSize));
+    }
+
+    @Benchmark
+    public List<String> splitDiffByFileBlocks() {
+        return DiffChunkUtils.splitDiffByFileBlocks(diff, maxPerChunk);
+    }
+}
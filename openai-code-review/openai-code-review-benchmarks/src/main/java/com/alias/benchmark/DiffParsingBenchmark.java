@@ -0,0 +1,56 @@
+package com.alias.benchmark;
+
+import com.alias.utils.VCSUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * VCSUtils.parseUnifiedDiff：整段字符串解析 vs InputStream 流式解析
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+public class DiffParsingBenchmark {
+
+    @Param({"1KB", "64KB", "1MB", "10MB", "50MB"})
+    public String diffSize;
+
+    private String diff;
+
+    private byte[] diffBytes;
+
+    @Setup
+    public void setUp() {
+        diff = SyntheticDiffs.unifiedDiff(SyntheticDiffs.parseSize(diffSize));
+        diffBytes = diff.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<VCSUtils.FileChanges> parseString() {
+        return VCSUtils.parseUnifiedDiff(diff);
+    }
+
+    @Benchmark
+    public void parseStream(Blackhole blackhole) throws IOException {
+        VCSUtils.parseUnifiedDiff(new ByteArrayInputStream(diffBytes), blackhole::consume);
+    }
+}
@@ -0,0 +1,97 @@
+package com.alias.benchmark;
+
+import com.alias.domain.prompt.PromptBudgeter;
+import com.alias.domain.prompt.ReviewPrompts;
+import com.alias.utils.VCSUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 审查 prompt 构建：生产路径经 {@link PromptBudgeter} 按 token 预算裁剪 RAG / 上下文、超大文件按 hunk 打包后再序列化；
+ * 直接调用 ReviewPrompts.buildStructuredPrompt 的方法作为不含预算计算的对比基线
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+public class PromptSerializationBenchmark {
+
+    // 与 RAG 服务返回格式一致：多个片段以分隔符连接，预算不足时按片段丢弃
+    private static final String RAG_CONTEXT = String.join(PromptBudgeter.RAG_DOCUMENT_SEPARATOR, Collections.nCopies(20, "Relevant code from the repository knowledge base.\n".repeat(10)));
+
+    @Param({"1KB", "64KB", "1MB", "10MB", "50MB"})
+    public String diffSize;
+
+    private List<VCSUtils.FileChanges> files;
+
+    private ObjectMapper mapper;
+
+    @Setup
+    public void setUp() {
+        files = VCSUtils.parseUnifiedDiff(SyntheticDiffs.unifiedDiff(SyntheticDiffs.parseSize(diffSize)));
+        mapper = new ObjectMapper();
+    }
+
+    /**
+     * 与 reviewSingleFileAsync 相同：每个文件新建 ObjectMapper 与 PromptBudgeter，按 token 预算生成一个或多个 prompt
+     */
+    @Benchmark
+    public void budgetedReviewPromptPerFile(Blackhole blackhole) throws Exception {
+        for (VCSUtils.FileChanges file : files) {
+            blackhole.consume(new PromptBudgeter(PromptBudgeter.DEFAULT_MAX_PROMPT_TOKENS).buildFilePrompts(new ObjectMapper(), ReviewPrompts.PR_REVIEW_PROMPT, file, RAG_CONTEXT));
+        }
+    }
+
+    /**
+     * 与 generatePrSummaryAsync 相同：整个 PR 按 token 预算打包为一个 prompt，放不下的文件只保留路径
+     */
+    @Benchmark
+    public String budgetedSummaryPrompt() throws Exception {
+        return new PromptBudgeter(PromptBudgeter.DEFAULT_MAX_PROMPT_TOKENS).buildPrompt(mapper, ReviewPrompts.PR_SUMMARY_PROMPT, files, null);
+    }
+
+    /**
+     * 基线：不经过预算计算，每个文件新建一个 ObjectMapper 直接序列化
+     */
+    @Benchmark
+    public void reviewPromptPerFile(Blackhole blackhole) throws Exception {
+        for (VCSUtils.FileChanges file : files) {
+            blackhole.consume(ReviewPrompts.buildStructuredPrompt(new ObjectMapper(), ReviewPrompts.PR_REVIEW_PROMPT, Collections.singletonList(file), RAG_CONTEXT));
+        }
+    }
+
+    /**
+     * 复用同一个 ObjectMapper，用于对比 mapper 创建开销
+     */
+    @Benchmark
+    public void reviewPromptPerFileSharedMapper(Blackhole blackhole) throws Exception {
+        for (VCSUtils.FileChanges file : files) {
+            blackhole.consume(ReviewPrompts.buildStructuredPrompt(mapper, ReviewPrompts.PR_REVIEW_PROMPT, Collections.singletonList(file), RAG_CONTEXT));
+        }
+    }
+
+    /**
+     * 基线：整个 PR 不经过预算计算一次性序列化
+     */
+    @Benchmark
+    public String summaryPrompt() throws Exception {
+        return ReviewPrompts.buildStructuredPrompt(mapper, ReviewPrompts.PR_SUMMARY_PROMPT, files, null);
+    }
+}
@@ -0,0 +1,52 @@
+package com.alias.benchmark;
+
+import com.alias.utils.ReviewJsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReviewJsonUtils：从 LLM 回复中提取 JSON，以及把 diff / review 文本转义为 JSON 字符串
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+public class ReviewJsonBenchmark {
+
+    @Param({"1KB", "64KB", "1MB", "10MB", "50MB"})
+    public String size;
+
+    private String llmResponse;
+
+    private String diff;
+
+    @Setup
+    public void setUp() {
+        int chars = SyntheticDiffs.parseSize(size);
+        llmResponse = SyntheticDiffs.reviewResponse(chars);
+        diff = SyntheticDiffs.unifiedDiff(chars);
+    }
+
+    @Benchmark
+    public String extractJsonPayload() {
+        return ReviewJsonUtils.extractJsonPayload(llmResponse);
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return ReviewJsonUtils.toJsonString(diff);
+    }
+}
@@ -0,0 +1,168 @@
+package com.alias.benchmark;
+
+import java.util.Random;
+
+/**
+ * 生成用于基准测试的合成 PR diff / LLM 输出，相同的 size + seed 始终得到相同的内容
+ */
+public final class SyntheticDiffs {
+
+    private static final long DEFAULT_SEED = 20240501L;
+
+    private static final String[] DIRS = {"src/main/java/com/alias/domain/service", "src/main/java/com/alias/infrastructure/dao", "src/main/resources/mapper", "src/test/java/com/alias/test", "docs"};
+
+    private static final String[] EXTENSIONS = {".java", ".java", ".java", ".xml", ".md", ".sql"};
+
+    private static final String[] TOKENS = {"final", "String", "result", "=", "mapper.readTree(json);", "if", "(node", "==", "null)", "{", "}", "return", "logger.info(\"processing {}\",", "path);", "List<Change>", "changes", "new", "ArrayList<>();", "\"quoted\\tvalue\"", "// TODO 处理异常", "for", "(int", "i", "0;", "i++)"};
+
+    private SyntheticDiffs() {
+    }
+
+    /**
+     * 解析 "1KB" / "64KB" / "10MB" 这样的大小描述
+     */
+    public static int parseSize(String size) {
+        String s = size.trim().toUpperCase();
+        if (s.endsWith("MB")) {
+            return Integer.parseInt(s.substring(0, s.length() - 2).trim()) * 1024 * 1024;
+        }
+        if (s.endsWith("KB")) {
+            return Integer.parseInt(s.substring(0, s.length() - 2).trim()) * 1024;
+        }
+        return Integer.parseInt(s);
+    }
+
+    public static String unifiedDiff(int targetChars) {
+        return unifiedDiff(targetChars, DEFAULT_SEED);
+    }
+
+    /**
+     * 生成至少 targetChars 个字符的 unified diff，包含多个文件、多个 hunk，以及新增 / 删除 / 重命名文件
+     */
+    public static String unifiedDiff(int targetChars, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(targetChars + 8192);
+        int fileNo = 0;
+        while (sb.length() < targetChars) {
+            appendFile(sb, random, fileNo++);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 生成一段形如 LLM 回复的文本：前后带解释文字，中间是 ```json 代码块包裹的 review 结果
+     */
+    public static String reviewResponse(int targetChars) {
+        Random random = new Random(DEFAULT_SEED);
+        StringBuilder sb = new StringBuilder(targetChars + 4096);
+        sb.append("Here is the review result for this pull request:\n\n```json\n{\n  \"summary\": \"Synthetic review\",\n  \"comments\": [\n");
+        int i = 0;
+        while (sb.length() < targetChars) {
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            sb.append("    {\"path\": \"").append(filePath(random, i)).append("\", \"line\": ").append(1 + random.nextInt(2000)).append(", \"severity\": \"").append(random.nextBoolean() ? "major" : "minor").append("\", \"body\": \"Consider handling the {null} case: ").append(codeLine(random).replace("\\", "\\\\").replace("\"", "\\\"")).append("\"}");
+            i++;
+        }
+        sb.append("\n  ]\n}\n```\n\nLet me know if you need more details.");
+        return sb.toString();
+    }
+
+    private static void appendFile(StringBuilder sb, Random random, int fileNo) {
+        String path = filePath(random, fileNo);
+        int kind = random.nextInt(20);
+        if (kind == 0) {
+            // 新增文件
+            int lines = 20 + random.nextInt(200);
+            sb.append("diff --git a/").append(path).append(" b/").append(path).append('\n');
+            sb.append("new file mode 100644\n");
+            sb.append("index 0000000..").append(hash(random)).append('\n');
+            sb.append("--- /dev/null\n");
+            sb.append("+++ b/").append(path).append('\n');
+            sb.append("@@ -0,0 +1,").append(lines).append(" @@\n");
+            for (int i = 0; i < lines; i++) {
+                sb.append('+').append(codeLine(random)).append('\n');
+            }
+            return;
+        }
+        if (kind == 1) {
+            // 删除文件，解析时会被过滤
+            int lines = 10 + random.nextInt(80);
+            sb.append("diff --git a/").append(path).append(" b/").append(path).append('\n');
+            sb.append("deleted file mode 100644\n");
+            sb.append("index ").append(hash(random)).append("..0000000\n");
+            sb.append("--- a/").append(path).append('\n');
+            sb.append("+++ /dev/null\n");
+            sb.append("@@ -1,").append(lines).append(" +0,0 @@\n");
+            for (int i = 0; i < lines; i++) {
+                sb.append('-').append(codeLine(random)).append('\n');
+            }
+            return;
+        }
+
+        String oldPath = kind == 2 ? filePath(random, fileNo + 100_000) : path;
+        sb.append("diff --git a/").append(oldPath).append(" b/").append(path).append('\n');
+        if (kind == 2) {
+            sb.append("similarity index 87%\n");
+            sb.append("rename from ").append(oldPath).append('\n');
+            sb.append("rename to ").append(path).append('\n');
+        }
+        sb.append("index ").append(hash(random)).append("..").append(hash(random)).append(" 100644\n");
+        sb.append("--- a/").append(oldPath).append('\n');
+        sb.append("+++ b/").append(path).append('\n');
+
+        int hunks = 1 + random.nextInt(6);
+        int oldLine = 1 + random.nextInt(50);
+        int newLine = oldLine;
+        for (int h = 0; h < hunks; h++) {
+            int context = 3;
+            int removed = random.nextInt(15);
+            int added = random.nextInt(25);
+            int oldCount = context * 2 + removed;
+            int newCount = context * 2 + added;
+            sb.append("@@ -").append(oldLine).append(',').append(oldCount).append(" +").append(newLine).append(',').append(newCount).append(" @@ public class Synthetic").append(fileNo).append(" {\n");
+            for (int i = 0; i < context; i++) {
+                sb.append(' ').append(codeLine(random)).append('\n');
+            }
+            for (int i = 0; i < removed; i++) {
+                sb.append('-').append(codeLine(random)).append('\n');
+            }
+            for (int i = 0; i < added; i++) {
+                sb.append('+').append(codeLine(random)).append('\n');
+            }
+            for (int i = 0; i < context; i++) {
+                sb.append(' ').append(codeLine(random)).append('\n');
+            }
+            int gap = 10 + random.nextInt(200);
+            oldLine += oldCount + gap;
+            newLine += newCount + gap;
+        }
+        if (random.nextInt(10) == 0) {
+            sb.append("\\ No newline at end of file\n");
+        }
+    }
+
+    private static String filePath(Random random, int fileNo) {
+        return DIRS[random.nextInt(DIRS.length)] + "/Synthetic" + fileNo + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+    }
+
+    private static String codeLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        int indent = random.nextInt(4) * 4;
+        for (int i = 0; i < indent; i++) {
+            line.append(' ');
+        }
+        int words = 3 + random.nextInt(12);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return line.toString();
+    }
+
+    private static String hash(Random random) {
+        return String.format("%07x", random.nextInt(0x10000000));
+    }
+}
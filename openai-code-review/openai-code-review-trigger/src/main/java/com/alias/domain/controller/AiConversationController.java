@@ -5,6 +5,9 @@ import com.alias.domain.model.*;
 import com.alias.domain.service.IAiConversationService;
 import com.alias.domain.service.IMessageService;
 import com.alias.domain.service.IPrSnapshotService;
+import com.alias.domain.service.IReviewCacheService;
+import com.alias.domain.service.IReviewOutboxService;
+import com.alias.domain.service.impl.ConversationHistorySummarizer;
 import com.alias.domain.service.impl.ReviewPullRequestStreamingService;
 import com.alias.domain.utils.ChatUtils;
 import com.alias.infrastructure.git.GitCommand;
@@ -21,6 +24,9 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.io.IOException;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * AI Conversation Controller
@@ -42,14 +48,34 @@ public class AiConversationController {
     @Resource
     private IPrSnapshotService prSnapshotService;
 
+    @Resource
+    private IReviewCacheService reviewCacheService;
+
+    @Resource
+    private IReviewOutboxService reviewOutboxService;
+
     @Resource
     private IMessageService messageService;
 
+    @Resource
+    private ConversationHistorySummarizer historySummarizer;
+
+    // SSE 会话线程池，见 ExecutorConfig
+    @Resource(name = "reviewSessionExecutor")
+    private ExecutorService reviewSessionExecutor;
+
+    @Resource(name = "persistenceExecutor")
+    private ExecutorService persistenceExecutor;
+
+    @Resource(name = "historySummaryExecutor")
+    private ExecutorService historySummaryExecutor;
+
 
     @PostConstruct
     public void init() {
         // Initialize ChatUtils with AI conversation service for intent detection
         ChatUtils.setAiConversationService(aiConversationService);
+        ChatUtils.setHistorySummarizer(historySummarizer);
         log.info("ChatUtils initialized with AI conversation service for AI-based intent detection");
     }
 
@@ -130,7 +156,7 @@ public class AiConversationController {
             // Use final variable for lambda
             final ChatRequest requestForThread = request;
 
-            // Use CompletableFuture instead of new Thread
+            // Run on the dedicated session executor instead of ForkJoinPool.commonPool
             CompletableFuture.runAsync(() -> {
                 try {
                     aiConversationService.chatStream(requestForThread, emitter);
@@ -145,7 +171,7 @@ public class AiConversationController {
                         emitter.complete();
                     }
                 }
-            });
+            }, reviewSessionExecutor);
 
             // Optional: timeout handling
             emitter.onTimeout(() -> {
@@ -155,6 +181,16 @@ public class AiConversationController {
 
             emitter.onCompletion(() -> log.info("SSE emitter completed for conversationId={}", request.getConversationId()));
 
+        } catch (RejectedExecutionException e) {
+            log.warn("Session executor saturated, rejecting stream chat. conversationId={}", request.getConversationId());
+            try {
+                String errorMsg = "### ❌ Server Busy\n\nToo many concurrent sessions, please retry later.\n\n";
+                emitter.send(SseEmitter.event().name("error").data(buildEmitterPayload(errorMsg, request.getConversationId())));
+            } catch (Exception ex) {
+                log.error("Error sending error event", ex);
+            } finally {
+                emitter.complete();
+            }
         } catch (Exception e) {
             log.error("Stream chat setup failed", e);
             try {
@@ -214,7 +250,7 @@ public class AiConversationController {
             // Use final variable for lambda
             final ChatRequest requestForThread = request;
 
-            // Use CompletableFuture instead of new Thread
+            // Run on the dedicated session executor instead of ForkJoinPool.commonPool
             CompletableFuture.runAsync(() -> {
                 try {
                     // Save user message to database first
@@ -222,10 +258,18 @@ public class AiConversationController {
 
                     // Get conversation history for context
                     ChatContext context = aiConversationService.getConversationHistory(requestForThread.getConversationId());
-                    String conversationHistory = context != null ? context.toString() : "";
 
-                    // Detect user intent
-                    ChatUtils.IntentType intent = ChatUtils.detectIntent(requestForThread.getMessage(), conversationHistory);
+                    // Fold messages that left the history window into the rolling summary, only when enabled and a batch is due
+                    if (historySummarizer.isRollingSummaryDue(context)) {
+                        try {
+                            historySummaryExecutor.execute(() -> historySummarizer.updateRollingSummary(context));
+                        } catch (RejectedExecutionException e) {
+                            log.debug("History summary executor busy, summary deferred. conversationId={}", requestForThread.getConversationId());
+                        }
+                    }
+
+                    // Detect user intent (local rules first, then cached AI classification over a token-bounded history)
+                    ChatUtils.IntentType intent = ChatUtils.detectIntent(requestForThread.getMessage(), context);
                     log.info("Detected intent: {} for conversationId={}", intent.getValue(), requestForThread.getConversationId());
 
                     // Route based on intent
@@ -301,6 +345,10 @@ public class AiConversationController {
                                 ReviewPullRequestStreamingService reviewService = new ReviewPullRequestStreamingService(gitCommand, chatClient, prSnapshotService, messageService);
                                 reviewService.setConversationId(requestForThread.getConversationId());
                                 reviewService.setClientIdentifier(UUID.fromString(requestForThread.getUserId()));
+                                reviewService.setPersistenceExecutor(persistenceExecutor);
+                                reviewService.setPublishExecutor(reviewSessionExecutor);
+                                reviewService.setReviewCacheService(reviewCacheService);
+                                reviewService.setReviewOutboxService(reviewOutboxService);
 
                                 // Parse PR URL and set parameters
                                 GitHubPrUtils.PrInfo prInfo = GitHubPrUtils.parsePrUrl(prUrl);
@@ -308,10 +356,10 @@ public class AiConversationController {
                                 reviewService.setPrNumber(prInfo.prNumber);
                                 reviewService.setPrUrl(prUrl);
 
-                                // Execute streaming review
+                                // Execute streaming review; it completes the emitter itself once the review is published
                                 reviewService.execStreaming(emitter);
 
-                                log.info("Code review completed. conversationId={}, prUrl={}", requestForThread.getConversationId(), prUrl);
+                                log.info("Code review started. conversationId={}, prUrl={}", requestForThread.getConversationId(), prUrl);
                             } catch (Exception reviewErr) {
                                 log.error("Code review failed. conversationId={}, prUrl={}, error={}", requestForThread.getConversationId(), prUrl, reviewErr.getMessage(), reviewErr);
                                 try {
@@ -362,7 +410,7 @@ public class AiConversationController {
                         emitter.complete();
                     }
                 }
-            });
+            }, reviewSessionExecutor);
 
             // Optional: timeout handling
             emitter.onTimeout(() -> {
@@ -372,6 +420,16 @@ public class AiConversationController {
 
             emitter.onCompletion(() -> log.info("SSE emitter completed for conversationId={}", request.getConversationId()));
 
+        } catch (RejectedExecutionException e) {
+            log.warn("Session executor saturated, rejecting stream chat. conversationId={}", request.getConversationId());
+            try {
+                String errorMsg = "### ❌ Server Busy\n\nToo many concurrent sessions, please retry later.\n\n";
+                emitter.send(SseEmitter.event().name("error").data(buildEmitterPayload(errorMsg, request.getConversationId())));
+            } catch (Exception ex) {
+                log.error("Error sending error event", ex);
+            } finally {
+                emitter.complete();
+            }
         } catch (Exception e) {
             log.error("Stream chat router setup failed", e);
             try {
@@ -3,8 +3,11 @@ package com.alias.domain.controller;
 import com.alias.config.AppConfig;
 import com.alias.domain.model.ModelEnum;
 import com.alias.domain.model.Response;
+import com.alias.domain.model.ReviewJob;
 import com.alias.domain.model.ReviewRequest;
 import com.alias.domain.service.IPrSnapshotService;
+import com.alias.domain.service.IReviewCacheService;
+import com.alias.domain.service.IReviewJobService;
 import com.alias.domain.service.impl.ReviewPullRequestService;
 import com.alias.infrastructure.git.GitCommand;
 import io.swagger.v3.oas.annotations.Operation;
@@ -14,6 +17,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
 /**
  * 代码审查Controller
  */
@@ -30,6 +37,15 @@ public class CodeReviewController {
     @Resource
     private IPrSnapshotService prSnapshotService;
 
+    @Resource
+    private IReviewCacheService reviewCacheService;
+
+    @Resource
+    private IReviewJobService reviewJobService;
+
+    @Resource(name = "persistenceExecutor")
+    private ExecutorService persistenceExecutor;
+
     /**
      * 执行PR代码审查
      *
@@ -57,6 +73,8 @@ public class CodeReviewController {
 
             // 创建服务并执行审查
             ReviewPullRequestService reviewService = new ReviewPullRequestService(gitCommand, chatClient, prSnapshotService);
+            reviewService.setPersistenceExecutor(persistenceExecutor);
+            reviewService.setReviewCacheService(reviewCacheService);
 
             // 设置模型（如果指定）
             if (request.getModel() != null && !request.getModel().isEmpty()) {
@@ -84,6 +102,84 @@ public class CodeReviewController {
         }
     }
 
+    /**
+     * 提交PR审查任务，立即返回任务ID；任务由任一实例的 worker 异步执行
+     *
+     * @param request 审查请求，包含PR URL和可选的模型参数
+     * @return 任务ID
+     */
+    @Operation(summary = "提交PR审查任务", description = "将PR审查加入任务队列并返回任务ID，通过任务状态和结果接口查询进度；队列已满时返回4029，稍后重试")
+    @RequestMapping(value = "/jobs", method = RequestMethod.POST)
+    public Response<String> submitReviewJob(@RequestBody ReviewRequest request) {
+        try {
+            if (request == null || request.getPrUrl() == null || request.getPrUrl().isEmpty()) {
+                return Response.<String>builder().code("4000").info("PR URL is required").build();
+            }
+
+            ReviewJob job = reviewJobService.submit(request.getPrUrl(), request.getModel());
+            if (job == null) {
+                return Response.<String>builder().code("4029").info("Review queue is full, please retry later").build();
+            }
+            return Response.<String>builder().code("0000").info("Review job submitted").data(job.getId().toString()).build();
+        } catch (Exception e) {
+            log.error("Failed to submit review job. prUrl={}, error={}", request != null ? request.getPrUrl() : "null", e.getMessage(), e);
+            return Response.<String>builder().code("5000").info("Failed to submit review job: " + e.getMessage()).build();
+        }
+    }
+
+    /**
+     * 查询审查任务状态（不包含审查结果）
+     *
+     * @param jobId 任务ID
+     * @return 任务状态
+     */
+    @Operation(summary = "查询审查任务状态", description = "返回任务状态：QUEUED/RUNNING/SUCCEEDED/FAILED；任务不存在时返回4004")
+    @RequestMapping(value = "/jobs/{jobId}", method = RequestMethod.GET)
+    public Response<ReviewJob> getReviewJob(@PathVariable String jobId) {
+        try {
+            ReviewJob job = reviewJobService.getJob(UUID.fromString(jobId));
+            if (job == null) {
+                return Response.<ReviewJob>builder().code("4004").info("Review job not found").build();
+            }
+            job.setResult(null);
+            return Response.<ReviewJob>builder().code("0000").info("Success").data(job).build();
+        } catch (IllegalArgumentException e) {
+            return Response.<ReviewJob>builder().code("4000").info("Invalid job ID: " + jobId).build();
+        } catch (Exception e) {
+            log.error("Failed to get review job. jobId={}, error={}", jobId, e.getMessage(), e);
+            return Response.<ReviewJob>builder().code("5000").info("Failed to get review job: " + e.getMessage()).build();
+        }
+    }
+
+    /**
+     * 获取审查任务结果
+     *
+     * @param jobId 任务ID
+     * @return 审查结果；任务不存在时返回4004，未完成时返回4009，失败时返回5000及错误信息
+     */
+    @Operation(summary = "获取审查任务结果", description = "任务成功后返回审查结果JSON；任务不存在时返回4004，尚未完成时返回4009，失败时返回5000及错误信息")
+    @RequestMapping(value = "/jobs/{jobId}/result", method = RequestMethod.GET)
+    public Response<Map<String, Object>> getReviewJobResult(@PathVariable String jobId) {
+        try {
+            ReviewJob job = reviewJobService.getJob(UUID.fromString(jobId));
+            if (job == null) {
+                return Response.<Map<String, Object>>builder().code("4004").info("Review job not found").build();
+            }
+            if (ReviewJob.STATUS_FAILED.equals(job.getStatus())) {
+                return Response.<Map<String, Object>>builder().code("5000").info("Review failed: " + job.getLastError()).build();
+            }
+            if (!ReviewJob.STATUS_SUCCEEDED.equals(job.getStatus())) {
+                return Response.<Map<String, Object>>builder().code("4009").info("Review job is " + job.getStatus()).build();
+            }
+            return Response.<Map<String, Object>>builder().code("0000").info("Success").data(job.getResult()).build();
+        } catch (IllegalArgumentException e) {
+            return Response.<Map<String, Object>>builder().code("4000").info("Invalid job ID: " + jobId).build();
+        } catch (Exception e) {
+            log.error("Failed to get review job result. jobId={}, error={}", jobId, e.getMessage(), e);
+            return Response.<Map<String, Object>>builder().code("5000").info("Failed to get review job result: " + e.getMessage()).build();
+        }
+    }
+
     /**
      * 获取支持的模型列表
      *
@@ -0,0 +1,234 @@
+package com.alias.domain.prompt;
+
+import com.alias.utils.VCSUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Token-budgeted prompt packing for review prompts.
+ * <p>
+ * 预算 = maxPromptTokens - 模板本身的 token 数，按比例分给 diff、上下文（context.oldText/newText）和 RAG 片段，
+ * 某一部分用不完的额度让给 diff：
+ * - RAG 片段按相关度从高到低排列（RAG 服务按 score 降序返回），超出预算时先丢弃末尾得分最低的片段
+ * - 上下文超出预算时只保留末尾部分
+ * - 单个文件的变更超出预算时按 hunk 切分，再把相邻 hunk 打包成若干组，每组生成一个 prompt
+ */
+public final class PromptBudgeter {
+
+    /**
+     * gpt-4o 上下文窗口 128k，预留输出与误差后的默认输入上限
+     */
+    public static final int DEFAULT_MAX_PROMPT_TOKENS = 100_000;
+
+    /**
+     * RAG 服务在片段之间使用的分隔符
+     */
+    public static final String RAG_DOCUMENT_SEPARATOR = "\n---\n";
+
+    private static final double RAG_SHARE = 0.25;
+
+    private static final double CONTEXT_SHARE = 0.10;
+
+    // 每条 change 序列化为 JSON 后 type/oldLine/newLine 等字段的额外开销
+    private static final int CHANGE_OVERHEAD_TOKENS = 16;
+
+    private static final TokenCountEstimator ESTIMATOR = new JTokkitTokenCountEstimator();
+
+    private final int maxPromptTokens;
+
+    public PromptBudgeter(int maxPromptTokens) {
+        this.maxPromptTokens = maxPromptTokens > 0 ? maxPromptTokens : DEFAULT_MAX_PROMPT_TOKENS;
+    }
+
+    public static int estimate(String text) {
+        return text == null || text.isEmpty() ? 0 : ESTIMATOR.estimate(text);
+    }
+
+    /**
+     * 为单个文件生成一个或多个 prompt，文件过大时每个 prompt 只包含一组 hunk
+     */
+    public List<String> buildFilePrompts(ObjectMapper mapper, String basePrompt, VCSUtils.FileChanges file, String ragContext) throws JsonProcessingException {
+        int available = maxPromptTokens - estimate(basePrompt);
+        int diffTokens = estimateChanges(file.changes);
+        int contextTokens = estimate(file.context.oldText) + estimate(file.context.newText);
+
+        // 先保证 diff，再按比例分配上下文与 RAG，剩余额度都归 diff
+        int contextBudget = Math.min(contextTokens, (int) (available * CONTEXT_SHARE));
+        List<String> ragDocs = fitRagDocuments(splitRagDocuments(ragContext), Math.max(0, Math.min((int) (available * RAG_SHARE), available - diffTokens - contextBudget)));
+        String packedRag = String.join(RAG_DOCUMENT_SEPARATOR, ragDocs);
+        int diffBudget = Math.max(1, available - contextBudget - estimate(packedRag));
+
+        VCSUtils.FileChanges trimmedFile = contextTokens > contextBudget ? withContext(file, file.changes, contextBudget) : file;
+        if (diffTokens <= diffBudget) {
+            return Collections.singletonList(ReviewPrompts.buildStructuredPrompt(mapper, basePrompt, Collections.singletonList(trimmedFile), packedRag));
+        }
+
+        List<String> prompts = new ArrayList<>();
+        for (List<VCSUtils.Change> group : packHunks(splitHunks(file.changes), diffBudget)) {
+            prompts.add(ReviewPrompts.buildStructuredPrompt(mapper, basePrompt, Collections.singletonList(withContext(trimmedFile, group, Integer.MAX_VALUE)), packedRag));
+        }
+        return prompts;
+    }
+
+    /**
+     * 生成包含多个文件的单个 prompt（PR 摘要）：先裁剪 RAG，再按顺序放入文件，
+     * 放不下的文件只保留路径与变更行数，保证摘要仍能看到完整的文件列表
+     */
+    public String buildPrompt(ObjectMapper mapper, String basePrompt, List<VCSUtils.FileChanges> files, String ragContext) throws JsonProcessingException {
+        int available = maxPromptTokens - estimate(basePrompt);
+        int diffTokens = 0;
+        for (VCSUtils.FileChanges file : files) {
+            diffTokens += estimateChanges(file.changes) + estimate(file.context.oldText) + estimate(file.context.newText);
+        }
+        List<String> ragDocs = fitRagDocuments(splitRagDocuments(ragContext), Math.max(0, Math.min((int) (available * RAG_SHARE), available - diffTokens)));
+        String packedRag = String.join(RAG_DOCUMENT_SEPARATOR, ragDocs);
+        int diffBudget = available - estimate(packedRag);
+        if (diffTokens <= diffBudget) {
+            return ReviewPrompts.buildStructuredPrompt(mapper, basePrompt, files, packedRag);
+        }
+
+        List<VCSUtils.FileChanges> packed = new ArrayList<>(files.size());
+        for (VCSUtils.FileChanges file : files) {
+            int fileTokens = estimateChanges(file.changes) + estimate(file.context.oldText) + estimate(file.context.newText);
+            if (fileTokens <= diffBudget) {
+                packed.add(file);
+                diffBudget -= fileTokens;
+            } else {
+                VCSUtils.FileChanges stub = new VCSUtils.FileChanges(file.path, file.oldPath);
+                stub.linesChanged = file.linesChanged;
+                packed.add(stub);
+                diffBudget -= estimate(file.path) + CHANGE_OVERHEAD_TOKENS;
+            }
+        }
+        return ReviewPrompts.buildStructuredPrompt(mapper, basePrompt, packed, packedRag);
+    }
+
+    public static List<String> splitRagDocuments(String ragContext) {
+        if (ragContext == null || ragContext.isBlank()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(Arrays.asList(ragContext.split(RAG_DOCUMENT_SEPARATOR)));
+    }
+
+    /**
+     * 按顺序保留 RAG 片段直到用完预算；输入按相关度降序，因此被丢弃的总是得分最低的片段
+     */
+    public static List<String> fitRagDocuments(List<String> docs, int budget) {
+        List<String> kept = new ArrayList<>();
+        int separatorTokens = estimate(RAG_DOCUMENT_SEPARATOR);
+        for (String doc : docs) {
+            int tokens = estimate(doc) + (kept.isEmpty() ? 0 : separatorTokens);
+            if (tokens > budget) {
+                break;
+            }
+            budget -= tokens;
+            kept.add(doc);
+        }
+        return kept;
+    }
+
+    /**
+     * 按 diff 中的 @@ 边界（{@link VCSUtils.Change#hunk}）把变更切分为 hunk，与行号无关
+     */
+    public static List<List<VCSUtils.Change>> splitHunks(List<VCSUtils.Change> changes) {
+        List<List<VCSUtils.Change>> hunks = new ArrayList<>();
+        List<VCSUtils.Change> current = new ArrayList<>();
+        for (VCSUtils.Change change : changes) {
+            if (!current.isEmpty() && change.hunk != current.get(0).hunk) {
+                hunks.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(change);
+        }
+        if (!current.isEmpty()) {
+            hunks.add(current);
+        }
+        return hunks;
+    }
+
+    /**
+     * 把相邻 hunk 贪心打包到不超过 budget 的组中；单个 hunk 本身超出预算时按变更行再切分
+     */
+    static List<List<VCSUtils.Change>> packHunks(List<List<VCSUtils.Change>> hunks, int budget) {
+        List<List<VCSUtils.Change>> groups = new ArrayList<>();
+        List<VCSUtils.Change> group = new ArrayList<>();
+        int groupTokens = 0;
+        for (List<VCSUtils.Change> hunk : hunks) {
+            int hunkTokens = estimateChanges(hunk);
+            if (hunkTokens > budget) {
+                // 超大 hunk：逐行放入
+                for (VCSUtils.Change change : hunk) {
+                    int tokens = estimateChange(change);
+                    if (!group.isEmpty() && groupTokens + tokens > budget) {
+                        groups.add(group);
+                        group = new ArrayList<>();
+                        groupTokens = 0;
+                    }
+                    group.add(change);
+                    groupTokens += tokens;
+                }
+                continue;
+            }
+            if (!group.isEmpty() && groupTokens + hunkTokens > budget) {
+                groups.add(group);
+                group = new ArrayList<>();
+                groupTokens = 0;
+            }
+            group.addAll(hunk);
+            groupTokens += hunkTokens;
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    private static VCSUtils.FileChanges withContext(VCSUtils.FileChanges file, List<VCSUtils.Change> changes, int contextBudget) {
+        VCSUtils.FileChanges copy = new VCSUtils.FileChanges(file.path, file.oldPath);
+        copy.changes.addAll(changes);
+        copy.linesChanged = changes == file.changes ? file.linesChanged : changes.size();
+        copy.context.oldText = tail(file.context.oldText, contextBudget / 2);
+        copy.context.newText = tail(file.context.newText, contextBudget - contextBudget / 2);
+        return copy;
+    }
+
+    /**
+     * 保留文本末尾不超过 maxTokens 的整行
+     */
+    private static String tail(String text, int maxTokens) {
+        if (text == null || text.isEmpty() || maxTokens == Integer.MAX_VALUE || estimate(text) <= maxTokens) {
+            return text;
+        }
+        String[] lines = text.split("\n", -1);
+        StringBuilder sb = new StringBuilder();
+        int budget = maxTokens;
+        for (int i = lines.length - 1; i >= 0; i--) {
+            int tokens = estimate(lines[i]) + 1;
+            if (tokens > budget) {
+                break;
+            }
+            budget -= tokens;
+            sb.insert(0, sb.length() == 0 ? lines[i] : lines[i] + "\n");
+        }
+        return sb.toString();
+    }
+
+    private static int estimateChanges(List<VCSUtils.Change> changes) {
+        int total = 0;
+        for (VCSUtils.Change change : changes) {
+            total += estimateChange(change);
+        }
+        return total;
+    }
+
+    private static int estimateChange(VCSUtils.Change change) {
+        return estimate(change.content) + CHANGE_OVERHEAD_TOKENS;
+    }
+}
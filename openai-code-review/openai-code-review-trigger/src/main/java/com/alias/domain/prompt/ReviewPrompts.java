@@ -1,5 +1,13 @@
 package com.alias.domain.prompt;
 
+import com.alias.utils.VCSUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
 /**
  * Centralized prompt definitions for code review flows.
  */
@@ -178,5 +186,38 @@ public final class ReviewPrompts {
             <RAG context>
             """;
 
-}
+    private static final String NO_RAG_CONTEXT = "No additional context available.";
+
+    /**
+     * 文件审查 prompt 模板的版本（模板内容的哈希），模板修改后已缓存的审查结果自动失效
+     */
+    public static final String PR_REVIEW_PROMPT_VERSION = Hashing.sha256().hashString(PR_REVIEW_PROMPT, StandardCharsets.UTF_8).toString().substring(0, 16);
 
+    /**
+     * 文件审查结果的缓存 key：sha256(模型 + prompt 版本 + 文件变更 JSON)
+     *
+     * @param mapper ObjectMapper
+     * @param model  审查使用的模型
+     * @param file   文件变更
+     * @return 64 位十六进制字符串
+     */
+    public static String reviewCacheKey(ObjectMapper mapper, String model, VCSUtils.FileChanges file) throws JsonProcessingException {
+        String payload = model + '\n' + PR_REVIEW_PROMPT_VERSION + '\n' + mapper.writeValueAsString(file);
+        return Hashing.sha256().hashString(payload, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * 将文件变更序列化为结构化 JSON，并替换 prompt 模板中的 &lt;Git diff&gt; / &lt;RAG context&gt; 占位符
+     *
+     * @param mapper     ObjectMapper
+     * @param basePrompt prompt 模板
+     * @param files      文件变更列表
+     * @param ragContext RAG 上下文，为空时使用默认提示
+     * @return 完整 prompt
+     */
+    public static String buildStructuredPrompt(ObjectMapper mapper, String basePrompt, List<VCSUtils.FileChanges> files, String ragContext) throws JsonProcessingException {
+        String structuredJson = mapper.writeValueAsString(files);
+        return basePrompt.replace("<Git diff>", structuredJson).replace("<RAG context>", ragContext != null && !ragContext.isEmpty() ? ragContext : NO_RAG_CONTEXT);
+    }
+
+}
@@ -3,21 +3,19 @@ package com.alias.domain.service.impl;
 import com.alias.domain.model.*;
 import com.alias.domain.service.IAiConversationService;
 import com.alias.infrastructure.openai.dto.ChatCompletionRequestDTO;
+import com.alias.utils.SseStreamWriter;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.UUID;
 
 /**
@@ -37,6 +35,12 @@ public class AiConversationService implements IAiConversationService {
     @Resource
     private ConversationService conversationService;
 
+    @Resource
+    private ChatContextCache chatContextCache;
+
+    @Resource
+    private ConversationHistorySummarizer historySummarizer;
+
     public AiConversationService(ChatClient chatClient) {
         this.chatClient = chatClient;
     }
@@ -151,72 +155,80 @@ public class AiConversationService implements IAiConversationService {
 
             Prompt prompt = new Prompt(messages, OpenAiChatOptions.builder().model(request.getModel() != null ? request.getModel() : context.getModel()).build());
 
-            // Call Spring AI ChatClient stream method
-            StringBuilder fullResponse = new StringBuilder();
-            chatClient.prompt(prompt).stream().content().doOnNext(chunk -> {
-                try {
-                    fullResponse.append(chunk);
-                    emitter.send(SseEmitter.event().id(UUID.randomUUID().toString()).name("message").data(buildEmitterPayload(chunk, context.getConversationId())));
-                } catch (IOException e) {
-                    logger.error("Error sending stream chunk", e);
+            // Call Spring AI ChatClient stream method without blocking the calling thread:
+            // tokens are coalesced into SSE frames, and the upstream is cancelled if the client disconnects
+            SseStreamWriter writer = new SseStreamWriter(emitter, context.getConversationId());
+            writer.bridge(chatClient.prompt(prompt).stream().content(), "message").whenComplete((fullResponse, error) -> {
+                if (error != null) {
+                    logger.error("Streaming error. conversationId={}, error={}", context.getConversationId(), error.toString());
+                    completeWithError(emitter, error);
+                    return;
                 }
-            }).blockLast();
-
-            // Add assistant message to context
-            ChatMessage assistantMessage = ChatMessage.builder().id(UUID.randomUUID().toString()).role("assistant").content(fullResponse.toString()).createdAt(LocalDateTime.now()).build();
-            context.addMessage(assistantMessage);
-
-            // Save context
-            saveContext(context);
-
-            // Save messages to database
-            try {
-                UUID conversationId = UUID.fromString(context.getConversationId());
-
-                // Save user message to database
-                Message userMsg = Message.builder().conversationId(conversationId).role("user").type("text").content(request.getMessage()).build();
-                messageService.createMessage(userMsg);
-                logger.debug("User message saved to database. conversationId={}", conversationId);
-
-                // Save assistant message to database
-                Message assistantMsg = Message.builder().conversationId(conversationId).role("assistant").type("text").content(fullResponse.toString()).build();
-                messageService.createMessage(assistantMsg);
-                logger.debug("Assistant message saved to database. conversationId={}", conversationId);
-
-                // Update conversation status if needed
-                Conversation conversation = conversationService.getConversationById(conversationId);
-                if (conversation != null && "error".equals(conversation.getStatus())) {
-                    conversation.setStatus("active");
-                    conversationService.updateConversation(conversation);
-                    logger.debug("Conversation status updated to active. conversationId={}", conversationId);
+                try {
+                    onStreamCompleted(request, context, fullResponse);
+
+                    // Send completion event
+                    writer.sendRaw("complete", "Streaming completed");
+
+                    emitter.complete();
+
+                    logger.info("Streaming chat completed. conversationId={}, responseLength={}", context.getConversationId(), fullResponse.length());
+                } catch (Exception e) {
+                    logger.error("Unexpected error in streaming", e);
+                    completeWithError(emitter, e);
                 }
+            });
 
-            } catch (Exception e) {
-                logger.error("Failed to save messages to database. conversationId={}, error={}", context.getConversationId(), e.getMessage(), e);
-                // Don't throw exception, just log it to avoid breaking the stream
-            }
+        } catch (Exception e) {
+            logger.error("Unexpected error in streaming", e);
+            completeWithError(emitter, e);
+        }
+    }
 
-            // Send completion event
-            emitter.send(SseEmitter.event().id(context.getConversationId()).name("complete").data("Streaming completed"));
+    /**
+     * Record the finished exchange in context and database once the stream has completed
+     */
+    private void onStreamCompleted(ChatRequest request, ChatContext context, String fullResponse) {
+        // Add assistant message to context
+        ChatMessage assistantMessage = ChatMessage.builder().id(UUID.randomUUID().toString()).role("assistant").content(fullResponse).createdAt(LocalDateTime.now()).build();
+        context.addMessage(assistantMessage);
+
+        // Save context
+        saveContext(context);
+
+        // Save messages to database
+        try {
+            UUID conversationId = UUID.fromString(context.getConversationId());
 
-            emitter.complete();
+            // Save user message to database
+            Message userMsg = Message.builder().conversationId(conversationId).role("user").type("text").content(request.getMessage()).build();
+            messageService.createMessage(userMsg);
+            logger.debug("User message saved to database. conversationId={}", conversationId);
 
-            logger.info("Streaming chat completed. conversationId={}, responseLength={}", context.getConversationId(), fullResponse.length());
+            // Save assistant message to database
+            Message assistantMsg = Message.builder().conversationId(conversationId).role("assistant").type("text").content(fullResponse).build();
+            messageService.createMessage(assistantMsg);
+            logger.debug("Assistant message saved to database. conversationId={}", conversationId);
 
-        } catch (IOException e) {
-            logger.error("Streaming error", e);
-            try {
-                emitter.completeWithError(e);
-            } catch (Exception ex) {
-                logger.error("Error sending error event", ex);
+            // Update conversation status if needed
+            Conversation conversation = conversationService.getConversationById(conversationId);
+            if (conversation != null && "error".equals(conversation.getStatus())) {
+                conversation.setStatus("active");
+                conversationService.updateConversation(conversation);
+                logger.debug("Conversation status updated to active. conversationId={}", conversationId);
             }
+
         } catch (Exception e) {
-            logger.error("Unexpected error in streaming", e);
-            try {
-                emitter.completeWithError(e);
-            } catch (Exception ex) {
-                logger.error("Error sending error event", ex);
-            }
+            logger.error("Failed to save messages to database. conversationId={}, error={}", context.getConversationId(), e.getMessage(), e);
+            // Don't throw exception, just log it to avoid breaking the stream
+        }
+    }
+
+    private void completeWithError(SseEmitter emitter, Throwable error) {
+        try {
+            emitter.completeWithError(error);
+        } catch (Exception ex) {
+            logger.error("Error sending error event", ex);
         }
     }
 
@@ -224,55 +236,61 @@ public class AiConversationService implements IAiConversationService {
     public ChatContext getOrCreateContext(String conversationId, String userId) {
         String effectiveConversationId = conversationId != null ? conversationId : UUID.randomUUID().toString();
 
-        ChatContext.ChatContextBuilder builder = ChatContext.builder().conversationId(effectiveConversationId).userId(userId).model("gpt-4o").temperature(0.7).maxTokens(2000).totalTokens(0);
-
-        List<ChatMessage> chatMessages = new ArrayList<>();
-
         try {
             UUID conversationUuid = UUID.fromString(effectiveConversationId);
 
-            // Load conversation metadata
-            Conversation conversation = conversationService.getConversationById(conversationUuid);
-            if (conversation != null) {
-                builder.title(conversation.getTitle());
-                builder.createdAt(conversation.getCreatedAt());
-                builder.updatedAt(conversation.getUpdatedAt());
-            } else {
-                builder.title("Conversation " + effectiveConversationId.substring(0, 8));
-                builder.createdAt(LocalDateTime.now());
-                builder.updatedAt(LocalDateTime.now());
-            }
-
-            // Load existing messages as context
-            List<Message> dbMessages = messageService.getMessagesByConversationId(conversationUuid);
-            for (Message m : dbMessages) {
-                ChatMessage chatMessage = ChatMessage.builder().id(m.getId() != null ? m.getId().toString() : null).conversationId(effectiveConversationId).role(m.getRole()).content(m.getContent()).createdAt(m.getCreatedAt()).build();
-                chatMessages.add(chatMessage);
+            // 优先读取缓存（先与 messages 表的最新消息比对版本），未命中或已过期时才从数据库加载会话元数据和最近的消息窗口
+            ChatContext context = chatContextCache.get(effectiveConversationId, () -> loadContext(conversationUuid, effectiveConversationId, userId), () -> messageService.getLatestMessageId(conversationUuid));
+            if (userId != null) {
+                context.setUserId(userId);
             }
-
-            builder.messages(chatMessages);
-
-            logger.info("Loaded context from database. conversationId={}, userId={}, messageCount={}", effectiveConversationId, userId, chatMessages.size());
+            return context;
 
         } catch (IllegalArgumentException e) {
             // Invalid UUID or no database records, fall back to a new in-memory context
-            builder.title("Conversation " + effectiveConversationId.substring(0, 8));
-            builder.createdAt(LocalDateTime.now());
-            builder.updatedAt(LocalDateTime.now());
-            builder.messages(new ArrayList<>());
             logger.warn("Invalid conversationId format, creating new context in memory. conversationId={}, userId={}", effectiveConversationId, userId);
+            return newInMemoryContext(effectiveConversationId, userId);
         } catch (Exception e) {
             // Any database error should not break chat flow
-            builder.title("Conversation " + effectiveConversationId.substring(0, 8));
+            logger.error("Failed to load context from database. conversationId={}, error={}", effectiveConversationId, e.getMessage(), e);
+            return newInMemoryContext(effectiveConversationId, userId);
+        }
+    }
+
+    /**
+     * Load conversation metadata and the tail window of messages from database
+     */
+    private ChatContext loadContext(UUID conversationUuid, String conversationId, String userId) {
+        ChatContext.ChatContextBuilder builder = ChatContext.builder().conversationId(conversationId).userId(userId).model("gpt-4o").temperature(0.7).maxTokens(2000).totalTokens(0);
+
+        // Load conversation metadata
+        Conversation conversation = conversationService.getConversationById(conversationUuid);
+        if (conversation != null) {
+            builder.title(conversation.getTitle());
+            builder.createdAt(conversation.getCreatedAt());
+            builder.updatedAt(conversation.getUpdatedAt());
+        } else {
+            builder.title("Conversation " + conversationId.substring(0, 8));
             builder.createdAt(LocalDateTime.now());
             builder.updatedAt(LocalDateTime.now());
-            builder.messages(new ArrayList<>());
-            logger.error("Failed to load context from database. conversationId={}, error={}", effectiveConversationId, e.getMessage(), e);
         }
 
+        // Load only the last windowSize messages as context
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        for (Message m : messageService.getLatestMessages(conversationUuid, chatContextCache.getWindowSize())) {
+            chatMessages.add(ChatContextCache.toChatMessage(m, conversationId));
+        }
+        builder.messages(chatMessages);
+
+        logger.info("Loaded context from database. conversationId={}, userId={}, messageCount={}", conversationId, userId, chatMessages.size());
+
         return builder.build();
     }
 
+    private ChatContext newInMemoryContext(String conversationId, String userId) {
+        return ChatContext.builder().conversationId(conversationId).userId(userId).model("gpt-4o").temperature(0.7).maxTokens(2000).totalTokens(0).title("Conversation " + conversationId.substring(0, Math.min(8, conversationId.length()))).createdAt(LocalDateTime.now()).updatedAt(LocalDateTime.now()).messages(new ArrayList<>()).build();
+    }
+
     @Override
     public ChatContext getContext(String conversationId) {
         if (conversationId == null) {
@@ -340,9 +358,16 @@ public class AiConversationService implements IAiConversationService {
             prompts.add(new ChatCompletionRequestDTO.Prompt("system", systemPrompt));
         }
 
-        // Add context messages (limited by contextSize)
+        // Add rolling summary of messages older than the history window, if enabled
+        String rollingSummary = historySummarizer.getRollingSummary(context);
+        if (!rollingSummary.isEmpty()) {
+            prompts.add(new ChatCompletionRequestDTO.Prompt("system", "Summary of the earlier conversation:\n" + rollingSummary));
+        }
+
+        // Add context messages (limited by contextSize, then by the prompt token budget)
         int contextSize = request.getContextSize() != null ? request.getContextSize() : 10;
-        List<ChatMessage> contextMessages = context.getLastNMessages(contextSize);
+        int reservedTokens = historySummarizer.estimate(systemPrompt) + historySummarizer.estimate(rollingSummary);
+        List<ChatMessage> contextMessages = historySummarizer.fitToBudget(getLastNMessages(context, contextSize), reservedTokens);
         for (ChatMessage msg : contextMessages) {
             prompts.add(new ChatCompletionRequestDTO.Prompt(msg.getRole(), msg.getContent()));
         }
@@ -351,141 +376,26 @@ public class AiConversationService implements IAiConversationService {
     }
 
     /**
-     * Stream chat completion using Spring AI ChatClient
-     * Sends 2-6 words/characters at a time to simulate natural streaming
-     */
-    private void streamChatCompletion(ChatCompletionRequestDTO chatRequest, SseEmitter emitter, String conversationId, ChatContext context, StringBuilder fullResponse) throws IOException {
-        try {
-            // 取最新用户消息（messages 列表最后一条 role=user 的消息）
-            String userMessage = chatRequest.getMessages().stream().filter(msg -> "user".equals(msg.getRole())).reduce((first, second) -> second) // 取最后一个
-                    .map(ChatCompletionRequestDTO.Prompt::getContent).orElse("");
-
-            // 将最新用户消息加入上下文
-            ChatMessage userChatMessage = ChatMessage.builder().id(UUID.randomUUID().toString()).role("user").content(userMessage).createdAt(LocalDateTime.now()).build();
-            context.addMessage(userChatMessage);
-
-            // 构建上下文内容字符串
-            StringBuilder contextText = new StringBuilder();
-            if (context.getSystemPrompt() != null) {
-                contextText.append("System: ").append(context.getSystemPrompt()).append("\n");
-            }
-
-            for (ChatMessage msg : context.getMessages()) {
-                if ("user".equals(msg.getRole())) {
-                    contextText.append("User: ").append(msg.getContent()).append("\n");
-                } else if ("assistant".equals(msg.getRole())) {
-                    contextText.append("Assistant: ").append(msg.getContent()).append("\n");
-                }
-            }
-
-            // 追加最新用户消息
-            contextText.append("User: ").append(userMessage).append("\n");
-
-            // 创建单个 Prompt
-            Prompt prompt = new Prompt(new UserMessage(contextText.toString()), OpenAiChatOptions.builder().model(chatRequest.getModel()).build());
-
-            // 调用 chatClient
-            String content = chatClient.prompt(prompt).call().chatResponse().getResult().getOutput().getText();
-
-            // 按 token 拆分（保留中英文空格/换行）
-            List<String> tokens = tokenizeContent(content);
-            Random random = new Random();
-            int i = 0;
-            while (i < tokens.size()) {
-                int chunkSize = random.nextInt(5) + 2;
-                int endIndex = Math.min(i + chunkSize, tokens.size());
-
-                StringBuilder chunk = new StringBuilder();
-                for (int j = i; j < endIndex; j++) {
-                    chunk.append(tokens.get(j));
-                }
-
-                String chunkContent = chunk.toString();
-                fullResponse.append(chunkContent);
-
-                // SSE 发送当前块
-                emitter.send(SseEmitter.event().id(UUID.randomUUID().toString()).name("message").data(buildEmitterPayload(chunkContent, conversationId)));
-
-                Thread.sleep(50);
-                i = endIndex;
-            }
-
-            // 将 AI 回复加入上下文
-            ChatMessage assistantMessage = ChatMessage.builder().id(UUID.randomUUID().toString()).role("assistant").content(fullResponse.toString()).createdAt(LocalDateTime.now()).build();
-            context.addMessage(assistantMessage);
-
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Streaming interrupted", e);
-            throw new IOException("Streaming interrupted", e);
-        }
-    }
-
-    /**
-     * Tokenize content into words (for English) or characters (for Chinese)
-     * Mixed content is handled by splitting on spaces and treating Chinese characters individually
+     * Last N messages for the prompt. The cached context only holds the tail window, so a larger
+     * contextSize reads the persisted tail with ORDER BY created_at DESC LIMIT N and appends the
+     * current (not yet persisted) user message.
      */
-    private List<String> tokenizeContent(String content) {
-        List<String> tokens = new ArrayList<>();
-
-        if (content == null || content.isEmpty()) {
-            return tokens;
+    private List<ChatMessage> getLastNMessages(ChatContext context, int contextSize) {
+        if (contextSize <= chatContextCache.getWindowSize() || context.getMessageCount() < chatContextCache.getWindowSize()) {
+            return context.getLastNMessages(contextSize);
         }
-
-        // Split by spaces first to separate words
-        String[] parts = content.split("(?<=\\s)|(?=\\s)");
-
-        for (String part : parts) {
-            if (part.isEmpty()) {
-                continue;
-            }
-
-            // Check if part contains Chinese characters
-            if (containsChineseCharacters(part)) {
-                // Split Chinese text into individual characters
-                for (char c : part.toCharArray()) {
-                    tokens.add(String.valueOf(c));
-                }
-            } else {
-                // Keep English words as is
-                tokens.add(part);
-            }
-        }
-
-        return tokens;
-    }
-
-    /**
-     * Check if string contains Chinese characters
-     */
-    private boolean containsChineseCharacters(String str) {
-        if (str == null || str.isEmpty()) {
-            return false;
-        }
-
-        for (char c : str.toCharArray()) {
-            // Unicode range for CJK Unified Ideographs
-            if ((c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF) || (c >= 0x20000 && c <= 0x2A6DF) || (c >= 0x2A700 && c <= 0x2B73F) || (c >= 0x2B740 && c <= 0x2B81F) || (c >= 0x2B820 && c <= 0x2CEAF) || (c >= 0xF900 && c <= 0xFAFF) || (c >= 0x2F800 && c <= 0x2FA1F)) {
-                return true;
+        try {
+            UUID conversationUuid = UUID.fromString(context.getConversationId());
+            List<ChatMessage> messages = new ArrayList<>();
+            for (Message m : messageService.getLatestMessages(conversationUuid, contextSize - 1)) {
+                messages.add(ChatContextCache.toChatMessage(m, context.getConversationId()));
             }
+            messages.addAll(context.getLastNMessages(1));
+            return messages;
+        } catch (Exception e) {
+            logger.warn("Failed to load latest messages, using cached window. conversationId={}, error={}", context.getConversationId(), e.getMessage());
+            return context.getLastNMessages(contextSize);
         }
-        return false;
-    }
-
-    /**
-     * Escape JSON string
-     */
-    private String escapeJson(String input) {
-        if (input == null) {
-            return "";
-        }
-        return input.replace("\\", "\\\\").replace("\"", "\\\"").replace("\b", "\\b").replace("\f", "\\f").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
-    }
-
-    private String buildEmitterPayload(String content, String conversationId) {
-        String safeContent = content != null ? content : "";
-        String safeConversationId = conversationId != null ? conversationId : "";
-        return "{\"content\":\"" + escapeJson(safeContent) + "\",\"conversationId\":\"" + escapeJson(safeConversationId) + "\"}";
     }
 
     @Override
@@ -0,0 +1,123 @@
+package com.alias.domain.service.impl;
+
+import com.alias.domain.model.ChatContext;
+import com.alias.domain.model.ChatMessage;
+import com.alias.domain.model.Message;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-through, size-bounded cache of conversation contexts keyed by conversation ID.
+ * 每个会话只保留最近 windowSize 条消息，MessageService 写库成功后增量追加，避免每轮对话全量读取历史消息
+ * 缓存只在本实例内 write-through；outbox、审查任务等其他实例写入的消息通过读取时比对 messages 表的最新消息 ID 发现，
+ * 其余跨实例修改（删除中间消息、会话元数据）由较短的 expireAfterWrite 兜底
+ */
+@Slf4j
+@Component
+public class ChatContextCache {
+
+    private final int windowSize;
+
+    private final Cache<String, ChatContext> cache;
+
+    public ChatContextCache(@Value("${chat.context-cache.max-conversations:1000}") long maxConversations, @Value("${chat.context-cache.window-size:50}") int windowSize, @Value("${chat.context-cache.expire-after-access-minutes:60}") long expireAfterAccessMinutes, @Value("${chat.context-cache.expire-after-write-minutes:5}") long expireAfterWriteMinutes) {
+        this.windowSize = windowSize;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxConversations).expireAfterAccess(expireAfterAccessMinutes, TimeUnit.MINUTES).expireAfterWrite(expireAfterWriteMinutes, TimeUnit.MINUTES).build();
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * 获取会话上下文的副本，未命中或版本不一致时通过 loader 从数据库加载
+     * 返回的是独立副本，调用方对其修改不会影响缓存，缓存只通过 {@link #onMessageCreated(Message)} 更新
+     *
+     * @param latestMessageId 返回数据库中该会话最新消息的 ID，与缓存的最后一条消息不一致说明有其他实例写入
+     */
+    public ChatContext get(String conversationId, Callable<ChatContext> loader, Callable<String> latestMessageId) throws ExecutionException {
+        ChatContext cached = cache.getIfPresent(conversationId);
+        if (cached != null && !isCurrent(cached, latestMessageId)) {
+            cache.asMap().remove(conversationId, cached);
+        }
+        cached = cache.get(conversationId, () -> trim(loader.call()));
+        synchronized (cached) {
+            return copyOf(cached);
+        }
+    }
+
+    /**
+     * 消息写库成功后调用，仅在会话已缓存时增量追加
+     */
+    public void onMessageCreated(Message message) {
+        if (message == null || message.getConversationId() == null) {
+            return;
+        }
+        ChatContext cached = cache.getIfPresent(message.getConversationId().toString());
+        if (cached == null) {
+            return;
+        }
+        synchronized (cached) {
+            cached.addMessage(toChatMessage(message, cached.getConversationId()));
+            trim(cached);
+        }
+        log.debug("Chat context cache appended. conversationId={}, cachedMessages={}", cached.getConversationId(), cached.getMessageCount());
+    }
+
+    public void invalidate(UUID conversationId) {
+        if (conversationId != null) {
+            cache.invalidate(conversationId.toString());
+        }
+    }
+
+    public static ChatMessage toChatMessage(Message m, String conversationId) {
+        return ChatMessage.builder().id(m.getId() != null ? m.getId().toString() : null).conversationId(conversationId).role(m.getRole()).content(m.getContent()).createdAt(m.getCreatedAt()).build();
+    }
+
+    private boolean isCurrent(ChatContext cached, Callable<String> latestMessageId) {
+        String cachedLatestId;
+        synchronized (cached) {
+            List<ChatMessage> messages = cached.getMessages();
+            cachedLatestId = messages == null || messages.isEmpty() ? null : messages.get(messages.size() - 1).getId();
+        }
+        try {
+            String latestId = latestMessageId.call();
+            if (Objects.equals(latestId, cachedLatestId)) {
+                return true;
+            }
+            log.debug("Chat context cache is stale, reloading. conversationId={}, cachedLatestId={}, latestId={}", cached.getConversationId(), cachedLatestId, latestId);
+        } catch (Exception e) {
+            log.warn("Failed to validate cached chat context, reloading. conversationId={}, error={}", cached.getConversationId(), e.getMessage());
+        }
+        return false;
+    }
+
+    private ChatContext trim(ChatContext context) {
+        List<ChatMessage> messages = context.getMessages();
+        if (messages != null && messages.size() > windowSize) {
+            context.setMessages(new ArrayList<>(messages.subList(messages.size() - windowSize, messages.size())));
+        }
+        return context;
+    }
+
+    private static ChatContext copyOf(ChatContext c) {
+        List<ChatMessage> messages = new ArrayList<>();
+        if (c.getMessages() != null) {
+            for (ChatMessage m : c.getMessages()) {
+                messages.add(ChatMessage.builder().id(m.getId()).conversationId(m.getConversationId()).role(m.getRole()).content(m.getContent()).createdAt(m.getCreatedAt()).tokenCount(m.getTokenCount()).index(m.getIndex()).build());
+            }
+        }
+        return ChatContext.builder().conversationId(c.getConversationId()).userId(c.getUserId()).title(c.getTitle()).systemPrompt(c.getSystemPrompt()).messages(messages).model(c.getModel()).temperature(c.getTemperature()).maxTokens(c.getMaxTokens()).totalTokens(c.getTotalTokens()).createdAt(c.getCreatedAt()).updatedAt(c.getUpdatedAt()).build();
+    }
+}
@@ -0,0 +1,249 @@
+package com.alias.domain.service.impl;
+
+import com.alias.domain.model.ChatContext;
+import com.alias.domain.model.ChatMessage;
+import com.alias.domain.model.Conversation;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact, token-bounded encoding of conversation history for prompts.
+ * 只保留 role/content，单条消息按字符截断，从最新一轮往前取直到用完 token 预算；
+ * 可选地把滑出窗口的旧消息压缩为滚动摘要，保存在 conversations.metadata 中
+ */
+@Slf4j
+@Component
+public class ConversationHistorySummarizer {
+
+    public static final String SUMMARY_KEY = "historySummary";
+
+    public static final String SUMMARY_LAST_MESSAGE_KEY = "historySummaryLastMessageId";
+
+    private static final String SUMMARY_PROMPT = "Condense the following conversation into a short summary (at most %d tokens) that keeps the PR, files, review findings and open questions the user cares about. Reply with the summary only.\n\n%s";
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    private final int maxTokens;
+
+    private final int maxMessageChars;
+
+    private final int maxTurns;
+
+    private final int promptMaxTokens;
+
+    private final boolean rollingSummaryEnabled;
+
+    private final int rollingSummaryBatch;
+
+    @Resource
+    private ConversationService conversationService;
+
+    @Resource
+    private ChatClient chatClient;
+
+    /**
+     * 不依赖 Spring 的默认配置，不启用滚动摘要
+     */
+    public ConversationHistorySummarizer() {
+        this(800, 500, 8, 6000, false, 6);
+    }
+
+    @Autowired
+    public ConversationHistorySummarizer(@Value("${chat.history.max-tokens:800}") int maxTokens, @Value("${chat.history.max-message-chars:500}") int maxMessageChars, @Value("${chat.history.max-turns:8}") int maxTurns, @Value("${chat.history.prompt-max-tokens:6000}") int promptMaxTokens, @Value("${chat.history.rolling-summary.enabled:false}") boolean rollingSummaryEnabled, @Value("${chat.history.rolling-summary.batch:6}") int rollingSummaryBatch) {
+        this.maxTokens = maxTokens;
+        this.maxMessageChars = maxMessageChars;
+        this.maxTurns = maxTurns;
+        this.promptMaxTokens = promptMaxTokens;
+        this.rollingSummaryEnabled = rollingSummaryEnabled;
+        this.rollingSummaryBatch = Math.max(1, rollingSummaryBatch);
+    }
+
+    /**
+     * 把会话编码为 "role: content" 形式的短文本，用于意图识别等辅助 prompt
+     * 当前消息如果已作为最后一条 user 消息写入上下文，不会重复计入历史
+     *
+     * @return 不超过 maxTokens 的历史文本，没有历史时返回空串
+     */
+    public String summarize(ChatContext context, String currentMessage) {
+        if (context == null || context.getMessages() == null || context.getMessages().isEmpty()) {
+            return "";
+        }
+        List<ChatMessage> messages = context.getLastNMessages(maxTurns + 1);
+        ChatMessage last = messages.get(messages.size() - 1);
+        if ("user".equals(last.getRole()) && currentMessage != null && currentMessage.equals(last.getContent())) {
+            messages.remove(messages.size() - 1);
+        } else if (messages.size() > maxTurns) {
+            messages.remove(0);
+        }
+
+        String summary = truncate(getRollingSummary(context), maxMessageChars * 2);
+        int budget = maxTokens - (summary.isEmpty() ? 0 : estimate(summary));
+
+        // 从最新一轮往前取，超出预算即停止
+        List<String> lines = new ArrayList<>();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            ChatMessage m = messages.get(i);
+            String line = m.getRole() + ": " + truncate(m.getContent(), maxMessageChars);
+            int tokens = estimate(line);
+            if (tokens > budget) {
+                break;
+            }
+            budget -= tokens;
+            lines.add(0, line);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (!summary.isEmpty()) {
+            sb.append("summary of earlier conversation: ").append(summary).append('\n');
+        }
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 按 promptMaxTokens 裁剪对话 prompt 的历史消息：最后一条（当前消息）总是保留，其余从旧到新丢弃直到满足预算
+     */
+    public List<ChatMessage> fitToBudget(List<ChatMessage> messages, int reservedTokens) {
+        if (messages == null || messages.size() <= 1) {
+            return messages;
+        }
+        int budget = promptMaxTokens - reservedTokens;
+        int start = messages.size();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            int tokens = estimate(messages.get(i).getContent());
+            if (i < messages.size() - 1 && tokens > budget) {
+                break;
+            }
+            budget -= tokens;
+            start = i;
+        }
+        if (start > 0) {
+            log.debug("History trimmed to prompt budget. dropped={}, kept={}, promptMaxTokens={}", start, messages.size() - start, promptMaxTokens);
+        }
+        return start == 0 ? messages : new ArrayList<>(messages.subList(start, messages.size()));
+    }
+
+    /**
+     * 读取 conversations.metadata 中的滚动摘要，未启用或不存在时返回空串
+     */
+    public String getRollingSummary(ChatContext context) {
+        Conversation conversation = loadConversation(context);
+        if (conversation == null || conversation.getMetadata() == null) {
+            return "";
+        }
+        Object summary = conversation.getMetadata().get(SUMMARY_KEY);
+        return summary instanceof String ? (String) summary : "";
+    }
+
+    /**
+     * 是否需要更新滚动摘要：已启用，且滑出窗口、尚未摘要的消息达到 batch 条；只读取会话 metadata，不调用模型
+     */
+    public boolean isRollingSummaryDue(ChatContext context) {
+        if (!rollingSummaryEnabled || context == null || context.getMessages() == null || context.getMessages().size() - maxTurns < rollingSummaryBatch) {
+            return false;
+        }
+        Conversation conversation = loadConversation(context);
+        if (conversation == null) {
+            return false;
+        }
+        List<ChatMessage> messages = context.getMessages();
+        int tailStart = messages.size() - maxTurns;
+        Object lastId = conversation.getMetadata() != null ? conversation.getMetadata().get(SUMMARY_LAST_MESSAGE_KEY) : null;
+        return tailStart - unsummarizedFrom(messages, tailStart, lastId) >= rollingSummaryBatch;
+    }
+
+    /**
+     * 把已滑出 maxTurns 窗口、且尚未摘要的消息合并进滚动摘要
+     * 未摘要的旧消息累计达到 batch 条才调用一次模型，失败只记录日志；会阻塞调用模型，调用方应先用
+     * {@link #isRollingSummaryDue} 判断，并放到独立线程池执行
+     */
+    public void updateRollingSummary(ChatContext context) {
+        Conversation conversation = loadConversation(context);
+        if (conversation == null) {
+            return;
+        }
+        try {
+            List<ChatMessage> messages = context.getMessages();
+            int tailStart = Math.max(0, messages.size() - maxTurns);
+            Map<String, Object> metadata = conversation.getMetadata() != null ? new HashMap<>(conversation.getMetadata()) : new HashMap<>();
+            Object lastId = metadata.get(SUMMARY_LAST_MESSAGE_KEY);
+
+            int from = unsummarizedFrom(messages, tailStart, lastId);
+            if (tailStart - from < rollingSummaryBatch) {
+                return;
+            }
+
+            StringBuilder transcript = new StringBuilder();
+            Object previous = metadata.get(SUMMARY_KEY);
+            if (previous instanceof String && !((String) previous).isEmpty()) {
+                transcript.append("summary so far: ").append(previous).append('\n');
+            }
+            for (int i = from; i < tailStart; i++) {
+                ChatMessage m = messages.get(i);
+                transcript.append(m.getRole()).append(": ").append(truncate(m.getContent(), maxMessageChars * 2)).append('\n');
+            }
+
+            String summary = chatClient.prompt().user(String.format(SUMMARY_PROMPT, maxTokens / 2, transcript)).call().content();
+            if (summary == null || summary.isBlank()) {
+                return;
+            }
+            metadata.put(SUMMARY_KEY, summary.trim());
+            metadata.put(SUMMARY_LAST_MESSAGE_KEY, messages.get(tailStart - 1).getId());
+            conversation.setMetadata(metadata);
+            conversationService.updateConversation(conversation);
+            log.info("Rolling history summary updated. conversationId={}, foldedMessages={}, summaryLength={}", conversation.getId(), tailStart - from, summary.length());
+        } catch (Exception e) {
+            log.warn("Failed to update rolling history summary. conversationId={}, error={}", context.getConversationId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 上次摘要到的消息之后、窗口之前的第一条消息；找不到上次的位置说明它已不在缓存窗口内，从头开始
+     */
+    private static int unsummarizedFrom(List<ChatMessage> messages, int tailStart, Object lastId) {
+        int from = 0;
+        for (int i = 0; i < tailStart; i++) {
+            if (lastId != null && lastId.equals(messages.get(i).getId())) {
+                from = i + 1;
+            }
+        }
+        return from;
+    }
+
+    public int estimate(String text) {
+        return text == null || text.isEmpty() ? 0 : tokenCountEstimator.estimate(text);
+    }
+
+    private Conversation loadConversation(ChatContext context) {
+        if (!rollingSummaryEnabled || conversationService == null || context == null || context.getConversationId() == null) {
+            return null;
+        }
+        try {
+            return conversationService.getConversationById(UUID.fromString(context.getConversationId()));
+        } catch (Exception e) {
+            log.debug("Failed to load conversation for history summary. conversationId={}, error={}", context.getConversationId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static String truncate(String content, int maxChars) {
+        if (content == null) {
+            return "";
+        }
+        return content.length() > maxChars ? content.substring(0, maxChars) + "..." : content;
+    }
+}
@@ -21,6 +21,9 @@ public class ConversationService implements IConversationService {
     @Resource
     private IConversationRepository conversationRepository;
 
+    @Resource
+    private ChatContextCache chatContextCache;
+
     @Override
     public Conversation createConversation(Conversation conversation) {
         log.info("Creating conversation for client: {}", conversation.getClientIdentifier());
@@ -37,7 +40,9 @@ public class ConversationService implements IConversationService {
             conversation.setStatus("active");
         }
 
-        return conversationRepository.saveAndReturn(conversation);
+        Conversation saved = conversationRepository.saveAndReturn(conversation);
+        chatContextCache.invalidate(saved.getId());
+        return saved;
     }
 
     @Override
@@ -56,7 +61,9 @@ public class ConversationService implements IConversationService {
     public Conversation updateConversation(Conversation conversation) {
         log.info("Updating conversation: {}", conversation.getId());
         conversation.setUpdatedAt(LocalDateTime.now());
-        return conversationRepository.saveAndReturn(conversation);
+        Conversation saved = conversationRepository.saveAndReturn(conversation);
+        chatContextCache.invalidate(saved.getId());
+        return saved;
     }
 
     @Override
@@ -74,6 +81,7 @@ public class ConversationService implements IConversationService {
     public void deleteConversation(UUID conversationId) {
         log.info("Deleting conversation: {}", conversationId);
         conversationRepository.deleteById(conversationId);
+        chatContextCache.invalidate(conversationId);
     }
 
     @Override
@@ -8,6 +8,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -21,6 +23,9 @@ public class MessageService implements IMessageService {
     @Resource
     private IMessageRepository messageRepository;
 
+    @Resource
+    private ChatContextCache chatContextCache;
+
     @Override
     public Message createMessage(Message message) {
         log.debug("Creating message for conversation: {}", message.getConversationId());
@@ -37,7 +42,10 @@ public class MessageService implements IMessageService {
             message.setType("text");
         }
 
-        return messageRepository.saveAndReturn(message);
+        Message saved = messageRepository.saveAndReturn(message);
+        // write-through: 追加到已缓存的会话上下文
+        chatContextCache.onMessageCreated(saved);
+        return saved;
     }
 
     @Override
@@ -58,9 +66,23 @@ public class MessageService implements IMessageService {
         return messageRepository.findByConversationIdWithPagination(conversationId, limit, offset);
     }
 
+    @Override
+    public List<Message> getLatestMessages(UUID conversationId, int limit) {
+        log.debug("Getting latest messages for conversation: conversationId={}, limit={}", conversationId, limit);
+        List<Message> messages = new ArrayList<>(messageRepository.findLatestByConversationId(conversationId, limit));
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    @Override
+    public String getLatestMessageId(UUID conversationId) {
+        return messageRepository.findLatestIdByConversationId(conversationId);
+    }
+
     @Override
     public void deleteMessage(UUID messageId) {
         log.info("Deleting message: {}", messageId);
+        messageRepository.findById(messageId).ifPresent(m -> chatContextCache.invalidate(m.getConversationId()));
         messageRepository.deleteById(messageId);
     }
 
@@ -68,6 +90,7 @@ public class MessageService implements IMessageService {
     public void deleteMessagesByConversationId(UUID conversationId) {
         log.info("Deleting all messages for conversation: {}", conversationId);
         messageRepository.deleteByConversationId(conversationId);
+        chatContextCache.invalidate(conversationId);
     }
 
     @Override
@@ -58,6 +58,12 @@ public class PrSnapshotService implements IPrSnapshotService {
         return prSnapshotRepository.findByUrl(url).orElse(null);
     }
 
+    @Override
+    public PrSnapshot getSnapshotByUrlAndClientIdentifier(String url, UUID clientIdentifier) {
+        log.debug("Getting PR snapshot by url: {}, client: {}", url, clientIdentifier);
+        return prSnapshotRepository.findByUrlAndClientIdentifier(url, clientIdentifier).orElse(null);
+    }
+
     @Override
     public List<PrSnapshot> getSnapshotsByRepoNameAndPrNumber(String repoName, Integer prNumber) {
         log.debug("Getting PR snapshots by repo: {}, prNumber: {}", repoName, prNumber);
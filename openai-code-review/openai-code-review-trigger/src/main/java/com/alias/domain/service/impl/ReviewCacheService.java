@@ -0,0 +1,80 @@
+package com.alias.domain.service.impl;
+
+import com.alias.domain.model.ReviewCacheEntry;
+import com.alias.domain.service.IReviewCacheService;
+import com.alias.infrastructure.mapper.IReviewCacheRepository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Review Cache Service Implementation
+ * 进程内 LRU 在前，review_cache 表在后：先查本地，未命中再查库并回填本地
+ * 缓存读写失败只记录日志，按未命中处理，不影响审查流程
+ */
+@Slf4j
+@Service
+public class ReviewCacheService implements IReviewCacheService {
+
+    @Resource
+    private IReviewCacheRepository reviewCacheRepository;
+
+    private final boolean enabled;
+
+    private final Cache<String, Map<String, Object>> localCache;
+
+    public ReviewCacheService(@Value("${review.cache.enabled:true}") boolean enabled, @Value("${review.cache.local-max-entries:1000}") int localMaxEntries) {
+        this.enabled = enabled;
+        this.localCache = CacheBuilder.newBuilder().maximumSize(Math.max(1, localMaxEntries)).build();
+    }
+
+    @Override
+    public Map<String, Object> getReview(String cacheKey) {
+        if (!enabled || cacheKey == null) {
+            return null;
+        }
+        Map<String, Object> review = localCache.getIfPresent(cacheKey);
+        if (review != null) {
+            log.debug("Review cache hit (local). cacheKey={}", cacheKey);
+            return review;
+        }
+        try {
+            review = reviewCacheRepository.findByCacheKey(cacheKey).map(ReviewCacheEntry::getReview).orElse(null);
+        } catch (Exception e) {
+            log.warn("Failed to read review cache. cacheKey={}, error={}", cacheKey, e.getMessage());
+            return null;
+        }
+        if (review != null) {
+            log.debug("Review cache hit (db). cacheKey={}", cacheKey);
+            localCache.put(cacheKey, review);
+        }
+        return review;
+    }
+
+    @Override
+    public void putReview(ReviewCacheEntry entry) {
+        if (!enabled || entry == null || entry.getCacheKey() == null || entry.getReview() == null) {
+            return;
+        }
+        localCache.put(entry.getCacheKey(), entry.getReview());
+
+        if (entry.getCreatedAt() == null) {
+            entry.setCreatedAt(LocalDateTime.now());
+        }
+        if (entry.getUpdatedAt() == null) {
+            entry.setUpdatedAt(LocalDateTime.now());
+        }
+        try {
+            reviewCacheRepository.save(entry);
+            log.debug("Review cached. cacheKey={}, file={}", entry.getCacheKey(), entry.getFilePath());
+        } catch (Exception e) {
+            log.warn("Failed to write review cache. cacheKey={}, file={}, error={}", entry.getCacheKey(), entry.getFilePath(), e.getMessage());
+        }
+    }
+}
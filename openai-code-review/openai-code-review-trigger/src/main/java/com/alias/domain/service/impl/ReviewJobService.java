@@ -0,0 +1,239 @@
+package com.alias.domain.service.impl;
+
+import com.alias.config.AppConfig;
+import com.alias.domain.model.ModelEnum;
+import com.alias.domain.model.ReviewJob;
+import com.alias.domain.model.ReviewOutboxEntry;
+import com.alias.domain.service.IPrSnapshotService;
+import com.alias.domain.service.IReviewCacheService;
+import com.alias.domain.service.IReviewJobService;
+import com.alias.domain.service.IReviewOutboxService;
+import com.alias.infrastructure.git.GitCommand;
+import com.alias.infrastructure.mapper.IReviewJobRepository;
+import com.alias.utils.GitHubPrUtils;
+import com.alias.utils.ReviewJsonUtils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Review Job Service Implementation
+ * 审查任务保存在 review_jobs 表中，所有实例共享同一个队列，按 worker 数水平扩展：
+ * - 每个实例定时按空闲 worker 数领取任务（FOR UPDATE SKIP LOCKED），不会与其他实例重复领取
+ * - 执行中的任务带租约并随轮询续约；实例退出后租约过期，任务由其他实例重新领取，超过最大次数后置为 FAILED
+ * - 提交时按全局排队数做准入控制，队列过深时直接拒绝，由调用方稍后重试；并发提交互相看不到未提交的插入，
+ * 排队数可能短暂超过上限，是软限制
+ * - 审查结果以任务 ID 写入 review_outbox 后由 outbox worker 发布；任务被重新领取时复用已写入的结果，
+ * 不会重新审查，也不会再次发布到 GitHub
+ */
+@Slf4j
+@Service
+public class ReviewJobService implements IReviewJobService {
+
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    @Resource
+    private IReviewJobRepository reviewJobRepository;
+
+    @Resource
+    private ChatClient chatClient;
+
+    @Resource
+    private IPrSnapshotService prSnapshotService;
+
+    @Resource
+    private IReviewCacheService reviewCacheService;
+
+    @Resource
+    private IReviewOutboxService reviewOutboxService;
+
+    @Resource(name = "reviewJobExecutor")
+    private ExecutorService reviewJobExecutor;
+
+    @Resource(name = "persistenceExecutor")
+    private ExecutorService persistenceExecutor;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // 实例级唯一，用于租约续约和防止过期 worker 覆盖已被重新领取的任务
+    private final String workerId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    private final AtomicInteger runningJobs = new AtomicInteger();
+
+    private final boolean enabled;
+
+    private final int workers;
+
+    private final int leaseSeconds;
+
+    private final int maxAttempts;
+
+    private final long maxQueueDepth;
+
+    public ReviewJobService(@Value("${review.job.enabled:true}") boolean enabled, @Value("${executor.review-job.workers:4}") int workers, @Value("${review.job.lease-seconds:300}") int leaseSeconds, @Value("${review.job.max-attempts:3}") int maxAttempts, @Value("${review.job.max-queue-depth:100}") long maxQueueDepth) {
+        this.enabled = enabled;
+        this.workers = Math.max(1, workers);
+        this.leaseSeconds = Math.max(30, leaseSeconds);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.maxQueueDepth = Math.max(1, maxQueueDepth);
+    }
+
+    @Override
+    public ReviewJob submit(String prUrl, String model) {
+        LocalDateTime now = LocalDateTime.now();
+        ReviewJob job = ReviewJob.builder().id(UUID.randomUUID()).prUrl(prUrl).model(model).status(ReviewJob.STATUS_QUEUED).attempts(0).createdAt(now).updatedAt(now).build();
+        if (reviewJobRepository.insertIfQueueBelow(job, maxQueueDepth) == 0) {
+            log.warn("Review queue is full, rejecting job. prUrl={}, maxQueueDepth={}", prUrl, maxQueueDepth);
+            return null;
+        }
+        log.info("Review job submitted. jobId={}, prUrl={}", job.getId(), prUrl);
+        return job;
+    }
+
+    @Override
+    public ReviewJob getJob(UUID id) {
+        return reviewJobRepository.findById(id).orElse(null);
+    }
+
+    @Scheduled(initialDelayString = "${review.job.poll-interval-ms:2000}", fixedDelayString = "${review.job.poll-interval-ms:2000}")
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (runningJobs.get() > 0) {
+                reviewJobRepository.renewLeases(workerId, leaseSeconds);
+            }
+            dispatch();
+        } catch (Exception e) {
+            log.warn("Failed to poll review jobs. workerId={}, error={}", workerId, e.getMessage());
+        }
+    }
+
+    @Override
+    public int dispatch() {
+        int free = workers - runningJobs.get();
+        if (free <= 0) {
+            return 0;
+        }
+        List<ReviewJob> jobs = reviewJobRepository.claim(free, workerId, leaseSeconds);
+        for (ReviewJob job : jobs) {
+            if (job.getAttempts() != null && job.getAttempts() > maxAttempts) {
+                // 多次在执行中失去 worker（实例退出），不再重试
+                reviewJobRepository.markFailed(job.getId(), workerId, "Job was interrupted " + maxAttempts + " times");
+                log.error("Giving up review job after repeated interruptions. jobId={}, prUrl={}, attempts={}", job.getId(), job.getPrUrl(), job.getAttempts());
+                continue;
+            }
+            runningJobs.incrementAndGet();
+            try {
+                reviewJobExecutor.execute(() -> {
+                    try {
+                        run(job);
+                    } finally {
+                        runningJobs.decrementAndGet();
+                    }
+                });
+            } catch (Exception e) {
+                // 线程池已关闭：不标记失败，租约过期后由其他实例重新领取
+                runningJobs.decrementAndGet();
+                log.warn("Failed to start review job, leaving it for lease expiry. jobId={}, error={}", job.getId(), e.getMessage());
+            }
+        }
+        return jobs.size();
+    }
+
+    private void run(ReviewJob job) {
+        log.info("Running review job. jobId={}, prUrl={}, attempt={}, workerId={}", job.getId(), job.getPrUrl(), job.getAttempts(), workerId);
+        try {
+            String review = findQueuedReview(job);
+            if (review == null) {
+                String githubToken = AppConfig.getInstance().requireString("github", "token");
+                ReviewPullRequestService reviewService = new ReviewPullRequestService(new GitCommand(githubToken), chatClient, prSnapshotService);
+                reviewService.setPersistenceExecutor(persistenceExecutor);
+                reviewService.setReviewCacheService(reviewCacheService);
+                reviewService.setModel(job.getModel() != null && !job.getModel().isEmpty() ? job.getModel() : ModelEnum.GPT_4O.getCode());
+
+                review = reviewService.generateReview(job.getPrUrl());
+                publish(job, reviewService, review);
+            }
+            if (reviewJobRepository.markSucceeded(job.getId(), workerId, toResult(review)) == 0) {
+                log.warn("Review job was reclaimed by another worker, result discarded. jobId={}", job.getId());
+                return;
+            }
+            log.info("Review job succeeded. jobId={}, prUrl={}", job.getId(), job.getPrUrl());
+        } catch (Exception e) {
+            String error = String.valueOf(e.getMessage());
+            if (error.length() > MAX_ERROR_LENGTH) {
+                error = error.substring(0, MAX_ERROR_LENGTH);
+            }
+            reviewJobRepository.markFailed(job.getId(), workerId, error);
+            log.error("Review job failed. jobId={}, prUrl={}, error={}", job.getId(), job.getPrUrl(), error, e);
+        }
+    }
+
+    /**
+     * 任务被重新领取时，上次执行若已把结果写入 outbox，直接复用（发布由 outbox 负责），不再重新审查
+     */
+    private String findQueuedReview(ReviewJob job) throws Exception {
+        if (job.getAttempts() == null || job.getAttempts() <= 1) {
+            return null;
+        }
+        ReviewOutboxEntry entry = reviewOutboxService.getEntry(job.getId());
+        if (entry == null || entry.getReview() == null) {
+            return null;
+        }
+        log.info("Reusing review queued by a previous attempt. jobId={}, outboxStatus={}", job.getId(), entry.getStatus());
+        return mapper.writeValueAsString(entry.getReview());
+    }
+
+    /**
+     * 以任务 ID 写入 outbox，重复写入时保留已有记录；outbox 不可用时直接发布
+     */
+    private void publish(ReviewJob job, ReviewPullRequestService reviewService, String review) throws Exception {
+        Map<String, Object> reviewMap = null;
+        try {
+            reviewMap = mapper.readValue(ReviewJsonUtils.extractJsonPayload(review), new TypeReference<Map<String, Object>>() {
+            });
+        } catch (Exception e) {
+            log.warn("Review result is not a JSON object, publishing inline. jobId={}, error={}", job.getId(), e.getMessage());
+        }
+        if (reviewMap != null) {
+            GitHubPrUtils.PrInfo info = GitHubPrUtils.parsePrUrl(job.getPrUrl());
+            String headCommitSha = null;
+            try {
+                headCommitSha = reviewService.getHeadCommitSha();
+            } catch (Exception e) {
+                log.warn("Head commit SHA unavailable, outbox worker will resolve it. jobId={}, error={}", job.getId(), e.getMessage());
+            }
+            ReviewOutboxEntry entry = ReviewOutboxEntry.builder().id(job.getId()).prUrl(job.getPrUrl()).repoName(info.repository).prNumber(info.prNumber).headCommitSha(headCommitSha).model(job.getModel()).review(reviewMap).snapshot(reviewService.getPendingSnapshot()).build();
+            if (reviewOutboxService.enqueue(entry)) {
+                return;
+            }
+        }
+        reviewService.recordCodeReview(review);
+    }
+
+    private Map<String, Object> toResult(String review) {
+        try {
+            return mapper.readValue(ReviewJsonUtils.extractJsonPayload(review), new TypeReference<Map<String, Object>>() {
+            });
+        } catch (Exception e) {
+            log.warn("Review result is not a JSON object, storing raw text. error={}", e.getMessage());
+            return Collections.singletonMap("raw", review);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.alias.domain.service.impl;
+
+import com.alias.config.AppConfig;
+import com.alias.domain.model.PrSnapshot;
+import com.alias.domain.model.ReviewOutboxEntry;
+import com.alias.domain.service.IMessageService;
+import com.alias.domain.service.IPrSnapshotService;
+import com.alias.domain.service.IReviewOutboxService;
+import com.alias.infrastructure.git.GitCommand;
+import com.alias.infrastructure.mapper.IReviewOutboxRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Review Outbox Service Implementation
+ * 审查结果写入 review_outbox 表后由定时 worker 发布，进程重启后未完成的记录会被重新领取：
+ * - 领取使用 FOR UPDATE SKIP LOCKED，多实例可同时消费；PROCESSING 记录带租约，租约过期视为 worker 已退出
+ * - 每次领取生成新的 claim token，进度标记都带 token 和租约条件，租约丢失（记录已被重新领取）后立即停止发布
+ * - 发布分三步（保存 message、PR 总结评论、inline comments），前两步完成后落库标记，重试时跳过；
+ * 总结评论与 inline comments 带幂等标记，重试时跳过 PR 上已存在的评论
+ * - 全部发布完成后才保存记录中的增量审查快照，发布失败的评论不会在下次增量审查时被当作已发布而跳过
+ * - 失败按指数退避重试，超过最大次数后置为 FAILED
+ */
+@Slf4j
+@Service
+public class ReviewOutboxService implements IReviewOutboxService {
+
+    private static final long BASE_BACKOFF_SECONDS = 10;
+
+    private static final long MAX_BACKOFF_SECONDS = 3600;
+
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    @Resource
+    private IReviewOutboxRepository reviewOutboxRepository;
+
+    @Resource
+    private IMessageService messageService;
+
+    @Resource
+    private IPrSnapshotService prSnapshotService;
+
+    @Resource
+    private ChatClient chatClient;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final boolean enabled;
+
+    private final int batchSize;
+
+    private final int maxAttempts;
+
+    private final int leaseSeconds;
+
+    public ReviewOutboxService(@Value("${review.outbox.enabled:true}") boolean enabled, @Value("${review.outbox.batch-size:5}") int batchSize, @Value("${review.outbox.max-attempts:8}") int maxAttempts, @Value("${review.outbox.lease-seconds:600}") int leaseSeconds) {
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.leaseSeconds = Math.max(60, leaseSeconds);
+    }
+
+    @Override
+    public boolean enqueue(ReviewOutboxEntry entry) {
+        if (!enabled || entry == null || entry.getReview() == null) {
+            return false;
+        }
+        if (entry.getId() == null) {
+            entry.setId(UUID.randomUUID());
+        }
+        if (entry.getCreatedAt() == null) {
+            entry.setCreatedAt(LocalDateTime.now());
+        }
+        if (entry.getUpdatedAt() == null) {
+            entry.setUpdatedAt(LocalDateTime.now());
+        }
+        try {
+            if (reviewOutboxRepository.insert(entry) == 0) {
+                log.info("Review already queued for publishing, keeping the stored one. id={}, prUrl={}", entry.getId(), entry.getPrUrl());
+                return true;
+            }
+            log.info("Review queued for publishing. id={}, prUrl={}", entry.getId(), entry.getPrUrl());
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to queue review for publishing. prUrl={}, error={}", entry.getPrUrl(), e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public ReviewOutboxEntry getEntry(UUID id) {
+        return reviewOutboxRepository.findById(id).orElse(null);
+    }
+
+    @Scheduled(initialDelayString = "${review.outbox.poll-interval-ms:2000}", fixedDelayString = "${review.outbox.poll-interval-ms:2000}")
+    public void poll() {
+        try {
+            drain();
+        } catch (Exception e) {
+            log.warn("Failed to drain review outbox. error={}", e.getMessage());
+        }
+    }
+
+    @Override
+    public int drain() {
+        if (!enabled) {
+            return 0;
+        }
+        String claimToken = UUID.randomUUID().toString();
+        List<ReviewOutboxEntry> entries = reviewOutboxRepository.claimDue(batchSize, leaseSeconds, claimToken);
+        for (ReviewOutboxEntry entry : entries) {
+            publish(entry, claimToken);
+        }
+        return entries.size();
+    }
+
+    private void publish(ReviewOutboxEntry entry, String claimToken) {
+        int attempt = entry.getAttempts() != null ? entry.getAttempts() : 1;
+        log.info("Publishing queued review. id={}, prUrl={}, attempt={}", entry.getId(), entry.getPrUrl(), attempt);
+        try {
+            ReviewPullRequestStreamingService reviewService = newReviewService(entry);
+            String reviewJson = mapper.writeValueAsString(entry.getReview());
+
+            if (!Boolean.TRUE.equals(entry.getMessageSaved())) {
+                reviewService.publishReviewMessage(reviewJson);
+                requireLease(reviewOutboxRepository.markMessageSaved(entry.getId(), claimToken));
+            }
+            if (!Boolean.TRUE.equals(entry.getCommentPosted())) {
+                reviewService.publishSummaryComment(reviewJson, attempt > 1);
+                requireLease(reviewOutboxRepository.markCommentPosted(entry.getId(), claimToken));
+            }
+            reviewService.publishInlineComments(reviewJson, attempt > 1);
+
+            requireLease(reviewOutboxRepository.markDone(entry.getId(), claimToken));
+            log.info("Queued review published. id={}, prUrl={}", entry.getId(), entry.getPrUrl());
+            saveSnapshot(entry);
+        } catch (LeaseLostException e) {
+            log.warn("Lost outbox lease, leaving entry to its new owner. id={}, prUrl={}, attempt={}", entry.getId(), entry.getPrUrl(), attempt);
+        } catch (Exception e) {
+            boolean giveUp = attempt >= maxAttempts;
+            long delay = Math.min(MAX_BACKOFF_SECONDS, BASE_BACKOFF_SECONDS << Math.min(attempt - 1, 20));
+            String error = String.valueOf(e.getMessage());
+            if (error.length() > MAX_ERROR_LENGTH) {
+                error = error.substring(0, MAX_ERROR_LENGTH);
+            }
+            if (reviewOutboxRepository.markFailed(entry.getId(), claimToken, giveUp ? ReviewOutboxEntry.STATUS_FAILED : ReviewOutboxEntry.STATUS_PENDING, error, delay) == 0) {
+                log.warn("Lost outbox lease, failure not recorded. id={}, prUrl={}, attempt={}, error={}", entry.getId(), entry.getPrUrl(), attempt, error);
+                return;
+            }
+            if (giveUp) {
+                log.error("Giving up publishing queued review. id={}, prUrl={}, attempts={}, error={}", entry.getId(), entry.getPrUrl(), attempt, error, e);
+            } else {
+                log.warn("Failed to publish queued review, will retry. id={}, prUrl={}, attempt={}/{}, delaySeconds={}, error={}", entry.getId(), entry.getPrUrl(), attempt, maxAttempts, delay, error);
+            }
+        }
+    }
+
+    /**
+     * 发布完成后保存增量审查快照；失败只影响下次审查退化为全量审查，不重试发布
+     */
+    private void saveSnapshot(ReviewOutboxEntry entry) {
+        if (entry.getSnapshot() == null || entry.getSnapshot().isEmpty()) {
+            return;
+        }
+        try {
+            Integer prNumber = entry.getPrNumber() != null ? Integer.valueOf(entry.getPrNumber()) : null;
+            prSnapshotService.createSnapshot(PrSnapshot.builder().url(entry.getPrUrl()).clientIdentifier(entry.getClientIdentifier()).repoName(entry.getRepoName()).prNumber(prNumber).branch(null).fileChanges(entry.getSnapshot()).build());
+            log.info("Persisted PR snapshot after publishing. id={}, url={}", entry.getId(), entry.getPrUrl());
+        } catch (Exception e) {
+            log.warn("Failed to persist PR snapshot after publishing. id={}, url={}, error={}", entry.getId(), entry.getPrUrl(), e.getMessage());
+        }
+    }
+
+    private static void requireLease(int updatedRows) {
+        if (updatedRows == 0) {
+            throw new LeaseLostException();
+        }
+    }
+
+    private ReviewPullRequestStreamingService newReviewService(ReviewOutboxEntry entry) {
+        String githubToken = AppConfig.getInstance().requireString("github", "token");
+        ReviewPullRequestStreamingService reviewService = new ReviewPullRequestStreamingService(new GitCommand(githubToken), chatClient, null, messageService);
+        reviewService.setRepository(entry.getRepoName());
+        reviewService.setPrNumber(entry.getPrNumber());
+        reviewService.setPrUrl(entry.getPrUrl());
+        reviewService.setHeadCommitSha(entry.getHeadCommitSha());
+        reviewService.setClientIdentifier(entry.getClientIdentifier());
+        if (entry.getConversationId() != null) {
+            reviewService.setConversationId(entry.getConversationId().toString());
+        }
+        if (entry.getModel() != null) {
+            reviewService.setModel(entry.getModel());
+        }
+        return reviewService;
+    }
+
+    /**
+     * 进度标记未命中：租约已过期或记录已被其他 worker 重新领取
+     */
+    private static final class LeaseLostException extends RuntimeException {
+        LeaseLostException() {
+            super("Outbox lease lost", null, false, false);
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.alias.domain.service.impl;
 
-import com.alias.config.AppConfig;
 import com.alias.domain.model.ModelEnum;
 import com.alias.domain.model.PrSnapshot;
+import com.alias.domain.model.ReviewCacheEntry;
+import com.alias.domain.prompt.PromptBudgeter;
 import com.alias.domain.prompt.ReviewPrompts;
 import com.alias.domain.service.AbstractOpenAiCodeReviewService;
 import com.alias.domain.service.IPrSnapshotService;
+import com.alias.domain.service.IReviewCacheService;
 import com.alias.domain.utils.ChatUtils;
 import com.alias.infrastructure.git.GitCommand;
+import com.alias.infrastructure.git.GitHubClient;
+import com.alias.infrastructure.git.GitHubReviewPublisher;
 import com.alias.utils.*;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -20,12 +24,10 @@ import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.openai.OpenAiChatOptions;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
 
@@ -40,6 +42,14 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
     private ChatClient chatClient;
     private final IPrSnapshotService prSnapshotService;
     private UUID clientIdentifier;
+    // 与 diff 并发获取的 PR head commit SHA，recordCodeReview 时直接复用
+    private CompletableFuture<String> headCommitShaFuture;
+    private Executor persistenceExecutor = ForkJoinPool.commonPool();
+    private boolean perFileRag = true;
+    private IReviewCacheService reviewCacheService;
+    private boolean incrementalReview = true;
+    // 本次审查生成、尚未保存的 PR 快照内容，发布成功后才保存
+    private Map<String, Object> pendingSnapshot;
 
     public ReviewPullRequestService(GitCommand gitCommand, ChatClient chatClient) {
         this(gitCommand, chatClient, null);
@@ -64,6 +74,34 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
         this.prUrl = prUrl;
     }
 
+    /**
+     * 设置 PR 快照等异步持久化任务使用的线程池，未设置时使用 ForkJoinPool.commonPool
+     */
+    public void setPersistenceExecutor(Executor persistenceExecutor) {
+        this.persistenceExecutor = persistenceExecutor != null ? persistenceExecutor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * 是否按文件检索 RAG 上下文（默认开启）；关闭时所有文件共用对整个 diff 的检索结果
+     */
+    public void setPerFileRag(boolean perFileRag) {
+        this.perFileRag = perFileRag;
+    }
+
+    /**
+     * 设置文件级审查结果缓存，未设置时每次都调用 LLM
+     */
+    public void setReviewCacheService(IReviewCacheService reviewCacheService) {
+        this.reviewCacheService = reviewCacheService;
+    }
+
+    /**
+     * 是否启用增量审查（默认开启）：与该 PR 上次的快照比对，只审查新增或变化的 hunk，未变化 hunk 上的评论直接沿用
+     */
+    public void setIncrementalReview(boolean incrementalReview) {
+        this.incrementalReview = incrementalReview;
+    }
+
     /**
      * 设置使用的模型
      *
@@ -103,51 +141,138 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
         this.exec();
     }
 
+    /**
+     * 与模板流程一致，但 diff 直接从 GitHub 响应体流式解析为文件变更，不经过完整的 diff 字符串
+     */
     @Override
-    protected String getDiffCode() throws IOException, InterruptedException {
-        if (this.prUrl == null || this.prUrl.isEmpty()) {
-            logger.error("PR URL is empty");
-            throw new RuntimeException("PR URL is empty; please set via exec(prUrl)");
+    public void exec() {
+        try {
+            String recommend = reviewFiles(fetchFileChanges());
+            String logUrl = recordCodeReview(recommend);
+            pushMessage(logUrl);
+        } catch (Exception e) {
+            logger.error("openai-code-review error", e);
         }
+    }
+
+    /**
+     * 执行 PR 审查并发布到 GitHub，返回审查结果 JSON
+     * 与 exec 不同，失败时抛出异常而不是只记录日志，供审查任务 worker 记录任务状态
+     *
+     * @param prUrl GitHub PR URL
+     * @return 审查结果 JSON
+     * @throws Exception 获取 diff、审查或发布失败
+     */
+    public String review(String prUrl) throws Exception {
+        String recommend = generateReview(prUrl);
+        recordCodeReview(recommend);
+        return recommend;
+    }
+
+    /**
+     * 执行 PR 审查但不发布，返回审查结果 JSON；由调用方决定发布方式（例如写入 outbox）
+     *
+     * @param prUrl GitHub PR URL
+     * @return 审查结果 JSON
+     * @throws Exception 获取 diff 或审查失败
+     */
+    public String generateReview(String prUrl) throws Exception {
+        GitHubPrUtils.PrInfo info = GitHubPrUtils.parsePrUrl(prUrl);
+        this.setRepository(info.repository);
+        this.setPrNumber(info.prNumber);
+        this.setPrUrl(prUrl);
+        logger.info("Executing review for {}/pull/{}", info.repository, info.prNumber);
+        return reviewFiles(fetchFileChanges());
+    }
+
+    /**
+     * 获取审查所基于的 PR head commit SHA，发布评论时需使用同一 commit
+     */
+    public String getHeadCommitSha() throws IOException {
+        return resolveHeadCommitSha();
+    }
+
+    @Override
+    protected String getDiffCode() throws IOException, InterruptedException {
+        prefetchHeadCommitSha();
 
         // 直接使用 GitHub API 获取 PR diff
         logger.info("Fetching PR diff from GitHub API. prUrl={}", this.prUrl);
-        String diff = gitCommand.getPrDiff(this.prUrl);
+        String diff = GitHubClient.await(gitCommand.getPrDiffAsync(this.prUrl));
         logger.info("Generated PR diff. size={} bytes", diff != null ? diff.length() : 0);
         return diff;
     }
 
+    /**
+     * 获取 PR 文件变更：从 GitHub 响应体流式解析，不在内存中保留完整 diff 文本
+     *
+     * @return 文件变更列表
+     */
+    private List<VCSUtils.FileChanges> fetchFileChanges() throws IOException {
+        prefetchHeadCommitSha();
+
+        logger.info("Streaming PR diff from GitHub API. prUrl={}", this.prUrl);
+        List<VCSUtils.FileChanges> files = new ArrayList<>();
+        gitCommand.streamPrFileChanges(this.prUrl, files::add);
+        logger.info("Parsed PR diff. files={}", files.size());
+        return files;
+    }
+
+    /**
+     * 校验 PR URL，并与 diff 并发获取 head commit SHA
+     */
+    private void prefetchHeadCommitSha() {
+        if (this.prUrl == null || this.prUrl.isEmpty()) {
+            logger.error("PR URL is empty");
+            throw new RuntimeException("PR URL is empty; please set via exec(prUrl)");
+        }
+
+        if (this.repository != null && !this.repository.isEmpty() && this.prNumber != null && !this.prNumber.isEmpty()) {
+            this.headCommitShaFuture = gitCommand.getPrHeadCommitShaAsync(this.repository, this.prNumber);
+        }
+    }
+
     @Override
     protected String codeReview(String diffCode) throws Exception {
-        logger.info("Submitting diff to LLM for review. model={}, diffSize={}", this.model != null ? this.model : ModelEnum.GPT_4O.getCode(), diffCode != null ? diffCode.length() : 0);
-        final int MAX_PROMPT_CHARS = 180_000; // 粗略上限，避免超出供应商限制
-        String safeDiff = diffCode == null ? "" : diffCode;
-        ObjectMapper mapper = new ObjectMapper();
-
         // 使用 VCSUtils 将 diff 解析为结构化对象
         List<VCSUtils.FileChanges> files;
         try {
-            files = VCSUtils.parseUnifiedDiff(safeDiff);
+            files = VCSUtils.parseUnifiedDiff(diffCode == null ? "" : diffCode);
         } catch (Exception e) {
             logger.warn("Failed to parse unified diff; fallback to raw diff. err={}", e.toString());
             files = new ArrayList<>(); // 空列表占位，避免 null
         }
+        return reviewFiles(files);
+    }
+
+    /**
+     * 审查已解析的文件变更
+     *
+     * @param files 文件变更
+     * @return 整合后的 review 结果 JSON 字符串
+     */
+    private String reviewFiles(List<VCSUtils.FileChanges> files) throws Exception {
+        logger.info("Submitting diff to LLM for review. model={}, files={}", this.model != null ? this.model : ModelEnum.GPT_4O.getCode(), files.size());
+        final int MAX_PROMPT_TOKENS = PromptBudgeter.DEFAULT_MAX_PROMPT_TOKENS; // 按 token 预算打包，避免超出模型上下文限制
+        ObjectMapper mapper = new ObjectMapper();
 
         if (files.isEmpty()) {
             logger.warn("No files found in diff, returning empty review");
             return mapper.writeValueAsString(createEmptyReview());
         }
 
-        persistSnapshotAsync(files);
+        // 增量审查：与上次快照比对，只审查新增或变化的 hunk；快照在审查完成后连同评论一起更新
+        Map<String, IncrementalReviewUtils.FilePlan> incrementalPlans = planIncrementalReview(files, mapper);
 
-        // 获取 RAG context
-        String ragContext = getRagContext(safeDiff);
+        // 获取 RAG context：每个文件使用各自检索到的片段，PR 摘要使用合并后的片段
+        Map<String, String> fileRagContexts = getRagContextPerFile(files);
+        String ragContext = ChatUtils.mergeRagContexts(fileRagContexts.values());
 
         // 步骤1: 先进行整体PR摘要（一次性发送所有文件）
         logger.info("Starting PR overall summary. totalFiles={}", files.size());
         JsonNode prSummaryJson = null;
         try {
-            String prSummaryResponse = generatePrSummary(files, ragContext, MAX_PROMPT_CHARS);
+            String prSummaryResponse = generatePrSummary(files, ragContext, MAX_PROMPT_TOKENS);
             try {
                 prSummaryJson = mapper.readTree(prSummaryResponse);
             } catch (Exception parseErr) {
@@ -163,6 +288,7 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
         // 步骤2: 遍历每个文件，分别进行review
         List<JsonNode> fileReviews = new ArrayList<>();
         List<JsonNode> allComments = new ArrayList<>();
+        Map<String, JsonNode> reviewsByPath = new HashMap<>();
 
         logger.info("Starting per-file review. totalFiles={}", files.size());
         for (int i = 0; i < files.size(); i++) {
@@ -170,20 +296,38 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
             logger.info("Reviewing file {}/{}. path={}", i + 1, files.size(), file.path);
 
             try {
-                // 对单个文件进行review
-                String fileReviewJson = reviewSingleFile(file, ragContext, MAX_PROMPT_CHARS);
-
-                // 解析单个文件的review结果
-                JsonNode fileReview;
-                try {
-                    fileReview = mapper.readTree(fileReviewJson);
-                } catch (Exception parseErr) {
-                    logger.warn("Failed to parse file review JSON, attempting to extract. file={}, err={}", file.path, parseErr.toString());
-                    String cleaned = ReviewJsonUtils.extractJsonPayload(fileReviewJson);
-                    fileReview = mapper.readTree(cleaned);
+                // 增量审查：所有 hunk 都未变化时直接沿用上次的评论，否则只审查变化部分
+                IncrementalReviewUtils.FilePlan plan = incrementalPlans.get(file.path);
+                VCSUtils.FileChanges reviewPart = plan != null ? plan.changedPart : file;
+
+                // 文件变更与上次审查完全相同时直接复用缓存结果，不再调用 LLM
+                String cacheKey = reviewPart != null ? reviewCacheKey(mapper, reviewPart) : null;
+                JsonNode fileReview = getCachedFileReview(cacheKey, mapper);
+                if (reviewPart == null) {
+                    logger.info("File unchanged since last review, carrying comments forward. path={}, comments={}", file.path, plan.carriedComments.size());
+                    fileReview = mapper.createObjectNode();
+                } else if (fileReview != null) {
+                    logger.info("Reusing cached review for file {}/{}. path={}", i + 1, files.size(), file.path);
+                } else {
+                    // 对单个文件进行review
+                    String fileReviewJson = reviewSingleFile(reviewPart, fileRagContexts.get(file.path), MAX_PROMPT_TOKENS);
+
+                    // 解析单个文件的review结果
+                    try {
+                        fileReview = mapper.readTree(fileReviewJson);
+                    } catch (Exception parseErr) {
+                        logger.warn("Failed to parse file review JSON, attempting to extract. file={}, err={}", file.path, parseErr.toString());
+                        String cleaned = ReviewJsonUtils.extractJsonPayload(fileReviewJson);
+                        fileReview = mapper.readTree(cleaned);
+                    }
+                    cacheFileReviewAsync(cacheKey, reviewPart, fileReview, mapper);
+                }
+                if (plan != null) {
+                    fileReview = IncrementalReviewUtils.mergeComments(mapper, fileReview, plan.carriedComments);
                 }
 
                 fileReviews.add(fileReview);
+                reviewsByPath.put(file.path, fileReview);
 
                 // 提取comments
                 JsonNode comments = fileReview.get("comments");
@@ -201,6 +345,8 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
             }
         }
 
+        prepareSnapshot(files, reviewsByPath, mapper);
+
         // 将 JsonNode 列表转换为 Map 列表，确保正确序列化
         List<Map<String, Object>> commentsList = new ArrayList<>();
         for (JsonNode comment : allComments) {
@@ -239,35 +385,52 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
         return finalResult;
     }
 
-    private void persistSnapshotAsync(List<VCSUtils.FileChanges> files) {
+    /**
+     * 生成 PR 快照内容：文件变更连同各文件的审查评论，作为下次增量审查的基线
+     * 快照在审查发布成功后才保存，否则发布失败的评论会在下次审查时被当作已发布而沿用、跳过
+     *
+     * @param files       本次 diff 的文件变更
+     * @param fileReviews 文件路径 -> 审查结果（审查失败的文件不包含在内）
+     */
+    private void prepareSnapshot(List<VCSUtils.FileChanges> files, Map<String, JsonNode> fileReviews, ObjectMapper mapper) {
+        this.pendingSnapshot = null;
         if (prSnapshotService == null || files == null || files.isEmpty() || prUrl == null || prUrl.isEmpty()) {
+            return;
+        }
+        try {
+            this.pendingSnapshot = IncrementalReviewUtils.buildPayload(mapper, files, fileReviews);
+        } catch (Exception e) {
+            logger.warn("Failed to build PR snapshot. url={}, err={}", prUrl, e.getMessage());
+        }
+    }
+
+    /**
+     * 待保存的 PR 快照内容，写入 outbox 后由 worker 在发布完成时保存；未生成时为 null
+     */
+    public Map<String, Object> getPendingSnapshot() {
+        return pendingSnapshot;
+    }
+
+    /**
+     * 审查发布成功后异步保存 PR 快照
+     */
+    private void persistSnapshotAsync() {
+        if (prSnapshotService == null || pendingSnapshot == null) {
             logger.debug("Skip snapshot persistence due to missing dependency or data. url={}", prUrl);
             return;
         }
 
-        List<VCSUtils.FileChanges> snapshotFiles = new ArrayList<>(files);
-        String snapshotUrl = this.prUrl;
-        String snapshotRepo = this.repository;
-        Integer snapshotPrNumber = safeParsePrNumber(this.prNumber);
-        UUID snapshotClient = this.clientIdentifier;
+        PrSnapshot snapshot = PrSnapshot.builder().url(this.prUrl).clientIdentifier(this.clientIdentifier).repoName(this.repository).prNumber(safeParsePrNumber(this.prNumber)).branch(null).fileChanges(pendingSnapshot).build();
+        this.pendingSnapshot = null;
 
         CompletableFuture.runAsync(() -> {
             try {
-                ObjectMapper mapper = new ObjectMapper();
-                Map<String, Object> payload = new HashMap<>();
-                List<Map<String, Object>> filePayload = mapper.convertValue(snapshotFiles, new TypeReference<List<Map<String, Object>>>() {
-                });
-                payload.put("files", filePayload);
-                payload.put("totalFiles", snapshotFiles.size());
-
-                PrSnapshot snapshot = PrSnapshot.builder().url(snapshotUrl).clientIdentifier(snapshotClient).repoName(snapshotRepo).prNumber(snapshotPrNumber).branch(null).fileChanges(payload).build();
-
                 prSnapshotService.createSnapshot(snapshot);
-                logger.info("Persisted PR snapshot asynchronously. url={}, files={}", snapshotUrl, snapshotFiles.size());
+                logger.info("Persisted PR snapshot asynchronously. url={}", snapshot.getUrl());
             } catch (Exception e) {
-                logger.warn("Failed to persist PR snapshot. url={}, err={}", snapshotUrl, e.getMessage(), e);
+                logger.warn("Failed to persist PR snapshot. url={}, err={}", snapshot.getUrl(), e.getMessage(), e);
             }
-        });
+        }, persistenceExecutor);
     }
 
     private Integer safeParsePrNumber(String raw) {
@@ -287,23 +450,15 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
      *
      * @param files          所有文件变更对象列表
      * @param ragContext     RAG上下文
-     * @param maxPromptChars 最大prompt字符数限制
+     * @param maxPromptTokens 最大prompt token数，超出时裁剪RAG片段/按hunk切分
      * @return PR摘要的JSON字符串
      * @throws Exception 如果生成失败
      */
-    private String generatePrSummary(List<VCSUtils.FileChanges> files, String ragContext, int maxPromptChars) throws Exception {
+    private String generatePrSummary(List<VCSUtils.FileChanges> files, String ragContext, int maxPromptTokens) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
 
-        // 将所有文件转换为JSON
-        String structuredJson = mapper.writeValueAsString(files);
-
-        String basePrompt = ReviewPrompts.PR_SUMMARY_PROMPT;
-        // 将占位符替换为结构化 JSON 和 RAG context
-        String mergedPrompt = basePrompt.replace("<Git diff>", structuredJson).replace("<RAG context>", ragContext != null && !ragContext.isEmpty() ? ragContext : "No additional context available.");
-
-        if (mergedPrompt.length() > maxPromptChars) {
-            logger.warn("Prompt too large for PR summary. promptSize={}, maxSize={}", mergedPrompt.length(), maxPromptChars);
-        }
+        // 将所有文件转换为JSON，并按 token 预算替换占位符为结构化 JSON 和 RAG context
+        String mergedPrompt = new PromptBudgeter(maxPromptTokens).buildPrompt(mapper, ReviewPrompts.PR_SUMMARY_PROMPT, files, ragContext);
 
         logger.debug("Request for PR summary for {} files", files.size());
 
@@ -328,39 +483,36 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
      *
      * @param file           文件变更对象
      * @param ragContext     RAG上下文
-     * @param maxPromptChars 最大prompt字符数限制
+     * @param maxPromptTokens 最大prompt token数，超出时裁剪RAG片段/按hunk切分
      * @return review结果的JSON字符串
      * @throws Exception 如果review失败
      */
-    private String reviewSingleFile(VCSUtils.FileChanges file, String ragContext, int maxPromptChars) throws Exception {
+    private String reviewSingleFile(VCSUtils.FileChanges file, String ragContext, int maxPromptTokens) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
 
-        // 将单个文件转换为JSON
-        List<VCSUtils.FileChanges> singleFileList = new ArrayList<>();
-        singleFileList.add(file);
-        String structuredJson = mapper.writeValueAsString(singleFileList);
-
-        String basePrompt = ReviewPrompts.PR_REVIEW_PROMPT;
-        // 将占位符替换为结构化 JSON 和 RAG context
-        String mergedPrompt = basePrompt.replace("<Git diff>", structuredJson).replace("<RAG context>", ragContext != null && !ragContext.isEmpty() ? ragContext : "No additional context available.");
-
-        if (mergedPrompt.length() > maxPromptChars) {
-            logger.warn("Prompt too large for single file. file={}, promptSize={}, maxSize={}", file.path, mergedPrompt.length(), maxPromptChars);
-//            throw new RuntimeException("Prompt too large for file: " + file.path);
+        // 将单个文件转换为JSON，并按 token 预算替换占位符为结构化 JSON 和 RAG context
+        // 文件过大时按 hunk 分组生成多个 prompt，逐组 review 后合并 comments
+        List<String> mergedPrompts = new PromptBudgeter(maxPromptTokens).buildFilePrompts(mapper, ReviewPrompts.PR_REVIEW_PROMPT, file, ragContext);
+        if (mergedPrompts.size() > 1) {
+            logger.info("File split into hunk groups to fit prompt budget. file={}, groups={}, maxPromptTokens={}", file.path, mergedPrompts.size(), maxPromptTokens);
         }
 
         logger.debug("Request for file: {}", file.path);
 
-        // Build messages for ChatClient
-        List<org.springframework.ai.chat.messages.Message> messages = new ArrayList<>();
-        messages.add(new UserMessage(mergedPrompt));
+        List<String> responses = new ArrayList<>(mergedPrompts.size());
+        for (String mergedPrompt : mergedPrompts) {
+            // Build messages for ChatClient
+            List<org.springframework.ai.chat.messages.Message> messages = new ArrayList<>();
+            messages.add(new UserMessage(mergedPrompt));
 
-        // Create prompt with model options
-        Prompt prompt = new Prompt(messages, OpenAiChatOptions.builder().model(this.model != null ? this.model : ModelEnum.GPT_4O.getCode()).build());
+            // Create prompt with model options
+            Prompt prompt = new Prompt(messages, OpenAiChatOptions.builder().model(this.model != null ? this.model : ModelEnum.GPT_4O.getCode()).build());
 
-        // Call ChatClient
-        org.springframework.ai.chat.model.ChatResponse response = chatClient.prompt(prompt).call().chatResponse();
-        String content = response.getResult().getOutput().getText();
+            // Call ChatClient
+            org.springframework.ai.chat.model.ChatResponse response = chatClient.prompt(prompt).call().chatResponse();
+            responses.add(response.getResult().getOutput().getText());
+        }
+        String content = ReviewJsonUtils.mergeReviewParts(mapper, responses);
 
         logger.debug("Review response for file: {}, contentSize={}", file.path, content != null ? content.length() : 0);
 
@@ -471,12 +623,16 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
         JsonNode comments = root.get("comments");
         if (comments != null && comments.isArray() && comments.size() > 0) {
             // 通过 GitHub API 获取 PR head commit SHA
-            String commitSha = gitCommand.getPrHeadCommitSha(this.repository, this.prNumber);
+            String commitSha = resolveHeadCommitSha();
             List<RankedReviewComment> rankedComments = new ArrayList<>();
             Iterator<JsonNode> it = comments.elements();
             int seq = 0;
             while (it.hasNext()) {
                 JsonNode c = it.next();
+                if (IncrementalReviewUtils.isCarried(c)) {
+                    // 沿用的评论已在上次审查时发布，评论标记随 head SHA 变化，不能依赖幂等标记去重
+                    continue;
+                }
                 String path = ReviewJsonUtils.safeText(c, "path");
                 Integer line = ReviewJsonUtils.safeInt(c, "line");
                 String severity = ReviewJsonUtils.safeText(c, "severity");
@@ -506,47 +662,22 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
                     fullBody = fullBody + "\n\n" + suggestion + "\n";
                 }
                 int rank = SeverityUtils.severityRank(severity);
-                rankedComments.add(new RankedReviewComment(new ReviewComment(path, "RIGHT", line, fullBody), rank, seq++));
+                rankedComments.add(new RankedReviewComment(new GitHubReviewPublisher.InlineComment(path, "RIGHT", line, fullBody), rank, seq++));
             }
             if (!rankedComments.isEmpty()) {
                 rankedComments.sort((a, b) -> {
                     if (a.rank != b.rank) return Integer.compare(a.rank, b.rank);
                     return Integer.compare(a.index, b.index);
                 });
-                List<ReviewComment> ordered = new ArrayList<>();
+                List<GitHubReviewPublisher.InlineComment> ordered = new ArrayList<>();
                 for (RankedReviewComment rc : rankedComments) {
                     ordered.add(rc.comment);
                 }
-                // GitHub API 限制每次请求最多 100 个 inline comments，需要分批发送
-                final int MAX_COMMENTS_PER_BATCH = 100;
-                int totalComments = ordered.size();
-                if (totalComments <= MAX_COMMENTS_PER_BATCH) {
-                    createPullRequestReview(commitSha, "AI Code Review inline comments", ordered);
-                } else {
-                    logger.info("Comments count ({}) exceeds batch limit ({}), splitting into batches", totalComments, MAX_COMMENTS_PER_BATCH);
-                    int batchNumber = 1;
-                    int totalBatches = (totalComments + MAX_COMMENTS_PER_BATCH - 1) / MAX_COMMENTS_PER_BATCH;
-                    for (int i = 0; i < ordered.size(); i += MAX_COMMENTS_PER_BATCH) {
-                        int end = Math.min(i + MAX_COMMENTS_PER_BATCH, ordered.size());
-                        List<ReviewComment> batch = ordered.subList(i, end);
-                        String batchBody = String.format("AI Code Review inline comments (Batch %d/%d)", batchNumber, totalBatches);
-                        createPullRequestReview(commitSha, batchBody, batch);
-                        logger.info("Sent batch {}/{} with {} comments", batchNumber, totalBatches, batch.size());
-                        batchNumber++;
-                        // 如果不是最后一批，等待 3 秒以避免 API 速率限制
-                        if (batchNumber <= totalBatches) {
-                            try {
-                                Thread.sleep(3000);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                logger.warn("Interrupted while waiting between batches", e);
-                                throw new RuntimeException("Interrupted while waiting between batches", e);
-                            }
-                        }
-                    }
-                }
+                // 按 GitHub 速率限制响应头自适应节奏、有界并发地分批发布，失败批次幂等重试
+                new GitHubReviewPublisher(gitCommand, this.repository, this.prNumber).publish(commitSha, "AI Code Review inline comments", ordered);
             }
         }
+        persistSnapshotAsync();
         return prUrl;
     }
 
@@ -557,11 +688,103 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
 
     // Removed file-based prompt loader; prompt is provided by ReviewPrompts class.
 
+    /**
+     * 读取该 PR (url, client_identifier) 上次的快照并生成增量审查计划，没有可用基线时返回空 Map（完整审查）
+     */
+    private Map<String, IncrementalReviewUtils.FilePlan> planIncrementalReview(List<VCSUtils.FileChanges> files, ObjectMapper mapper) {
+        if (!incrementalReview || prSnapshotService == null || prUrl == null || prUrl.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            PrSnapshot previous = prSnapshotService.getSnapshotByUrlAndClientIdentifier(prUrl, clientIdentifier);
+            if (previous == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, IncrementalReviewUtils.FilePlan> plans = IncrementalReviewUtils.plan(mapper, files, previous.getFileChanges());
+            int unchangedFiles = 0;
+            for (IncrementalReviewUtils.FilePlan plan : plans.values()) {
+                if (plan.changedPart == null) {
+                    unchangedFiles++;
+                }
+            }
+            logger.info("Incremental review planned against last snapshot. url={}, files={}, baselineFiles={}, unchangedFiles={}", prUrl, files.size(), plans.size(), unchangedFiles);
+            return plans;
+        } catch (Exception e) {
+            logger.warn("Failed to load last PR snapshot, falling back to full review. url={}, err={}", prUrl, e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * 计算文件审查结果的缓存 key，未配置缓存或计算失败时返回 null（不使用缓存）
+     */
+    private String reviewCacheKey(ObjectMapper mapper, VCSUtils.FileChanges file) {
+        if (reviewCacheService == null) {
+            return null;
+        }
+        try {
+            return ReviewPrompts.reviewCacheKey(mapper, this.model, file);
+        } catch (Exception e) {
+            logger.warn("Failed to compute review cache key. file={}, err={}", file.path, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 读取已缓存的文件审查结果，未命中时返回 null
+     */
+    private JsonNode getCachedFileReview(String cacheKey, ObjectMapper mapper) {
+        if (cacheKey == null) {
+            return null;
+        }
+        Map<String, Object> cached = reviewCacheService.getReview(cacheKey);
+        return cached != null ? mapper.valueToTree(cached) : null;
+    }
+
+    /**
+     * 在持久化线程池中写入文件审查结果缓存
+     */
+    private void cacheFileReviewAsync(String cacheKey, VCSUtils.FileChanges file, JsonNode fileReview, ObjectMapper mapper) {
+        if (cacheKey == null || fileReview == null || !fileReview.isObject()) {
+            return;
+        }
+        Map<String, Object> review = mapper.convertValue(fileReview, new TypeReference<Map<String, Object>>() {
+        });
+        ReviewCacheEntry entry = ReviewCacheEntry.builder().cacheKey(cacheKey).model(this.model).promptVersion(ReviewPrompts.PR_REVIEW_PROMPT_VERSION).filePath(file.path).review(review).build();
+        CompletableFuture.runAsync(() -> reviewCacheService.putReview(entry), persistenceExecutor);
+    }
+
+    /**
+     * 为每个文件获取各自的 RAG 上下文：一次批量请求按文件检索，失败时退回对全部变更行的检索结果
+     *
+     * @param files 变更文件
+     * @return 文件路径 -> RAG context，按文件顺序排列
+     */
+    private Map<String, String> getRagContextPerFile(List<VCSUtils.FileChanges> files) {
+        Map<String, String> contexts = null;
+        if (this.perFileRag && this.repository != null && !this.repository.isEmpty()) {
+            contexts = ChatUtils.getRagContextPerFile(files, this.repository, ChatUtils.DEFAULT_RAG_TOP_K);
+        }
+
+        Map<String, String> ordered = new LinkedHashMap<>();
+        if (contexts == null) {
+            String ragContext = getRagContext(ChatUtils.toRagQuery(files));
+            for (VCSUtils.FileChanges file : files) {
+                ordered.put(file.path, ragContext);
+            }
+            return ordered;
+        }
+        for (VCSUtils.FileChanges file : files) {
+            ordered.put(file.path, contexts.getOrDefault(file.path, ""));
+        }
+        return ordered;
+    }
+
     /**
      * 从 RAG 服务获取代码上下文
      * 调用 ChatUtils 中的 getRagContext 方法
      *
-     * @param code 代码内容（原始diff文本）
+     * @param code 代码内容（变更行文本）
      * @return RAG context 字符串
      */
     private String getRagContext(String code) {
@@ -579,13 +802,26 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
         return ragContext;
     }
 
+    /**
+     * 获取 PR head commit SHA，优先复用 getDiffCode 阶段并发发起的请求
+     */
+    private String resolveHeadCommitSha() throws IOException {
+        if (this.headCommitShaFuture != null) {
+            try {
+                return GitHubClient.await(this.headCommitShaFuture);
+            } catch (Exception e) {
+                logger.warn("Prefetched head commit SHA unavailable, fetching again. err={}", e.toString());
+            }
+        }
+        return gitCommand.getPrHeadCommitSha(this.repository, this.prNumber);
+    }
+
     private String postCommentToGithubPr(String body) throws Exception {
         String repo = this.repository;
-        String token = AppConfig.getInstance().requireString("github", "token");
         if (repo == null || repo.isEmpty()) {
             throw new RuntimeException("GITHUB_REPOSITORY is empty");
         }
-        if (token == null || token.isEmpty()) {
+        if (!gitCommand.hasToken()) {
             throw new RuntimeException("GITHUB_TOKEN is empty");
         }
 
@@ -593,99 +829,22 @@ public class ReviewPullRequestService extends AbstractOpenAiCodeReviewService {
             throw new RuntimeException("GITHUB_PR_NUMBER is empty and cannot be inferred from GITHUB_EVENT_PATH");
         }
 
-        String api = "https://api.github.com/repos/" + repo + "/issues/" + this.prNumber + "/comments";
+        String api = GitHubClient.API_BASE_URL + "/repos/" + repo + "/issues/" + this.prNumber + "/comments";
         String payload = "{\"body\":" + ReviewJsonUtils.toJsonString(body) + "}";
 
         logger.info("Posting comment to GitHub. api={}, repo={}, pr={}", api, repo, this.prNumber);
-        URL url = new URL(api);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + token);
-        conn.setRequestProperty("Accept", "application/vnd.github+json");
-        conn.setRequestProperty("User-Agent", "alias-openai-code-review");
-        conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-        conn.setDoOutput(true);
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(payload.getBytes(StandardCharsets.UTF_8));
-        }
-        int code = conn.getResponseCode();
-        if (code / 100 != 2) {
-            String errMsg = IoUtils.readStreamSafely(conn.getErrorStream());
-            throw new RuntimeException("GitHub comment failed, code=" + code + ", err=" + errMsg);
-        }
+        gitCommand.postIssueComment(repo, this.prNumber, payload);
         // 返回 PR 链接，便于日志打印
-        logger.info("Comment posted to GitHub PR successfully. code={}, url=https://github.com/{}/pull/{}", code, repo, this.prNumber);
+        logger.info("Comment posted to GitHub PR successfully. url=https://github.com/{}/pull/{}", repo, this.prNumber);
         return "https://github.com/" + repo + "/pull/" + this.prNumber;
     }
 
-    private void createPullRequestReview(String commitSha, String body, List<ReviewComment> comments) throws Exception {
-        String repo = this.repository;
-        String token = AppConfig.getInstance().requireString("github", "token");
-        if (repo == null || repo.isEmpty()) {
-            throw new RuntimeException("GITHUB_REPOSITORY is empty");
-        }
-        if (token == null || token.isEmpty()) {
-            throw new RuntimeException("GITHUB_TOKEN is empty");
-        }
-        if (this.prNumber == null || this.prNumber.isEmpty()) {
-            throw new RuntimeException("GITHUB_PR_NUMBER is empty");
-        }
-        String api = "https://api.github.com/repos/" + repo + "/pulls/" + this.prNumber + "/reviews";
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"commit_id\":").append(ReviewJsonUtils.toJsonString(commitSha)).append(",");
-        sb.append("\"body\":").append(ReviewJsonUtils.toJsonString(body)).append(",");
-        sb.append("\"event\":\"COMMENT\",");
-        sb.append("\"comments\":[");
-        for (int i = 0; i < comments.size(); i++) {
-            ReviewComment c = comments.get(i);
-            sb.append("{").append("\"path\":").append(ReviewJsonUtils.toJsonString(c.path)).append(",").append("\"side\":").append(ReviewJsonUtils.toJsonString(c.side)).append(",").append("\"line\":").append(c.line).append(",").append("\"body\":").append(ReviewJsonUtils.toJsonString(c.body)).append("}");
-            if (i < comments.size() - 1) sb.append(",");
-        }
-        sb.append("]}");
-        String payload = sb.toString();
-
-        logger.info("Creating PR review with {} comments. api={}", comments.size(), api);
-        URL url = new URL(api);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + token);
-        conn.setRequestProperty("Accept", "application/vnd.github+json");
-        conn.setRequestProperty("User-Agent", "alias-openai-code-review");
-        conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-        conn.setDoOutput(true);
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(payload.getBytes(StandardCharsets.UTF_8));
-        }
-        int code = conn.getResponseCode();
-        if (code / 100 != 2) {
-            String errMsg = IoUtils.readStreamSafely(conn.getErrorStream());
-            throw new RuntimeException("Create PR review failed, code=" + code + ", err=" + errMsg);
-        }
-        logger.info("PR review created successfully. code={}", code);
-    }
-
-    private static final class ReviewComment {
-        final String path;
-        final String side; // "RIGHT" or "LEFT"
-        final int line;
-        final String body;
-
-        ReviewComment(String path, String side, int line, String body) {
-            this.path = path;
-            this.side = side;
-            this.line = line;
-            this.body = body;
-        }
-    }
-
-
     private static final class RankedReviewComment {
-        final ReviewComment comment;
+        final GitHubReviewPublisher.InlineComment comment;
         final int rank;
         final int index;
 
-        RankedReviewComment(ReviewComment comment, int rank, int index) {
+        RankedReviewComment(GitHubReviewPublisher.InlineComment comment, int rank, int index) {
             this.comment = comment;
             this.rank = rank;
             this.index = index;
@@ -1,15 +1,21 @@
 package com.alias.domain.service.impl;
 
-import com.alias.config.AppConfig;
 import com.alias.domain.model.Message;
 import com.alias.domain.model.ModelEnum;
 import com.alias.domain.model.PrSnapshot;
+import com.alias.domain.model.ReviewCacheEntry;
+import com.alias.domain.model.ReviewOutboxEntry;
+import com.alias.domain.prompt.PromptBudgeter;
 import com.alias.domain.prompt.ReviewPrompts;
 import com.alias.domain.service.AbstractOpenAiCodeReviewService;
 import com.alias.domain.service.IMessageService;
 import com.alias.domain.service.IPrSnapshotService;
+import com.alias.domain.service.IReviewCacheService;
+import com.alias.domain.service.IReviewOutboxService;
 import com.alias.domain.utils.ChatUtils;
 import com.alias.infrastructure.git.GitCommand;
+import com.alias.infrastructure.git.GitHubClient;
+import com.alias.infrastructure.git.GitHubReviewPublisher;
 import com.alias.utils.*;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -21,14 +27,16 @@ import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Streaming version of ReviewPullRequestService
@@ -38,6 +46,9 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
 
     private static final Logger logger = LoggerFactory.getLogger(ReviewPullRequestStreamingService.class);
 
+    // 默认同时审查的文件数，受限于 LLM 接口的并发与速率限制
+    private static final int DEFAULT_FILE_REVIEW_CONCURRENCY = 4;
+
     // PR 相关配置由调用方设置，不从环境变量读取
     private String repository; // owner/repo
     private String prNumber;   // 数字字符串
@@ -49,6 +60,18 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
     private final IPrSnapshotService prSnapshotService;
     private final IMessageService messageService;
     private UUID clientIdentifier;
+    // 与 diff 并发获取的 PR head commit SHA，recordCodeReview 时直接复用
+    private CompletableFuture<String> headCommitShaFuture;
+    private int fileReviewConcurrency = DEFAULT_FILE_REVIEW_CONCURRENCY;
+    private SseStreamWriter sseWriter;
+    private Executor persistenceExecutor = ForkJoinPool.commonPool();
+    private Executor publishExecutor = ForkJoinPool.commonPool();
+    private boolean perFileRag = true;
+    private IReviewCacheService reviewCacheService;
+    private boolean incrementalReview = true;
+    private IReviewOutboxService reviewOutboxService;
+    // 本次审查生成、尚未保存的 PR 快照内容，发布成功后才保存
+    private Map<String, Object> pendingSnapshot;
 
     public ReviewPullRequestStreamingService(GitCommand gitCommand, ChatClient chatClient) {
         this(gitCommand, chatClient, null, null);
@@ -86,6 +109,66 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
         this.clientIdentifier = clientIdentifier;
     }
 
+    /**
+     * 设置文件级审查的最大并发数
+     *
+     * @param fileReviewConcurrency 同时进行审查的文件数，小于 1 时按 1 处理
+     */
+    public void setFileReviewConcurrency(int fileReviewConcurrency) {
+        this.fileReviewConcurrency = Math.max(1, fileReviewConcurrency);
+    }
+
+    /**
+     * 设置 PR 快照等异步持久化任务使用的线程池，未设置时使用 ForkJoinPool.commonPool
+     */
+    public void setPersistenceExecutor(Executor persistenceExecutor) {
+        this.persistenceExecutor = persistenceExecutor != null ? persistenceExecutor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * 设置审查完成后发布结果（写入 outbox 或直接发布到 GitHub）使用的线程池，未设置时使用 ForkJoinPool.commonPool
+     * 直接发布会按 GitHub 速率限制分批等待，不应使用只承载短数据库写入的持久化线程池
+     */
+    public void setPublishExecutor(Executor publishExecutor) {
+        this.publishExecutor = publishExecutor != null ? publishExecutor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * 是否按文件检索 RAG 上下文（默认开启）；关闭时所有文件共用对整个 diff 的检索结果
+     */
+    public void setPerFileRag(boolean perFileRag) {
+        this.perFileRag = perFileRag;
+    }
+
+    /**
+     * 设置文件级审查结果缓存，未设置时每次都调用 LLM
+     */
+    public void setReviewCacheService(IReviewCacheService reviewCacheService) {
+        this.reviewCacheService = reviewCacheService;
+    }
+
+    /**
+     * 是否启用增量审查（默认开启）：与该 PR 上次的快照比对，只审查新增或变化的 hunk，未变化 hunk 上的评论直接沿用
+     */
+    public void setIncrementalReview(boolean incrementalReview) {
+        this.incrementalReview = incrementalReview;
+    }
+
+    /**
+     * 设置审查结果发布 outbox：设置后 execStreaming 在 LLM 审查完成时即结束 SSE，GitHub 发布与 message 保存由后台 worker 完成；
+     * 未设置或写入失败时在当前线程中同步发布
+     */
+    public void setReviewOutboxService(IReviewOutboxService reviewOutboxService) {
+        this.reviewOutboxService = reviewOutboxService;
+    }
+
+    /**
+     * 指定审查所基于的 PR head commit SHA（outbox worker 发布时使用，避免期间有新提交导致评论落到错误的 commit）
+     */
+    public void setHeadCommitSha(String headCommitSha) {
+        this.headCommitShaFuture = headCommitSha != null && !headCommitSha.isEmpty() ? CompletableFuture.completedFuture(headCommitSha) : null;
+    }
+
     /**
      * 设置使用的模型
      *
@@ -130,12 +213,40 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
     public void execStreaming(SseEmitter emitter) throws Exception {
         logger.info("Starting streaming PR review. prUrl={}", this.prUrl);
         try {
-            // 获取 diff
-            String diffCode = getDiffCode();
-
-            // 流式进行代码审查，获取整合后的review结果
-            String mergedReviewJson = codeReviewStreaming(diffCode, emitter);
+            // 获取 diff：从 GitHub 响应体流式解析为文件变更
+            List<VCSUtils.FileChanges> files = fetchFileChanges();
+
+            // 流式进行代码审查；审查在 LLM 回调中汇合，调用线程不等待，结果就绪后在 publishExecutor 上发布
+            codeReviewStreaming(files, emitter).whenComplete((mergedReviewJson, error) -> {
+                if (error != null) {
+                    failStreaming(emitter, unwrap(error));
+                    return;
+                }
+                try {
+                    publishExecutor.execute(() -> {
+                        try {
+                            publishReview(mergedReviewJson, emitter);
+                        } catch (Exception e) {
+                            failStreaming(emitter, e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    failStreaming(emitter, e);
+                }
+            });
+        } catch (Exception e) {
+            failStreaming(emitter, e);
+        }
+    }
 
+    /**
+     * 发布整合后的审查结果并结束 SSE
+     */
+    private void publishReview(String mergedReviewJson, SseEmitter emitter) throws Exception {
+        if (enqueuePublish(mergedReviewJson)) {
+            // GitHub 发布与 message 保存交给 outbox worker，不再阻塞 SSE
+            logger.info("Review results queued for publishing. prUrl={}", this.prUrl);
+        } else {
             // 记录审查结果到 GitHub PR
             logger.info("Recording review results to GitHub PR");
             String recordedUrl = recordCodeReview(mergedReviewJson);
@@ -143,43 +254,100 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
 
             // 保存 message 到数据库
             saveReviewMessage(mergedReviewJson);
+        }
 
-            // 发送完成事件
-            emitter.send(SseEmitter.event().name("complete").data("Streaming completed"));
-            emitter.complete();
+        // 发送完成事件
+        sseWriter(emitter).sendRaw("complete", "Streaming completed");
+        emitter.complete();
+
+        logger.info("Streaming PR review completed. prUrl={}", this.prUrl);
+    }
 
-            logger.info("Streaming PR review completed. prUrl={}", this.prUrl);
-        } catch (IOException e) {
+    private void failStreaming(SseEmitter emitter, Exception e) {
+        if (e instanceof IOException) {
             logger.error("Streaming error", e);
-            try {
-                emitter.completeWithError(e);
-            } catch (Exception ex) {
-                logger.error("Error sending error event", ex);
-            }
-        } catch (Exception e) {
+        } else {
             logger.error("Unexpected error in streaming review", e);
+        }
+        try {
+            emitter.completeWithError(e);
+        } catch (Exception ex) {
+            logger.error("Error sending error event", ex);
+        }
+    }
+
+    /**
+     * 将审查结果写入 outbox，成功返回 true；未配置 outbox 或写入失败时返回 false，由调用方同步发布
+     */
+    private boolean enqueuePublish(String mergedReviewJson) {
+        if (reviewOutboxService == null) {
+            return false;
+        }
+        try {
+            Map<String, Object> review = new ObjectMapper().readValue(mergedReviewJson, new TypeReference<Map<String, Object>>() {
+            });
+            String headCommitSha = null;
             try {
-                emitter.completeWithError(e);
-            } catch (Exception ex) {
-                logger.error("Error sending error event", ex);
+                headCommitSha = resolveHeadCommitSha();
+            } catch (Exception e) {
+                logger.warn("Head commit SHA unavailable, worker will resolve it when publishing. err={}", e.getMessage());
             }
+            UUID conversationUuid = null;
+            if (conversationId != null && !conversationId.isEmpty()) {
+                try {
+                    conversationUuid = UUID.fromString(conversationId);
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Invalid conversationId format, review message will not be saved. conversationId={}", conversationId);
+                }
+            }
+            ReviewOutboxEntry entry = ReviewOutboxEntry.builder().prUrl(this.prUrl).repoName(this.repository).prNumber(this.prNumber).headCommitSha(headCommitSha).model(this.model).conversationId(conversationUuid).clientIdentifier(this.clientIdentifier).review(review).snapshot(pendingSnapshot).build();
+            return reviewOutboxService.enqueue(entry);
+        } catch (Exception e) {
+            logger.warn("Failed to queue review results, publishing inline. prUrl={}, err={}", this.prUrl, e.getMessage());
+            return false;
         }
     }
 
     @Override
     protected String getDiffCode() throws IOException, InterruptedException {
-        if (this.prUrl == null || this.prUrl.isEmpty()) {
-            logger.error("PR URL is empty");
-            throw new RuntimeException("PR URL is empty; please set via exec(prUrl)");
-        }
+        prefetchHeadCommitSha();
 
         // 直接使用 GitHub API 获取 PR diff
         logger.info("Fetching PR diff from GitHub API. prUrl={}", this.prUrl);
-        String diff = gitCommand.getPrDiff(this.prUrl);
+        String diff = GitHubClient.await(gitCommand.getPrDiffAsync(this.prUrl));
         logger.info("Generated PR diff. size={} bytes", diff != null ? diff.length() : 0);
         return diff;
     }
 
+    /**
+     * 获取 PR 文件变更：从 GitHub 响应体流式解析，不在内存中保留完整 diff 文本
+     *
+     * @return 文件变更列表
+     */
+    private List<VCSUtils.FileChanges> fetchFileChanges() throws IOException {
+        prefetchHeadCommitSha();
+
+        logger.info("Streaming PR diff from GitHub API. prUrl={}", this.prUrl);
+        List<VCSUtils.FileChanges> files = new ArrayList<>();
+        gitCommand.streamPrFileChanges(this.prUrl, files::add);
+        logger.info("Parsed PR diff. files={}", files.size());
+        return files;
+    }
+
+    /**
+     * 校验 PR URL，并与 diff 并发获取 head commit SHA
+     */
+    private void prefetchHeadCommitSha() {
+        if (this.prUrl == null || this.prUrl.isEmpty()) {
+            logger.error("PR URL is empty");
+            throw new RuntimeException("PR URL is empty; please set via exec(prUrl)");
+        }
+
+        if (this.repository != null && !this.repository.isEmpty() && this.prNumber != null && !this.prNumber.isEmpty()) {
+            this.headCommitShaFuture = gitCommand.getPrHeadCommitShaAsync(this.repository, this.prNumber);
+        }
+    }
+
     @Override
     protected String codeReview(String diffCode) throws Exception {
         // 同步版本，不使用此方法
@@ -189,53 +357,180 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
     /**
      * 流式代码审查
      *
-     * @param diffCode 代码差异
-     * @param emitter  SSE 发射器
-     * @return 整合后的review结果JSON字符串
-     * @throws Exception 如果审查失败
+     * @param files   解析后的文件变更
+     * @param emitter SSE 发射器
+     * @return 以整合后的review结果JSON字符串完成，不阻塞调用线程
+     * @throws Exception 如果审查启动失败
      */
-    private String codeReviewStreaming(String diffCode, SseEmitter emitter) throws Exception {
-        logger.info("Submitting diff to LLM for streaming review. model={}, diffSize={}", this.model != null ? this.model : ModelEnum.GPT_4O.getCode(), diffCode != null ? diffCode.length() : 0);
-        final int MAX_PROMPT_CHARS = 180_000;
-        String safeDiff = diffCode == null ? "" : diffCode;
+    private CompletableFuture<String> codeReviewStreaming(List<VCSUtils.FileChanges> files, SseEmitter emitter) throws Exception {
+        logger.info("Submitting diff to LLM for streaming review. model={}, files={}", this.model != null ? this.model : ModelEnum.GPT_4O.getCode(), files.size());
+        final int MAX_PROMPT_TOKENS = PromptBudgeter.DEFAULT_MAX_PROMPT_TOKENS;
         ObjectMapper mapper = new ObjectMapper();
 
-        // 使用 VCSUtils 将 diff 解析为结构化对象
-        List<VCSUtils.FileChanges> files;
-        try {
-            files = VCSUtils.parseUnifiedDiff(safeDiff);
-        } catch (Exception e) {
-            logger.warn("Failed to parse unified diff; fallback to raw diff. err={}", e.toString());
-            files = new ArrayList<>();
-        }
-
         if (files.isEmpty()) {
             logger.warn("No files found in diff, returning empty review");
             String emptyMsg = "### ℹ️ No Code Changes Detected\n\n" + "No code file changes detected in the current PR.\n\n";
-            emitter.send(SseEmitter.event().name("review").data(buildEmitterPayload(emptyMsg)));
+            sseWriter(emitter).send("review", emptyMsg);
             // 返回空的review结果JSON
             Map<String, Object> emptyReview = createEmptyReview();
-            return mapper.writeValueAsString(emptyReview);
+            return CompletableFuture.completedFuture(mapper.writeValueAsString(emptyReview));
         }
 
-        persistSnapshotAsync(files);
+        // 增量审查：与上次快照比对，只审查新增或变化的 hunk；快照在审查完成后连同评论一起更新
+        Map<String, IncrementalReviewUtils.FilePlan> incrementalPlans = planIncrementalReview(files, mapper);
 
-        // 获取 RAG context
-        String ragContext = getRagContext(safeDiff);
-        logger.info("RAG context retrieved. contextSize={}", ragContext.length());
+        // 获取 RAG context：每个文件使用各自检索到的片段，PR 摘要使用合并后的片段
+        Map<String, String> fileRagContexts = getRagContextPerFile(files);
+        String ragContext = ChatUtils.mergeRagContexts(fileRagContexts.values());
+        logger.info("RAG context retrieved. files={}, contextSize={}", fileRagContexts.size(), ragContext.length());
         logger.debug("RAG context: {}", ragContext);
-        String ragMsg = "🧠 **RAG Context Loaded** (Size: " + (ragContext != null ? ragContext.length() : 0) + " characters)\n\n";
-        emitter.send(SseEmitter.event().name("rag_context_success").data(buildEmitterPayload(ragMsg)));
-
-        // 步骤1: 先进行整体PR摘要
-        logger.info("Starting PR overall summary. totalFiles={}", files.size());
+        String ragMsg = "🧠 **RAG Context Loaded** (Files: " + fileRagContexts.size() + ", Size: " + ragContext.length() + " characters)\n\n";
+        sseWriter(emitter).send("rag_context_success", ragMsg);
+
+        // PR摘要与文件级审查互不依赖：diff 解析完成后同时展开摘要与各文件审查，最后统一汇合
+        // LLM 调用全部以非阻塞方式订阅，不为每个文件占用一个等待中的线程
+        List<VCSUtils.FileChanges> reviewFiles = files;
+        int totalFiles = reviewFiles.size();
+        int parallelism = Math.max(1, Math.min(this.fileReviewConcurrency, totalFiles));
+        JsonNode[] fileReviews = new JsonNode[totalFiles];
+
+        // 分支1: 整体PR摘要
+        logger.info("Starting PR overall summary. totalFiles={}", totalFiles);
         String summaryStartMsg = "### 📋 Generating PR Summary\n\n" + "Analyzing overall PR changes...\n\n";
-        emitter.send(SseEmitter.event().name("pr_summary_start").data(buildEmitterPayload(summaryStartMsg)));
+        sseWriter(emitter).send("pr_summary_start", summaryStartMsg);
+        CompletableFuture<JsonNode> summaryFuture = summarizePrAsync(reviewFiles, ragContext, MAX_PROMPT_TOKENS, mapper, emitter);
+
+        // 分支2: 最多 parallelism 个文件同时在审查中，结果按文件下标写回，保证评论列表顺序稳定
+        logger.info("Starting per-file streaming review. totalFiles={}, concurrency={}", totalFiles, parallelism);
+        String startMsg = "### 📄 Starting Per-File Review\n\n" + "**Total Files:** " + totalFiles + "\n\n";
+        sseWriter(emitter).send("review_start", startMsg);
+
+        CompletableFuture<Void> filesFuture = Flux.range(0, totalFiles).flatMap(i -> Mono.fromFuture(() -> reviewFileIncrementalAsync(reviewFiles.get(i), incrementalPlans.get(reviewFiles.get(i).path), i, totalFiles, fileRagContexts.get(reviewFiles.get(i).path), MAX_PROMPT_TOKENS, mapper, emitter)).doOnNext(fileReview -> fileReviews[i] = fileReview), parallelism).then().toFuture();
+
+        // 汇合: 摘要与全部文件审查都完成后再整合结果，不阻塞当前线程
+        return CompletableFuture.allOf(filesFuture, summaryFuture).thenApply(v -> {
+            try {
+                return mergeReviews(files, fileReviews, summaryFuture.join(), ragContext, mapper, emitter);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * 整合PR摘要与各文件审查结果，推送汇总事件并生成最终的 review JSON
+     *
+     * @param files       审查的文件，与 fileReviews 下标一一对应
+     * @param fileReviews 各文件审查结果，失败的文件为 null
+     * @return 整合后的review结果JSON字符串
+     */
+    private String mergeReviews(List<VCSUtils.FileChanges> files, JsonNode[] fileReviews, JsonNode prSummaryJson, String ragContext, ObjectMapper mapper, SseEmitter emitter) throws Exception {
+        if (sseWriter(emitter).isClosed()) {
+            // 客户端已断开，进行中的 LLM 调用已取消，结果不完整，不再发布
+            throw new IOException("SSE client disconnected, review aborted. prUrl=" + this.prUrl);
+        }
+
+        List<JsonNode> allComments = new ArrayList<>();
+        Map<String, JsonNode> reviewsByPath = new HashMap<>();
+
+        // 按文件原始顺序提取 comments，与完成先后无关
+        for (int i = 0; i < fileReviews.length; i++) {
+            JsonNode fileReview = fileReviews[i];
+            if (fileReview == null) {
+                continue;
+            }
+            reviewsByPath.put(files.get(i).path, fileReview);
+            JsonNode comments = fileReview.get("comments");
+            if (comments != null && comments.isArray()) {
+                Iterator<JsonNode> it = comments.elements();
+                while (it.hasNext()) {
+                    allComments.add(it.next());
+                }
+            }
+        }
+
+        prepareSnapshot(files, reviewsByPath, mapper);
 
-        JsonNode prSummaryJson = null;
+        // 将 JsonNode 列表转换为 Map 列表
+        List<Map<String, Object>> commentsList = new ArrayList<>();
+        for (JsonNode comment : allComments) {
+            Map<String, Object> commentMap = mapper.convertValue(comment, new TypeReference<>() {
+            });
+            commentsList.add(commentMap);
+        }
+
+        // 构建最终的整合结果，包含PR摘要
+        Map<String, Object> mergedReview = new HashMap<>();
+        mergedReview.put("comments", commentsList);
+
+        // 如果PR摘要存在，将其添加到结果中
+        if (prSummaryJson != null) {
+            JsonNode prSummary = prSummaryJson.get("pr_summary");
+            if (prSummary != null) {
+                // 更新review_summary中的total_comments
+                JsonNode reviewSummary = prSummary.get("review_summary");
+                if (reviewSummary != null) {
+                    Map<String, Object> reviewSummaryMap = mapper.convertValue(reviewSummary, new TypeReference<Map<String, Object>>() {
+                    });
+                    reviewSummaryMap.put("total_comments", allComments.size());
+                    Map<String, Object> prSummaryMap = mapper.convertValue(prSummary, new TypeReference<Map<String, Object>>() {
+                    });
+                    prSummaryMap.put("review_summary", reviewSummaryMap);
+                    mergedReview.put("pr_summary", prSummaryMap);
+                } else {
+                    mergedReview.put("pr_summary", mapper.convertValue(prSummary, new TypeReference<Map<String, Object>>() {
+                    }));
+                }
+            }
+        }
+
+        // 记录 RAG Context 的大小，便于后续统计与展示
+        int ragContextSize = ragContext != null ? ragContext.length() : 0;
+        mergedReview.put("rag_context_size", ragContextSize);
+
+        // Send final review results
+        String summaryHeader = "\n---\n\n## 🎉 Review Complete\n\n";
+        sseWriter(emitter).send("review_summary", summaryHeader);
+
+        if (!commentsList.isEmpty()) {
+            String commentsHeader = "### 💬 Detailed Comments (" + commentsList.size() + " items)\n\n";
+            sseWriter(emitter).send("review_summary", commentsHeader);
+
+            for (int idx = 0; idx < commentsList.size(); idx++) {
+                Map<String, Object> comment = commentsList.get(idx);
+                String severity = comment.get("severity") != null ? comment.get("severity").toString() : "info";
+                String severityEmoji = getSeverityEmoji(severity);
+                String commentMsg = "#### " + severityEmoji + " Comment " + (idx + 1) + "\n\n" + "**File:** `" + comment.get("path") + "`\n" + "**Line:** " + comment.get("line") + "\n" + "**Severity:** " + severity + "\n\n" + comment.get("body") + "\n\n";
+                sseWriter(emitter).send("review_summary", commentMsg);
+            }
+        }
+
+        logger.info("Completed per-file streaming review. totalFiles={}, totalComments={}", files.size(), allComments.size());
+        String completeMsg = "\n---\n\n✅ **Review Complete** | Files: " + files.size() + " | Comments: " + allComments.size() + "\n\n";
+        sseWriter(emitter).send("review_complete", completeMsg);
+
+        // 将整合后的review结果序列化为JSON字符串并返回
+        String mergedReviewJson = mapper.writeValueAsString(mergedReview);
+        logger.debug("Merged review JSON generated. size={}", mergedReviewJson.length());
+        return mergedReviewJson;
+    }
+
+    /**
+     * 生成PR整体摘要并推送摘要事件，与文件级审查并行执行
+     *
+     * @return PR摘要JSON，失败时以 null 完成
+     */
+    private CompletableFuture<JsonNode> summarizePrAsync(List<VCSUtils.FileChanges> files, String ragContext, int maxPromptTokens, ObjectMapper mapper, SseEmitter emitter) {
+        // 一次性生成所有文件的PR摘要
+        return generatePrSummaryAsync(files, ragContext, maxPromptTokens, emitter).handle((prSummaryResponse, error) -> handlePrSummary(prSummaryResponse, error, mapper, emitter));
+    }
+
+    private JsonNode handlePrSummary(String prSummaryResponse, Throwable error, ObjectMapper mapper, SseEmitter emitter) {
         try {
-            // 一次性生成所有文件的PR摘要
-            String prSummaryResponse = generatePrSummary(files, ragContext, MAX_PROMPT_CHARS);
+            if (error != null) {
+                throw unwrap(error);
+            }
+            JsonNode prSummaryJson;
             try {
                 prSummaryJson = mapper.readTree(prSummaryResponse);
             } catch (Exception parseErr) {
@@ -252,12 +547,12 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
 
                 if (title != null && !title.isEmpty()) {
                     String titleMsg = "### 📌 PR Title\n\n**" + title + "**\n\n";
-                    emitter.send(SseEmitter.event().name("pr_summary").data(buildEmitterPayload(titleMsg)));
+                    sseWriter(emitter).send("pr_summary", titleMsg);
                 }
 
                 if (description != null && !description.isEmpty()) {
                     String descMsg = "### 📝 PR Description\n\n" + description + "\n\n";
-                    emitter.send(SseEmitter.event().name("pr_summary").data(buildEmitterPayload(descMsg)));
+                    sseWriter(emitter).send("pr_summary", descMsg);
                 }
 
                 JsonNode keyChanges = prSummary.get("key_changes");
@@ -270,7 +565,7 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
                         keyChangesMsg.append(idx++).append(". ").append(change).append("\n");
                     }
                     keyChangesMsg.append("\n");
-                    emitter.send(SseEmitter.event().name("pr_summary").data(buildEmitterPayload(keyChangesMsg.toString())));
+                    sseWriter(emitter).send("pr_summary", keyChangesMsg.toString());
                 }
 
                 JsonNode reviewSummary = prSummary.get("review_summary");
@@ -282,7 +577,7 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
                         summaryStats.append("- **Total Files Reviewed:** ").append(totalFilesReviewed).append("\n");
                     }
                     summaryStats.append("\n");
-                    emitter.send(SseEmitter.event().name("pr_summary").data(buildEmitterPayload(summaryStats.toString())));
+                    sseWriter(emitter).send("pr_summary", summaryStats.toString());
 
                     JsonNode filesReviewed = reviewSummary.get("files");
                     if (filesReviewed != null && filesReviewed.isArray() && filesReviewed.size() > 0) {
@@ -306,166 +601,162 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
                             filesMsg.append("\n");
                         }
                         filesMsg.append("\n");
-                        emitter.send(SseEmitter.event().name("pr_summary").data(buildEmitterPayload(filesMsg.toString())));
+                        sseWriter(emitter).send("pr_summary", filesMsg.toString());
                     }
                 }
             }
 
             logger.info("PR summary generated successfully");
+            return prSummaryJson;
         } catch (Exception e) {
             logger.error("Failed to generate PR summary, continuing with per-file review. err={}", e.toString(), e);
-            String errorMsg = "⚠️ **PR Summary Generation Failed**\n\nContinuing with per-file review...\n\n";
-            emitter.send(SseEmitter.event().name("pr_summary_error").data(buildEmitterPayload(errorMsg)));
+            try {
+                String errorMsg = "⚠️ **PR Summary Generation Failed**\n\nContinuing with per-file review...\n\n";
+                sseWriter(emitter).send("pr_summary_error", errorMsg);
+            } catch (IOException ex) {
+                logger.error("Error sending PR summary error event", ex);
+            }
+            return null;
         }
+    }
 
-        // 步骤2: 遍历每个文件，分别进行流式review
-        List<JsonNode> fileReviews = new ArrayList<>();
-        List<JsonNode> allComments = new ArrayList<>();
+    /**
+     * 按增量计划审查单个文件：所有 hunk 都未变化时直接沿用上次的评论，否则只审查变化部分并合并沿用的评论
+     *
+     * @param plan 增量审查计划，为 null 时完整审查该文件
+     */
+    private CompletableFuture<JsonNode> reviewFileIncrementalAsync(VCSUtils.FileChanges file, IncrementalReviewUtils.FilePlan plan, int fileIndex, int totalFiles, String ragContext, int maxPromptTokens, ObjectMapper mapper, SseEmitter emitter) {
+        if (plan == null) {
+            return reviewFileTaskAsync(file, fileIndex, totalFiles, ragContext, maxPromptTokens, mapper, emitter);
+        }
+        if (plan.changedPart == null) {
+            logger.info("File unchanged since last review, carrying comments forward. file {}/{}, path={}, comments={}", fileIndex + 1, totalFiles, file.path, plan.carriedComments.size());
+            try {
+                String fileCompleteMsg = "##### ✔️ File Unchanged [" + (fileIndex + 1) + "/" + totalFiles + "]\n\n" + "**File:** `" + shortenPath(file.path) + "` | **Carried-forward Comments:** " + plan.carriedComments.size() + "\n\n";
+                sseWriter(emitter).send("file_complete", fileCompleteMsg, fileIndex, file.path);
+            } catch (IOException e) {
+                logger.error("Error sending file complete event", e);
+            }
+            return CompletableFuture.completedFuture(IncrementalReviewUtils.mergeComments(mapper, null, plan.carriedComments));
+        }
+        logger.info("Reviewing changed hunks only. file {}/{}, path={}, changedHunks={}, unchangedHunks={}, removedHunks={}", fileIndex + 1, totalFiles, file.path, plan.changedHunks, plan.unchangedHunks, plan.removedHunks);
+        return reviewFileTaskAsync(plan.changedPart, fileIndex, totalFiles, ragContext, maxPromptTokens, mapper, emitter).thenApply(fileReview -> fileReview != null ? IncrementalReviewUtils.mergeComments(mapper, fileReview, plan.carriedComments) : null);
+    }
 
-        logger.info("Starting per-file streaming review. totalFiles={}", files.size());
-        String startMsg = "### 📄 Starting Per-File Review\n\n" + "**Total Files:** " + files.size() + "\n\n";
-        emitter.send(SseEmitter.event().name("review_start").data(buildEmitterPayload(startMsg)));
-        for (int i = 0; i < files.size(); i++) {
-            VCSUtils.FileChanges file = files.get(i);
-            logger.info("Reviewing file {}/{}. path={}", i + 1, files.size(), file.path);
-            String displayPath = shortenPath(file.path);
-            String fileStartMsg = "#### 📂 Reviewing File [" + (i + 1) + "/" + files.size() + "]\n\n" + "**File Path:** `" + displayPath + "`\n\n";
-            emitter.send(SseEmitter.event().name("file_start").data(buildEmitterPayload(fileStartMsg)));
+    /**
+     * 单个文件的审查任务，LLM 响应到达后在回调中解析并推送事件
+     * 进度事件带有 fileIndex / filePath 标记，前端可据此处理乱序到达的事件
+     *
+     * @return 文件review结果，失败时以 null 完成
+     */
+    private CompletableFuture<JsonNode> reviewFileTaskAsync(VCSUtils.FileChanges file, int fileIndex, int totalFiles, String ragContext, int maxPromptTokens, ObjectMapper mapper, SseEmitter emitter) {
+        logger.info("Reviewing file {}/{}. path={}", fileIndex + 1, totalFiles, file.path);
+        String displayPath = shortenPath(file.path);
+        String cacheKey = reviewCacheKey(mapper, file);
+        JsonNode cachedReview = null;
+        CompletableFuture<String> response;
+        try {
+            String fileStartMsg = "#### 📂 Reviewing File [" + (fileIndex + 1) + "/" + totalFiles + "]\n\n" + "**File Path:** `" + displayPath + "`\n\n";
+            sseWriter(emitter).send("file_start", fileStartMsg, fileIndex, file.path);
 
-            try {
-                // 对单个文件进行流式review
-                String fileReviewJson = reviewSingleFileStreaming(file, ragContext, MAX_PROMPT_CHARS, emitter);
+            // 文件变更与上次审查完全相同时直接复用缓存结果，不再调用 LLM
+            cachedReview = getCachedFileReview(cacheKey, mapper);
+            response = cachedReview != null ? CompletableFuture.completedFuture(null) : reviewSingleFileAsync(file, ragContext, maxPromptTokens, emitter);
+        } catch (Exception e) {
+            response = CompletableFuture.failedFuture(e);
+        }
 
-                // 解析单个文件的review结果
-                JsonNode fileReview;
-                try {
-                    fileReview = mapper.readTree(fileReviewJson);
-                } catch (Exception parseErr) {
-                    logger.warn("Failed to parse file review JSON, attempting to extract. file={}, err={}", file.path, parseErr.toString());
-                    String cleaned = ReviewJsonUtils.extractJsonPayload(fileReviewJson);
-                    fileReview = mapper.readTree(cleaned);
+        final JsonNode cached = cachedReview;
+        return response.handle((fileReviewJson, error) -> {
+            try {
+                if (error != null) {
+                    throw unwrap(error);
                 }
 
-                fileReviews.add(fileReview);
-
-                // 提取comments
-                JsonNode comments = fileReview.get("comments");
-                if (comments != null && comments.isArray()) {
-                    Iterator<JsonNode> it = comments.elements();
-                    while (it.hasNext()) {
-                        allComments.add(it.next());
+                // 解析单个文件的review结果
+                JsonNode fileReview = cached;
+                if (fileReview == null) {
+                    try {
+                        fileReview = mapper.readTree(fileReviewJson);
+                    } catch (Exception parseErr) {
+                        logger.warn("Failed to parse file review JSON, attempting to extract. file={}, err={}", file.path, parseErr.toString());
+                        String cleaned = ReviewJsonUtils.extractJsonPayload(fileReviewJson);
+                        fileReview = mapper.readTree(cleaned);
                     }
+                    cacheFileReviewAsync(cacheKey, file, fileReview, mapper);
                 }
 
-                logger.info("Completed streaming review for file {}/{}. path={}, comments={}", i + 1, files.size(), file.path, comments != null && comments.isArray() ? comments.size() : 0);
+                JsonNode comments = fileReview.get("comments");
+                int commentCount = comments != null && comments.isArray() ? comments.size() : 0;
+                logger.info("Completed streaming review for file {}/{}. path={}, comments={}, cached={}", fileIndex + 1, totalFiles, file.path, commentCount, cached != null);
+                String fileCompleteMsg = "##### ✔️ File Reviewed [" + (fileIndex + 1) + "/" + totalFiles + "]" + (cached != null ? " (cached)" : "") + "\n\n" + "**File:** `" + displayPath + "` | **Comments:** " + commentCount + "\n\n";
+                sseWriter(emitter).send("file_complete", fileCompleteMsg, fileIndex, file.path);
+                return fileReview;
             } catch (Exception e) {
                 logger.error("Failed to review file. path={}, err={}", file.path, e.toString(), e);
                 // 发送文件审查错误事件
-                Map<String, Object> fileErrorEvent = new HashMap<>();
-                fileErrorEvent.put("file", displayPath);
-                fileErrorEvent.put("error", e.getMessage());
                 try {
                     String fileErrorMsg = "##### ❌ File Review Failed\n\n" + "**File:** `" + displayPath + "`\n" + "**Error:** " + e.getMessage() + "\n\n";
-                    emitter.send(SseEmitter.event().name("file_error").data(buildEmitterPayload(fileErrorMsg)));
+                    sseWriter(emitter).send("file_error", fileErrorMsg, fileIndex, file.path);
                 } catch (IOException ex) {
                     logger.error("Error sending file error event", ex);
                 }
+                return null;
             }
-        }
-
-        // 将 JsonNode 列表转换为 Map 列表
-        List<Map<String, Object>> commentsList = new ArrayList<>();
-        for (JsonNode comment : allComments) {
-            Map<String, Object> commentMap = mapper.convertValue(comment, new TypeReference<>() {
-            });
-            commentsList.add(commentMap);
-        }
+        });
+    }
 
-        // 构建最终的整合结果，包含PR摘要
-        Map<String, Object> mergedReview = new HashMap<>();
-        mergedReview.put("comments", commentsList);
+    private static Exception unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+    }
 
-        // 如果PR摘要存在，将其添加到结果中
-        if (prSummaryJson != null) {
-            JsonNode prSummary = prSummaryJson.get("pr_summary");
-            if (prSummary != null) {
-                // 更新review_summary中的total_comments
-                JsonNode reviewSummary = prSummary.get("review_summary");
-                if (reviewSummary != null) {
-                    Map<String, Object> reviewSummaryMap = mapper.convertValue(reviewSummary, new TypeReference<Map<String, Object>>() {
-                    });
-                    reviewSummaryMap.put("total_comments", allComments.size());
-                    Map<String, Object> prSummaryMap = mapper.convertValue(prSummary, new TypeReference<Map<String, Object>>() {
-                    });
-                    prSummaryMap.put("review_summary", reviewSummaryMap);
-                    mergedReview.put("pr_summary", prSummaryMap);
-                } else {
-                    mergedReview.put("pr_summary", mapper.convertValue(prSummary, new TypeReference<Map<String, Object>>() {
-                    }));
-                }
-            }
+    /**
+     * 生成 PR 快照内容：文件变更连同各文件的审查评论，作为下次增量审查的基线
+     * 快照在审查发布成功后才保存，否则发布失败的评论会在下次审查时被当作已发布而沿用、跳过
+     *
+     * @param files       本次 diff 的文件变更
+     * @param fileReviews 文件路径 -> 审查结果（审查失败的文件不包含在内）
+     */
+    private void prepareSnapshot(List<VCSUtils.FileChanges> files, Map<String, JsonNode> fileReviews, ObjectMapper mapper) {
+        this.pendingSnapshot = null;
+        if ((prSnapshotService == null && reviewOutboxService == null) || files == null || files.isEmpty() || prUrl == null || prUrl.isEmpty()) {
+            return;
         }
-
-        // 记录 RAG Context 的大小，便于后续统计与展示
-        int ragContextSize = ragContext != null ? ragContext.length() : 0;
-        mergedReview.put("rag_context_size", ragContextSize);
-
-        // Send final review results
-        String summaryHeader = "\n---\n\n## 🎉 Review Complete\n\n";
-        emitter.send(SseEmitter.event().name("review_summary").data(buildEmitterPayload(summaryHeader)));
-
-        if (!commentsList.isEmpty()) {
-            String commentsHeader = "### 💬 Detailed Comments (" + commentsList.size() + " items)\n\n";
-            emitter.send(SseEmitter.event().name("review_summary").data(buildEmitterPayload(commentsHeader)));
-
-            for (int idx = 0; idx < commentsList.size(); idx++) {
-                Map<String, Object> comment = commentsList.get(idx);
-                String severity = comment.get("severity") != null ? comment.get("severity").toString() : "info";
-                String severityEmoji = getSeverityEmoji(severity);
-                String commentMsg = "#### " + severityEmoji + " Comment " + (idx + 1) + "\n\n" + "**File:** `" + comment.get("path") + "`\n" + "**Line:** " + comment.get("line") + "\n" + "**Severity:** " + severity + "\n\n" + comment.get("body") + "\n\n";
-                emitter.send(SseEmitter.event().name("review_summary").data(buildEmitterPayload(commentMsg)));
-            }
+        try {
+            this.pendingSnapshot = IncrementalReviewUtils.buildPayload(mapper, files, fileReviews);
+        } catch (Exception e) {
+            logger.warn("Failed to build PR snapshot (streaming). url={}, err={}", prUrl, e.getMessage());
         }
+    }
 
-        logger.info("Completed per-file streaming review. totalFiles={}, totalComments={}", files.size(), allComments.size());
-        String completeMsg = "\n---\n\n✅ **Review Complete** | Files: " + files.size() + " | Comments: " + allComments.size() + "\n\n";
-        emitter.send(SseEmitter.event().name("review_complete").data(buildEmitterPayload(completeMsg)));
-
-        // 将整合后的review结果序列化为JSON字符串并返回
-        String mergedReviewJson = mapper.writeValueAsString(mergedReview);
-        logger.debug("Merged review JSON generated. size={}", mergedReviewJson.length());
-        return mergedReviewJson;
+    /**
+     * 待保存的 PR 快照内容，写入 outbox 后由 worker 在发布完成时保存；未生成时为 null
+     */
+    public Map<String, Object> getPendingSnapshot() {
+        return pendingSnapshot;
     }
 
-    private void persistSnapshotAsync(List<VCSUtils.FileChanges> files) {
-        if (prSnapshotService == null || files == null || files.isEmpty() || prUrl == null || prUrl.isEmpty()) {
+    /**
+     * 审查发布成功后异步保存 PR 快照
+     */
+    private void persistSnapshotAsync() {
+        if (prSnapshotService == null || pendingSnapshot == null) {
             logger.debug("Skip snapshot persistence due to missing dependency or data. url={}", prUrl);
             return;
         }
 
-        List<VCSUtils.FileChanges> snapshotFiles = new ArrayList<>(files);
-        String snapshotUrl = this.prUrl;
-        String snapshotRepo = this.repository;
-        Integer snapshotPrNumber = safeParsePrNumber(this.prNumber);
-        UUID snapshotClient = this.clientIdentifier;
+        PrSnapshot snapshot = PrSnapshot.builder().url(this.prUrl).clientIdentifier(this.clientIdentifier).repoName(this.repository).prNumber(safeParsePrNumber(this.prNumber)).branch(null).fileChanges(pendingSnapshot).build();
+        this.pendingSnapshot = null;
 
         CompletableFuture.runAsync(() -> {
             try {
-                ObjectMapper mapper = new ObjectMapper();
-                Map<String, Object> payload = new HashMap<>();
-                List<Map<String, Object>> filePayload = mapper.convertValue(snapshotFiles, new TypeReference<List<Map<String, Object>>>() {
-                });
-                payload.put("files", filePayload);
-                payload.put("totalFiles", snapshotFiles.size());
-
-                PrSnapshot snapshot = PrSnapshot.builder().url(snapshotUrl).clientIdentifier(snapshotClient).repoName(snapshotRepo).prNumber(snapshotPrNumber).branch(null).fileChanges(payload).build();
-
                 prSnapshotService.createSnapshot(snapshot);
-                logger.info("Persisted PR snapshot asynchronously (streaming). url={}, files={}", snapshotUrl, snapshotFiles.size());
+                logger.info("Persisted PR snapshot asynchronously (streaming). url={}", snapshot.getUrl());
             } catch (Exception e) {
-                logger.warn("Failed to persist PR snapshot (streaming). url={}, err={}", snapshotUrl, e.getMessage(), e);
+                logger.warn("Failed to persist PR snapshot (streaming). url={}, err={}", snapshot.getUrl(), e.getMessage(), e);
             }
-        });
+        }, persistenceExecutor);
     }
 
     private Integer safeParsePrNumber(String raw) {
@@ -481,27 +772,23 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
     }
 
     /**
-     * 生成PR整体摘要
+     * 非阻塞地生成PR整体摘要
      *
-     * @param files          所有文件变更对象列表
-     * @param ragContext     RAG上下文
-     * @param maxPromptChars 最大prompt字符数限制
-     * @return PR摘要的JSON字符串
-     * @throws Exception 如果生成失败
+     * @param files           所有文件变更对象列表
+     * @param ragContext      RAG上下文
+     * @param maxPromptTokens 最大prompt token数，超出时裁剪RAG片段/按hunk切分
+     * @param emitter         SSE 发射器，客户端断开时取消 LLM 调用；为 null 时不关联
+     * @return 以PR摘要的JSON字符串完成
      */
-    private String generatePrSummary(List<VCSUtils.FileChanges> files, String ragContext, int maxPromptChars) throws Exception {
+    private CompletableFuture<String> generatePrSummaryAsync(List<VCSUtils.FileChanges> files, String ragContext, int maxPromptTokens, SseEmitter emitter) {
         ObjectMapper mapper = new ObjectMapper();
 
-        // 将所有文件转换为JSON
-        String structuredJson = mapper.writeValueAsString(files);
-
-        String basePrompt = ReviewPrompts.PR_SUMMARY_PROMPT;
-        // 将占位符替换为结构化 JSON 和 RAG context
-//        String mergedPrompt = basePrompt.replace("<Git diff>", structuredJson).replace("<RAG context>", ragContext != null && !ragContext.isEmpty() ? ragContext : "No additional context available.");
-        String mergedPrompt = basePrompt.replace("<Git diff>", structuredJson).replace("<RAG context>", "No additional context available.");
-
-        if (mergedPrompt.length() > maxPromptChars) {
-            logger.warn("Prompt too large for PR summary. promptSize={}, maxSize={}", mergedPrompt.length(), maxPromptChars);
+        // 将所有文件转换为JSON，按 token 预算打包（摘要暂不使用 RAG context）
+        String mergedPrompt;
+        try {
+            mergedPrompt = new PromptBudgeter(maxPromptTokens).buildPrompt(mapper, ReviewPrompts.PR_SUMMARY_PROMPT, files, null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
         }
 
         logger.debug("Request for PR summary for {} files", files.size());
@@ -513,63 +800,73 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
         // Create prompt with model options
         Prompt prompt = new Prompt(messages, OpenAiChatOptions.builder().model(this.model != null ? this.model : ModelEnum.GPT_4O.getCode()).build());
 
-        // Call ChatClient (non-streaming for summary)
-        org.springframework.ai.chat.model.ChatResponse response = chatClient.prompt(prompt).call().chatResponse();
-        String content = response.getResult().getOutput().getText();
-
-        logger.debug("PR summary response for {} files, contentSize={}", files.size(), content != null ? content.length() : 0);
-
-        return content;
+        // Subscribe to ChatClient stream and collect the summary without blocking
+        return collectContent(prompt, emitter).thenApply(content -> {
+            logger.debug("PR summary response for {} files, contentSize={}", files.size(), content.length());
+            return content;
+        });
     }
 
     /**
-     * 对单个文件进行流式review
+     * 非阻塞地对单个文件进行流式review，客户端断开时取消 LLM 调用
      *
-     * @param file           文件变更对象
-     * @param ragContext     RAG上下文
-     * @param maxPromptChars 最大prompt字符数限制
-     * @param emitter        SSE 发射器
-     * @return review结果的JSON字符串
-     * @throws Exception 如果review失败
+     * @param file            文件变更对象
+     * @param ragContext      RAG上下文
+     * @param maxPromptTokens 最大prompt token数，超出时裁剪RAG片段/按hunk切分
+     * @param emitter         SSE 发射器
+     * @return 以review结果的JSON字符串完成
      */
-    private String reviewSingleFileStreaming(VCSUtils.FileChanges file, String ragContext, int maxPromptChars, SseEmitter emitter) throws Exception {
+    private CompletableFuture<String> reviewSingleFileAsync(VCSUtils.FileChanges file, String ragContext, int maxPromptTokens, SseEmitter emitter) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
 
-        // 将单个文件转换为JSON
-        List<VCSUtils.FileChanges> singleFileList = new ArrayList<>();
-        singleFileList.add(file);
-        String structuredJson = mapper.writeValueAsString(singleFileList);
-
-        String basePrompt = ReviewPrompts.PR_REVIEW_PROMPT;
-        // 将占位符替换为结构化 JSON 和 RAG context
-        String mergedPrompt = basePrompt.replace("<Git diff>", structuredJson).replace("<RAG context>", ragContext != null && !ragContext.isEmpty() ? ragContext : "No additional context available.");
-
-        if (mergedPrompt.length() > maxPromptChars) {
-            logger.warn("Prompt too large for single file. file={}, promptSize={}, maxSize={}", file.path, mergedPrompt.length(), maxPromptChars);
-//            throw new RuntimeException("Prompt too large for file: " + file.path);
+        // 将单个文件转换为JSON，并按 token 预算替换占位符为结构化 JSON 和 RAG context
+        // 文件过大时按 hunk 分组生成多个 prompt，各组并行 review 后合并 comments
+        List<String> mergedPrompts = new PromptBudgeter(maxPromptTokens).buildFilePrompts(mapper, ReviewPrompts.PR_REVIEW_PROMPT, file, ragContext);
+        if (mergedPrompts.size() > 1) {
+            logger.info("File split into hunk groups to fit prompt budget. file={}, groups={}, maxPromptTokens={}", file.path, mergedPrompts.size(), maxPromptTokens);
         }
 
         logger.debug("Request for file: {}", file.path);
 
-        // Build messages for ChatClient
-        List<org.springframework.ai.chat.messages.Message> messages = new ArrayList<>();
-        messages.add(new UserMessage(mergedPrompt));
+        List<CompletableFuture<String>> parts = new ArrayList<>(mergedPrompts.size());
+        for (String mergedPrompt : mergedPrompts) {
+            // Build messages for ChatClient
+            List<org.springframework.ai.chat.messages.Message> messages = new ArrayList<>();
+            messages.add(new UserMessage(mergedPrompt));
 
-        // Create prompt with model options
-        Prompt prompt = new Prompt(messages, OpenAiChatOptions.builder().model(this.model != null ? this.model : ModelEnum.GPT_4O.getCode()).build());
+            // Create prompt with model options
+            Prompt prompt = new Prompt(messages, OpenAiChatOptions.builder().model(this.model != null ? this.model : ModelEnum.GPT_4O.getCode()).build());
 
-        // Call ChatClient with streaming
-        StringBuilder fullResponse = new StringBuilder();
-        chatClient.prompt(prompt).stream().content().doOnNext(chunk -> {
-            fullResponse.append(chunk);
-            // 发送流式内容块
-            // TODO 暂时注释
-            // emitter.send(SseEmitter.event().name("review_chunk").data(buildEmitterPayload(chunk)));
-        }).blockLast();
+            // Call ChatClient with streaming
+            // 发送流式内容块（按帧合并）
+            // TODO 暂时注释，需要时改为 sseWriter(emitter).bridge(flux, "review_chunk", null, file.path)
+            parts.add(collectContent(prompt, emitter));
+        }
 
-        logger.debug("Review response for file: {}, contentSize={}", file.path, fullResponse.length());
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<String> responses = new ArrayList<>(parts.size());
+            for (CompletableFuture<String> part : parts) {
+                responses.add(part.join());
+            }
+            try {
+                String fullResponse = ReviewJsonUtils.mergeReviewParts(mapper, responses);
+                logger.debug("Review response for file: {}, contentSize={}", file.path, fullResponse.length());
+                return fullResponse;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
 
-        return fullResponse.toString();
+    /**
+     * 订阅 ChatClient 的流式输出并拼接为完整文本，不阻塞调用线程
+     */
+    private CompletableFuture<String> collectContent(Prompt prompt, SseEmitter emitter) {
+        Flux<String> content = chatClient.prompt(prompt).stream().content();
+        if (emitter != null) {
+            return sseWriter(emitter).collect(content);
+        }
+        return content.collect(StringBuilder::new, StringBuilder::append).map(StringBuilder::toString).toFuture();
     }
 
     /**
@@ -582,32 +879,56 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
         return review;
     }
 
-    private String buildEmitterPayload(String content) {
-        String safeContent = content != null ? content : "";
-        String safeConversationId = conversationId != null ? conversationId : "";
-        return "{\"content\":\"" + escapeJson(safeContent) + "\",\"conversationId\":\"" + escapeJson(safeConversationId) + "\"}";
-    }
-
-    private String escapeJson(String input) {
-        if (input == null) {
-            return "";
+    /**
+     * 当前 SSE 流的 writer：同一个 emitter 上的所有事件共享序号和写锁
+     */
+    private synchronized SseStreamWriter sseWriter(SseEmitter emitter) {
+        if (this.sseWriter == null || this.sseWriter.getEmitter() != emitter) {
+            this.sseWriter = new SseStreamWriter(emitter, conversationId);
         }
-        return input.replace("\\", "\\\\").replace("\"", "\\\"").replace("\b", "\\b").replace("\f", "\\f").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+        return this.sseWriter;
     }
 
     @Override
     protected String recordCodeReview(String recommend) throws Exception {
         logger.info("Posting review to GitHub PR. repository={}, prNumber={}", this.repository, this.prNumber);
+        JsonNode root = parseReviewJson(recommend);
+        postSummaryComment(root, false);
+        publishInlineComments(root, false);
+        persistSnapshotAsync();
+        return "https://github.com/" + this.repository + "/pull/" + this.prNumber;
+    }
+
+    /**
+     * 发布 PR 总结评论（outbox 分步发布使用）
+     *
+     * @param skipIfPosted 为 true 时 PR 上已有同一总结评论则跳过，用于上次发布中途失败后的重试
+     */
+    public void publishSummaryComment(String reviewJson, boolean skipIfPosted) throws Exception {
+        postSummaryComment(parseReviewJson(reviewJson), skipIfPosted);
+    }
+
+    /**
+     * 发布 inline comments（outbox 分步发布使用）
+     *
+     * @param skipPublishedBatches 为 true 时跳过 PR 上已存在的批次，用于上次发布中途失败后的重试
+     */
+    public void publishInlineComments(String reviewJson, boolean skipPublishedBatches) throws Exception {
+        publishInlineComments(parseReviewJson(reviewJson), skipPublishedBatches);
+    }
+
+    private JsonNode parseReviewJson(String recommend) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
-        String prUrl = "https://github.com/" + this.repository + "/pull/" + this.prNumber;
-        JsonNode root;
         try {
-            root = mapper.readTree(recommend);
+            return mapper.readTree(recommend);
         } catch (Exception parseErr) {
             logger.warn("LLM output is not pure JSON, attempting to extract JSON. err={}", parseErr.toString());
             String cleaned = ReviewJsonUtils.extractJsonPayload(recommend);
-            root = mapper.readTree(cleaned);
+            return mapper.readTree(cleaned);
         }
+    }
+
+    private void postSummaryComment(JsonNode root, boolean skipIfPosted) throws Exception {
         // Build top-level comment from PR summary if available
         StringBuilder topBuilder = new StringBuilder();
         JsonNode prSummary = root.get("pr_summary");
@@ -683,17 +1004,27 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
         }
         topBuilder.append("---\n\nAuthor: @AliasJeff\n");
         String combinedTop = topBuilder.toString();
-        postCommentToGithubPr(combinedTop);
+        String marker = GitHubReviewPublisher.summaryMarker(resolveHeadCommitSha(), combinedTop);
+        if (skipIfPosted && new GitHubReviewPublisher(gitCommand, this.repository, this.prNumber).isSummaryPublished(marker)) {
+            logger.info("PR summary comment already posted, skipping. repo={}, pr={}", this.repository, this.prNumber);
+            return;
+        }
+        postCommentToGithubPr(combinedTop + "\n" + marker);
+    }
 
-        // Inline comments
+    private void publishInlineComments(JsonNode root, boolean skipPublishedBatches) throws Exception {
         JsonNode comments = root.get("comments");
         if (comments != null && comments.isArray() && comments.size() > 0) {
-            String commitSha = gitCommand.getPrHeadCommitSha(this.repository, this.prNumber);
+            String commitSha = resolveHeadCommitSha();
             List<ReviewComment> rankedComments = new ArrayList<>();
             Iterator<JsonNode> it = comments.elements();
             int seq = 0;
             while (it.hasNext()) {
                 JsonNode c = it.next();
+                if (IncrementalReviewUtils.isCarried(c)) {
+                    // 沿用的评论已在上次审查时发布，评论标记随 head SHA 变化，不能依赖幂等标记去重
+                    continue;
+                }
                 String path = ReviewJsonUtils.safeText(c, "path");
                 Integer line = ReviewJsonUtils.safeInt(c, "line");
                 String severity = ReviewJsonUtils.safeText(c, "severity");
@@ -723,19 +1054,17 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
                     fullBody = fullBody + "\n\n" + suggestion + "\n";
                 }
                 int rank = SeverityUtils.severityRank(severity);
-                rankedComments.add(new ReviewComment(new ReviewCommentDetail(path, "RIGHT", line, fullBody), rank, seq++));
+                rankedComments.add(new ReviewComment(new GitHubReviewPublisher.InlineComment(path, "RIGHT", line, fullBody), rank, seq++));
             }
             if (!rankedComments.isEmpty()) {
                 rankedComments.sort((a, b) -> {
                     if (a.rank != b.rank) return Integer.compare(a.rank, b.rank);
                     return Integer.compare(a.index, b.index);
                 });
-                List<ReviewCommentDetail> ordered = new ArrayList<>();
+                List<GitHubReviewPublisher.InlineComment> ordered = new ArrayList<>();
                 for (ReviewComment rc : rankedComments) {
                     ordered.add(rc.comment);
                 }
-                // GitHub API 限制每次请求最多 10 个 inline comments，需要分批发送
-                final int MAX_COMMENTS_PER_BATCH = 10;
                 int totalComments = ordered.size();
 
                 String modelNameForTitle = this.model != null ? this.model : ModelEnum.GPT_4O.getCode();
@@ -743,37 +1072,14 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
                         "AI Code Review inline comments generated by %s (total %d comments). Please verify before merging.", modelNameForTitle, totalComments
                 );
 
-                if (totalComments <= MAX_COMMENTS_PER_BATCH) {
-                    // 单批次场景，直接使用详细说明
-                    createPullRequestReview(commitSha, baseReviewTitle, ordered);
-                } else {
-                    logger.info("Comments count ({}) exceeds batch limit ({}), splitting into batches", totalComments, MAX_COMMENTS_PER_BATCH);
-                    int batchNumber = 1;
-                    int totalBatches = (totalComments + MAX_COMMENTS_PER_BATCH - 1) / MAX_COMMENTS_PER_BATCH;
-                    for (int i = 0; i < ordered.size(); i += MAX_COMMENTS_PER_BATCH) {
-                        int end = Math.min(i + MAX_COMMENTS_PER_BATCH, ordered.size());
-                        List<ReviewCommentDetail> batch = ordered.subList(i, end);
-                        String batchBody = String.format(
-                                "%s [Batch %d/%d, %d comments in this batch]", baseReviewTitle, batchNumber, totalBatches, batch.size()
-                        );
-                        createPullRequestReview(commitSha, batchBody, batch);
-                        logger.info("Sent batch {}/{} with {} comments", batchNumber, totalBatches, batch.size());
-                        batchNumber++;
-                        // 如果不是最后一批，等待 3 秒以避免 API 速率限制
-                        if (batchNumber <= totalBatches) {
-                            try {
-                                Thread.sleep(3000);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                logger.warn("Interrupted while waiting between batches", e);
-                                throw new RuntimeException("Interrupted while waiting between batches", e);
-                            }
-                        }
-                    }
+                // 按 GitHub 速率限制响应头自适应节奏、有界并发地分批发布，失败批次幂等重试
+                GitHubReviewPublisher publisher = new GitHubReviewPublisher(gitCommand, this.repository, this.prNumber);
+                if (skipPublishedBatches) {
+                    publisher.skipPublishedBatches();
                 }
+                publisher.publish(commitSha, baseReviewTitle, ordered);
             }
         }
-        return prUrl;
     }
 
     @Override
@@ -781,10 +1087,102 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
         // TODO: not implemented
     }
 
+    /**
+     * 读取该 PR (url, client_identifier) 上次的快照并生成增量审查计划，没有可用基线时返回空 Map（完整审查）
+     */
+    private Map<String, IncrementalReviewUtils.FilePlan> planIncrementalReview(List<VCSUtils.FileChanges> files, ObjectMapper mapper) {
+        if (!incrementalReview || prSnapshotService == null || prUrl == null || prUrl.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            PrSnapshot previous = prSnapshotService.getSnapshotByUrlAndClientIdentifier(prUrl, clientIdentifier);
+            if (previous == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, IncrementalReviewUtils.FilePlan> plans = IncrementalReviewUtils.plan(mapper, files, previous.getFileChanges());
+            int unchangedFiles = 0;
+            for (IncrementalReviewUtils.FilePlan plan : plans.values()) {
+                if (plan.changedPart == null) {
+                    unchangedFiles++;
+                }
+            }
+            logger.info("Incremental review planned against last snapshot. url={}, files={}, baselineFiles={}, unchangedFiles={}", prUrl, files.size(), plans.size(), unchangedFiles);
+            return plans;
+        } catch (Exception e) {
+            logger.warn("Failed to load last PR snapshot, falling back to full review. url={}, err={}", prUrl, e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * 计算文件审查结果的缓存 key，未配置缓存或计算失败时返回 null（不使用缓存）
+     */
+    private String reviewCacheKey(ObjectMapper mapper, VCSUtils.FileChanges file) {
+        if (reviewCacheService == null) {
+            return null;
+        }
+        try {
+            return ReviewPrompts.reviewCacheKey(mapper, this.model, file);
+        } catch (Exception e) {
+            logger.warn("Failed to compute review cache key. file={}, err={}", file.path, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 读取已缓存的文件审查结果，未命中时返回 null
+     */
+    private JsonNode getCachedFileReview(String cacheKey, ObjectMapper mapper) {
+        if (cacheKey == null) {
+            return null;
+        }
+        Map<String, Object> cached = reviewCacheService.getReview(cacheKey);
+        return cached != null ? mapper.valueToTree(cached) : null;
+    }
+
+    /**
+     * 在持久化线程池中写入文件审查结果缓存
+     */
+    private void cacheFileReviewAsync(String cacheKey, VCSUtils.FileChanges file, JsonNode fileReview, ObjectMapper mapper) {
+        if (cacheKey == null || fileReview == null || !fileReview.isObject()) {
+            return;
+        }
+        Map<String, Object> review = mapper.convertValue(fileReview, new TypeReference<Map<String, Object>>() {
+        });
+        ReviewCacheEntry entry = ReviewCacheEntry.builder().cacheKey(cacheKey).model(this.model).promptVersion(ReviewPrompts.PR_REVIEW_PROMPT_VERSION).filePath(file.path).review(review).build();
+        CompletableFuture.runAsync(() -> reviewCacheService.putReview(entry), persistenceExecutor);
+    }
+
+    /**
+     * 为每个文件获取各自的 RAG 上下文：一次批量请求按文件检索，失败时退回对全部变更行的检索结果
+     *
+     * @param files 变更文件
+     * @return 文件路径 -> RAG context，按文件顺序排列
+     */
+    private Map<String, String> getRagContextPerFile(List<VCSUtils.FileChanges> files) {
+        Map<String, String> contexts = null;
+        if (this.perFileRag && this.repository != null && !this.repository.isEmpty()) {
+            contexts = ChatUtils.getRagContextPerFile(files, this.repository, ChatUtils.DEFAULT_RAG_TOP_K);
+        }
+
+        Map<String, String> ordered = new LinkedHashMap<>();
+        if (contexts == null) {
+            String ragContext = getRagContext(ChatUtils.toRagQuery(files));
+            for (VCSUtils.FileChanges file : files) {
+                ordered.put(file.path, ragContext);
+            }
+            return ordered;
+        }
+        for (VCSUtils.FileChanges file : files) {
+            ordered.put(file.path, contexts.getOrDefault(file.path, ""));
+        }
+        return ordered;
+    }
+
     /**
      * 从 RAG 服务获取代码上下文
      *
-     * @param code 代码内容（原始diff文本）
+     * @param code 代码内容（变更行文本）
      * @return RAG context 字符串
      */
     private String getRagContext(String code) {
@@ -802,13 +1200,26 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
         return ragContext;
     }
 
+    /**
+     * 获取 PR head commit SHA，优先复用 getDiffCode 阶段并发发起的请求
+     */
+    private String resolveHeadCommitSha() throws IOException {
+        if (this.headCommitShaFuture != null) {
+            try {
+                return GitHubClient.await(this.headCommitShaFuture);
+            } catch (Exception e) {
+                logger.warn("Prefetched head commit SHA unavailable, fetching again. err={}", e.toString());
+            }
+        }
+        return gitCommand.getPrHeadCommitSha(this.repository, this.prNumber);
+    }
+
     private String postCommentToGithubPr(String body) throws Exception {
         String repo = this.repository;
-        String token = AppConfig.getInstance().requireString("github", "token");
         if (repo == null || repo.isEmpty()) {
             throw new RuntimeException("GITHUB_REPOSITORY is empty");
         }
-        if (token == null || token.isEmpty()) {
+        if (!gitCommand.hasToken()) {
             throw new RuntimeException("GITHUB_TOKEN is empty");
         }
 
@@ -816,77 +1227,15 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
             throw new RuntimeException("GITHUB_PR_NUMBER is empty and cannot be inferred from GITHUB_EVENT_PATH");
         }
 
-        String api = "https://api.github.com/repos/" + repo + "/issues/" + this.prNumber + "/comments";
+        String api = GitHubClient.API_BASE_URL + "/repos/" + repo + "/issues/" + this.prNumber + "/comments";
         String payload = "{\"body\":" + ReviewJsonUtils.toJsonString(body) + "}";
 
         logger.info("Posting comment to GitHub. api={}, repo={}, pr={}", api, repo, this.prNumber);
-        URL url = new URL(api);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + token);
-        conn.setRequestProperty("Accept", "application/vnd.github+json");
-        conn.setRequestProperty("User-Agent", "alias-openai-code-review");
-        conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-        conn.setDoOutput(true);
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(payload.getBytes(StandardCharsets.UTF_8));
-        }
-        int code = conn.getResponseCode();
-        if (code / 100 != 2) {
-            String errMsg = IoUtils.readStreamSafely(conn.getErrorStream());
-            throw new RuntimeException("GitHub comment failed, code=" + code + ", err=" + errMsg);
-        }
-        logger.info("Comment posted to GitHub PR successfully. code={}, url=https://github.com/{}/pull/{}", code, repo, this.prNumber);
+        gitCommand.postIssueComment(repo, this.prNumber, payload);
+        logger.info("Comment posted to GitHub PR successfully. url=https://github.com/{}/pull/{}", repo, this.prNumber);
         return "https://github.com/" + repo + "/pull/" + this.prNumber;
     }
 
-    private void createPullRequestReview(String commitSha, String body, List<ReviewCommentDetail> comments) throws Exception {
-        String repo = this.repository;
-        String token = AppConfig.getInstance().requireString("github", "token");
-        if (repo == null || repo.isEmpty()) {
-            throw new RuntimeException("GITHUB_REPOSITORY is empty");
-        }
-        if (token.isEmpty()) {
-            throw new RuntimeException("GITHUB_TOKEN is empty");
-        }
-        if (this.prNumber == null || this.prNumber.isEmpty()) {
-            throw new RuntimeException("GITHUB_PR_NUMBER is empty");
-        }
-        String api = "https://api.github.com/repos/" + repo + "/pulls/" + this.prNumber + "/reviews";
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"commit_id\":").append(ReviewJsonUtils.toJsonString(commitSha)).append(",");
-        sb.append("\"body\":").append(ReviewJsonUtils.toJsonString(body)).append(",");
-        sb.append("\"event\":\"COMMENT\",");
-        sb.append("\"comments\":[");
-        for (int i = 0; i < comments.size(); i++) {
-            ReviewCommentDetail c = comments.get(i);
-            sb.append("{").append("\"path\":").append(ReviewJsonUtils.toJsonString(c.path)).append(",").append("\"side\":").append(ReviewJsonUtils.toJsonString(c.side)).append(",").append("\"line\":").append(c.line).append(",").append("\"body\":").append(ReviewJsonUtils.toJsonString(c.body)).append("}");
-            if (i < comments.size() - 1) sb.append(",");
-        }
-        sb.append("]}");
-        String payload = sb.toString();
-
-        logger.info("Creating PR review with {} comments. api={}", comments.size(), api);
-        URL url = new URL(api);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + token);
-        conn.setRequestProperty("Accept", "application/vnd.github+json");
-        conn.setRequestProperty("User-Agent", "alias-openai-code-review");
-        conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-        conn.setDoOutput(true);
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(payload.getBytes(StandardCharsets.UTF_8));
-        }
-        int code = conn.getResponseCode();
-        if (code / 100 != 2) {
-            String errMsg = IoUtils.readStreamSafely(conn.getErrorStream());
-            throw new RuntimeException("Create PR review failed, code=" + code + ", err=" + errMsg);
-        }
-        logger.info("PR review created successfully. code={}", code);
-    }
-
     private String getSeverityEmoji(String severity) {
         if (severity == null) return "🔎";
         String lower = severity.toLowerCase();
@@ -917,11 +1266,27 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
     }
 
     /**
-     * 保存 review 结果到数据库
+     * 保存 review 结果到数据库，失败只记录日志
      *
      * @param reviewJson review 结果的 JSON 字符串
      */
     private void saveReviewMessage(String reviewJson) {
+        try {
+            publishReviewMessage(reviewJson);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid conversationId format, skipping message save. conversationId={}, err={}", conversationId, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Failed to save review message to database. conversationId={}, err={}", conversationId, e.getMessage(), e);
+            // 不抛出异常，避免影响主流程
+        }
+    }
+
+    /**
+     * 保存 review 结果到数据库，失败时抛出异常（outbox 分步发布使用，由调用方决定是否重试）
+     *
+     * @param reviewJson review 结果的 JSON 字符串
+     */
+    public void publishReviewMessage(String reviewJson) {
         if (messageService == null) {
             logger.debug("MessageService is not available, skipping message save");
             return;
@@ -932,147 +1297,126 @@ public class ReviewPullRequestStreamingService extends AbstractOpenAiCodeReviewS
             return;
         }
 
-        try {
-            UUID conversationUuid = UUID.fromString(conversationId);
+        UUID conversationUuid = UUID.fromString(conversationId);
 
-            // 构建 message 内容，包含 review 摘要信息
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode reviewNode;
-            try {
-                reviewNode = mapper.readTree(reviewJson);
-            } catch (Exception e) {
-                logger.warn("Failed to parse review JSON for message, using raw content. err={}", e.toString());
-                reviewNode = null;
-            }
+        // 构建 message 内容，包含 review 摘要信息
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode reviewNode;
+        try {
+            reviewNode = mapper.readTree(reviewJson);
+        } catch (Exception e) {
+            logger.warn("Failed to parse review JSON for message, using raw content. err={}", e.toString());
+            reviewNode = null;
+        }
 
-            StringBuilder contentBuilder = new StringBuilder();
-            if (reviewNode != null) {
-                // 从PR摘要中获取信息
-                JsonNode prSummary = reviewNode.get("pr_summary");
-                if (prSummary != null) {
-                    String title = ReviewJsonUtils.safeText(prSummary, "title");
-                    String description = ReviewJsonUtils.safeText(prSummary, "description");
-                    if (title != null && !title.isEmpty()) {
-                        contentBuilder.append("### PR Title: ").append(title).append("\n\n");
-                    }
-                    if (description != null && !description.isEmpty()) {
-                        contentBuilder.append("### PR Description\n\n").append(description).append("\n\n");
-                    }
+        StringBuilder contentBuilder = new StringBuilder();
+        if (reviewNode != null) {
+            // 从PR摘要中获取信息
+            JsonNode prSummary = reviewNode.get("pr_summary");
+            if (prSummary != null) {
+                String title = ReviewJsonUtils.safeText(prSummary, "title");
+                String description = ReviewJsonUtils.safeText(prSummary, "description");
+                if (title != null && !title.isEmpty()) {
+                    contentBuilder.append("### PR Title: ").append(title).append("\n\n");
+                }
+                if (description != null && !description.isEmpty()) {
+                    contentBuilder.append("### PR Description\n\n").append(description).append("\n\n");
+                }
 
-                    // 追加 Key Changes
-                    JsonNode keyChanges = prSummary.get("key_changes");
-                    if (keyChanges != null && keyChanges.isArray() && keyChanges.size() > 0) {
-                        contentBuilder.append("### Key Changes\n\n");
-                        for (int i = 0; i < keyChanges.size(); i++) {
-                            String change = keyChanges.get(i).asText();
-                            if (change != null && !change.isEmpty()) {
-                                contentBuilder.append("- ").append(change).append("\n");
-                            }
+                // 追加 Key Changes
+                JsonNode keyChanges = prSummary.get("key_changes");
+                if (keyChanges != null && keyChanges.isArray() && keyChanges.size() > 0) {
+                    contentBuilder.append("### Key Changes\n\n");
+                    for (int i = 0; i < keyChanges.size(); i++) {
+                        String change = keyChanges.get(i).asText();
+                        if (change != null && !change.isEmpty()) {
+                            contentBuilder.append("- ").append(change).append("\n");
                         }
-                        contentBuilder.append("\n");
                     }
+                    contentBuilder.append("\n");
+                }
 
-                    // 追加 Review Summary
-                    JsonNode reviewSummary = prSummary.get("review_summary");
-                    if (reviewSummary != null && reviewSummary.isObject()) {
-                        Integer totalFilesReviewed = ReviewJsonUtils.safeInt(reviewSummary, "total_files_reviewed");
-                        Integer totalCommentsInSummary = ReviewJsonUtils.safeInt(reviewSummary, "total_comments");
+                // 追加 Review Summary
+                JsonNode reviewSummary = prSummary.get("review_summary");
+                if (reviewSummary != null && reviewSummary.isObject()) {
+                    Integer totalFilesReviewed = ReviewJsonUtils.safeInt(reviewSummary, "total_files_reviewed");
+                    Integer totalCommentsInSummary = ReviewJsonUtils.safeInt(reviewSummary, "total_comments");
 
-                        if (totalFilesReviewed != null || totalCommentsInSummary != null) {
-                            contentBuilder.append("### Review Summary\n\n");
-                            if (totalFilesReviewed != null) {
-                                contentBuilder.append("- Total Files Reviewed: ").append(totalFilesReviewed).append("\n");
-                            }
-                            if (totalCommentsInSummary != null) {
-                                contentBuilder.append("- Total Comments: ").append(totalCommentsInSummary).append("\n");
-                            }
-                            contentBuilder.append("\n");
+                    if (totalFilesReviewed != null || totalCommentsInSummary != null) {
+                        contentBuilder.append("### Review Summary\n\n");
+                        if (totalFilesReviewed != null) {
+                            contentBuilder.append("- Total Files Reviewed: ").append(totalFilesReviewed).append("\n");
+                        }
+                        if (totalCommentsInSummary != null) {
+                            contentBuilder.append("- Total Comments: ").append(totalCommentsInSummary).append("\n");
                         }
+                        contentBuilder.append("\n");
                     }
                 }
+            }
 
-                // 追加 RAG Context 大小信息
-                JsonNode ragContextSizeNode = reviewNode.get("rag_context_size");
-                if (ragContextSizeNode != null && ragContextSizeNode.isInt()) {
-                    int ragContextSize = ragContextSizeNode.asInt();
-                    contentBuilder.append("### RAG Context\n\n").append("- Size: ").append(ragContextSize).append(" characters\n\n");
-                }
+            // 追加 RAG Context 大小信息
+            JsonNode ragContextSizeNode = reviewNode.get("rag_context_size");
+            if (ragContextSizeNode != null && ragContextSizeNode.isInt()) {
+                int ragContextSize = ragContextSizeNode.asInt();
+                contentBuilder.append("### RAG Context\n\n").append("- Size: ").append(ragContextSize).append(" characters\n\n");
+            }
 
-                // 添加评论数量及详细信息
-                JsonNode comments = reviewNode.get("comments");
-                if (comments != null && comments.isArray()) {
-                    contentBuilder.append("### Comments: ").append(comments.size()).append(" items\n\n");
-                    for (int idx = 0; idx < comments.size(); idx++) {
-                        JsonNode comment = comments.get(idx);
-                        String severity = ReviewJsonUtils.safeText(comment, "severity");
-                        String severityEmoji = getSeverityEmoji(severity);
-                        String path = ReviewJsonUtils.safeText(comment, "path");
-                        Integer line = ReviewJsonUtils.safeInt(comment, "line");
-                        String body = ReviewJsonUtils.safeText(comment, "body");
-
-                        contentBuilder.append("#### ").append(severityEmoji).append(" Comment ").append(idx + 1).append("\n\n");
-
-                        if (path != null && !path.isEmpty()) {
-                            contentBuilder.append("**File:** `").append(path).append("`\n");
-                        }
-                        if (line != null && line > 0) {
-                            contentBuilder.append("**Line:** ").append(line).append("\n");
-                        }
-                        if (severity != null && !severity.isEmpty()) {
-                            contentBuilder.append("**Severity:** ").append(severity).append("\n\n");
-                        } else {
-                            contentBuilder.append("\n");
-                        }
-                        if (body != null && !body.isEmpty()) {
-                            contentBuilder.append(body).append("\n\n");
-                        }
+            // 添加评论数量及详细信息
+            JsonNode comments = reviewNode.get("comments");
+            if (comments != null && comments.isArray()) {
+                contentBuilder.append("### Comments: ").append(comments.size()).append(" items\n\n");
+                for (int idx = 0; idx < comments.size(); idx++) {
+                    JsonNode comment = comments.get(idx);
+                    String severity = ReviewJsonUtils.safeText(comment, "severity");
+                    String severityEmoji = getSeverityEmoji(severity);
+                    String path = ReviewJsonUtils.safeText(comment, "path");
+                    Integer line = ReviewJsonUtils.safeInt(comment, "line");
+                    String body = ReviewJsonUtils.safeText(comment, "body");
+
+                    contentBuilder.append("#### ").append(severityEmoji).append(" Comment ").append(idx + 1).append("\n\n");
+
+                    if (path != null && !path.isEmpty()) {
+                        contentBuilder.append("**File:** `").append(path).append("`\n");
+                    }
+                    if (line != null && line > 0) {
+                        contentBuilder.append("**Line:** ").append(line).append("\n");
+                    }
+                    if (severity != null && !severity.isEmpty()) {
+                        contentBuilder.append("**Severity:** ").append(severity).append("\n\n");
+                    } else {
+                        contentBuilder.append("\n");
+                    }
+                    if (body != null && !body.isEmpty()) {
+                        contentBuilder.append(body).append("\n\n");
                     }
                 }
-            } else {
-                // 如果无法解析 JSON，使用原始内容
-                contentBuilder.append(reviewJson);
             }
+        } else {
+            // 如果无法解析 JSON，使用原始内容
+            contentBuilder.append(reviewJson);
+        }
 
-            // 构建 metadata
-            Map<String, Object> metadata = new HashMap<>();
-            metadata.put("pr_url", this.prUrl);
-            metadata.put("repository", this.repository);
-            metadata.put("pr_number", this.prNumber);
-            metadata.put("model", this.model);
-
-            // 创建并保存 message
-            Message message = Message.builder().conversationId(conversationUuid).role("assistant").type("code_review").content(contentBuilder.toString()).metadata(metadata).build();
+        // 构建 metadata
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("pr_url", this.prUrl);
+        metadata.put("repository", this.repository);
+        metadata.put("pr_number", this.prNumber);
+        metadata.put("model", this.model);
 
-            messageService.createMessage(message);
-            logger.info("Review message saved to database. conversationId={}", conversationId);
-        } catch (IllegalArgumentException e) {
-            logger.warn("Invalid conversationId format, skipping message save. conversationId={}, err={}", conversationId, e.getMessage());
-        } catch (Exception e) {
-            logger.error("Failed to save review message to database. conversationId={}, err={}", conversationId, e.getMessage(), e);
-            // 不抛出异常，避免影响主流程
-        }
-    }
+        // 创建并保存 message
+        Message message = Message.builder().conversationId(conversationUuid).role("assistant").type("code_review").content(contentBuilder.toString()).metadata(metadata).build();
 
-    private static final class ReviewCommentDetail {
-        final String path;
-        final String side; // "RIGHT" or "LEFT"
-        final int line;
-        final String body;
-
-        ReviewCommentDetail(String path, String side, int line, String body) {
-            this.path = path;
-            this.side = side;
-            this.line = line;
-            this.body = body;
-        }
+        messageService.createMessage(message);
+        logger.info("Review message saved to database. conversationId={}", conversationId);
     }
 
     private static final class ReviewComment {
-        final ReviewCommentDetail comment;
+        final GitHubReviewPublisher.InlineComment comment;
         final int rank;
         final int index;
 
-        ReviewComment(ReviewCommentDetail comment, int rank, int index) {
+        ReviewComment(GitHubReviewPublisher.InlineComment comment, int rank, int index) {
             this.comment = comment;
             this.rank = rank;
             this.index = index;
@@ -1,13 +1,19 @@
 package com.alias.domain.utils;
 
 import com.alias.config.AppConfig;
+import com.alias.domain.model.ChatContext;
 import com.alias.domain.model.ChatRequest;
 import com.alias.domain.model.ChatResponse;
 import com.alias.domain.service.IAiConversationService;
+import com.alias.domain.service.impl.ConversationHistorySummarizer;
 import com.alias.utils.IoUtils;
 import com.alias.utils.ReviewJsonUtils;
+import com.alias.utils.VCSUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import lombok.Getter;
 import lombok.Setter;
 import org.slf4j.Logger;
@@ -17,9 +23,18 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Chat utility class for intent detection and RAG context retrieval
@@ -54,28 +69,132 @@ public class ChatUtils {
     }
 
     /**
-     * Detect user intent from message using AI
+     * -- SETTER --
+     * Set the history summarizer used to encode conversation context for intent prompts
+     * Defaults to a summarizer without rolling summaries
+     *
+     * @param summarizer the history summarizer instance
+     */
+    @Setter
+    private static ConversationHistorySummarizer historySummarizer = new ConversationHistorySummarizer();
+
+    // RAG 服务在片段之间使用的分隔符
+    private static final String RAG_DOCUMENT_SEPARATOR = "\n---\n";
+
+    /**
+     * 按文件检索时每个文件返回的片段数
+     */
+    public static final int DEFAULT_RAG_TOP_K = 6;
+
+    // 单个文件 RAG 查询文本的上限，大文件（生成代码、lockfile）只取前面的变更行
+    public static final int RAG_QUERY_MAX_CHARS_PER_FILE = 4000;
+
+    // 直接传入历史文本时只取末尾这一段
+    private static final int INTENT_HISTORY_MAX_CHARS = 4000;
+
+    /**
+     * AI 意图分类结果缓存：key 为归一化后的消息 + 最近几轮对话的摘要，相同问题在相同上下文下不再重复调用模型
+     */
+    private static final Cache<String, IntentType> INTENT_CACHE = CacheBuilder.newBuilder().maximumSize(2000).expireAfterWrite(30, TimeUnit.MINUTES).build();
+
+    private static final Pattern PR_URL_PATTERN = Pattern.compile("github\\.com/[^/\\s]+/[^/\\s]+/pull/\\d+");
+    private static final Pattern DIFF_PATTERN = Pattern.compile("(?m)^(diff --git |@@ -\\d+)");
+    private static final Pattern REVIEW_REQUEST_PATTERN = Pattern.compile("\\b(code review|pr review|review (this|the|my) (pr|pull request|diff|code|change|changes|commit))\\b|代码审查|代码评审|审查(一下)?(这个|该)?\\s*pr|review\\s*一下");
+    private static final Pattern GREETING_PATTERN = Pattern.compile("^(hi|hello|hey|thanks|thank you|thx|ok|okay|good (morning|afternoon|evening)|你好|您好|谢谢|多谢|好的|嗯)[\\s!！.。~]*$");
+    private static final Pattern FOLLOWUP_REFERENCE_PATTERN = Pattern.compile("\\b(that|this|your) (line|comment|suggestion|issue|fix|change)\\b|\\bthe (above|previous) (comment|suggestion|review)\\b|上面的|刚才的|这条建议|这个建议|这个问题");
+    private static final Pattern REVIEW_HINT_PATTERN = Pattern.compile("\\b(review|diff|commit|check|analy[sz]e|quality|bug|issue|error|security|performance|optimi[sz]ation|refactor|best practice)\\b|审查|评审|漏洞|性能|重构");
+    private static final Pattern FOLLOWUP_HINT_PATTERN = Pattern.compile("\\b(why|explain|how|what about|what if|more detail|can you|could you|should i|is this)\\b|为什么|解释|怎么|如何");
+
+    /**
+     * Detect user intent from message
      * - CODE_REVIEW: user asks for code review or mentions PR/diff
      * - REVIEW_FOLLOWUP: user follows up on previous review results
      * - GENERAL_CHAT: general questions or discussions
+     * <p>
+     * 两级判断：本地规则能高置信度判断的直接返回；剩余的模糊消息先查缓存，未命中才调用模型
      *
      * @param message             user message
      * @param conversationHistory conversation history (optional, for context)
      * @return detected intent type
      */
     public static IntentType detectIntent(String message, String conversationHistory) {
+        String recentHistory = conversationHistory == null ? "" : conversationHistory.length() > INTENT_HISTORY_MAX_CHARS ? conversationHistory.substring(conversationHistory.length() - INTENT_HISTORY_MAX_CHARS) : conversationHistory;
+        return detectIntentCached(message, recentHistory);
+    }
+
+    /**
+     * Detect user intent using a compact, token-bounded encoding of the conversation
+     * 当前消息如果已写入上下文（作为最后一条 user 消息），不会重复计入历史
+     *
+     * @param message user message
+     * @param context conversation context (optional)
+     * @return detected intent type
+     */
+    public static IntentType detectIntent(String message, ChatContext context) {
+        return detectIntentCached(message, historySummarizer.summarize(context, message));
+    }
+
+    private static IntentType detectIntentCached(String message, String recentHistory) {
         if (message == null || message.isEmpty()) {
             return IntentType.GENERAL_CHAT;
         }
 
+        // 第一级：本地规则
+        IntentType local = classifyLocally(message, !recentHistory.isEmpty());
+        if (local != null) {
+            logger.debug("Intent resolved locally: {}", local.getValue());
+            return local;
+        }
+
+        // 第二级：AI 分类结果缓存
+        String cacheKey = normalizeMessage(message) + "|" + Hashing.sha256().hashString(recentHistory, StandardCharsets.UTF_8);
+        IntentType cached = INTENT_CACHE.getIfPresent(cacheKey);
+        if (cached != null) {
+            logger.debug("Intent resolved from cache: {}", cached.getValue());
+            return cached;
+        }
+
         try {
             // Use AI to detect intent if OpenAI client is available
-            return detectIntentWithAI(message, conversationHistory);
+            IntentType intent = detectIntentWithAI(message, recentHistory);
+            INTENT_CACHE.put(cacheKey, intent);
+            return intent;
         } catch (Exception e) {
             logger.warn("Failed to detect intent with AI, falling back to keyword matching. error={}", e.getMessage());
         }
 
-        return detectIntentWithKeywords(message, conversationHistory);
+        return detectIntentWithKeywords(message, recentHistory);
+    }
+
+    /**
+     * 本地快速分类，仅对高置信度的情况给出结果
+     *
+     * @return 意图类型，无法确定时返回 null
+     */
+    private static IntentType classifyLocally(String message, boolean hasHistory) {
+        if (PR_URL_PATTERN.matcher(message).find() || DIFF_PATTERN.matcher(message).find()) {
+            return IntentType.CODE_REVIEW;
+        }
+
+        String lowerMessage = normalizeMessage(message);
+        if (REVIEW_REQUEST_PATTERN.matcher(lowerMessage).find()) {
+            return IntentType.CODE_REVIEW;
+        }
+        if (GREETING_PATTERN.matcher(lowerMessage).matches()) {
+            return IntentType.GENERAL_CHAT;
+        }
+        if (!hasHistory) {
+            // 没有历史就不存在追问；也没有任何审查相关词时可以确定是普通对话
+            return REVIEW_HINT_PATTERN.matcher(lowerMessage).find() ? null : IntentType.GENERAL_CHAT;
+        }
+        if (FOLLOWUP_REFERENCE_PATTERN.matcher(lowerMessage).find()) {
+            return IntentType.REVIEW_FOLLOWUP;
+        }
+        return null;
+    }
+
+    private static String normalizeMessage(String message) {
+        return message.trim().toLowerCase().replaceAll("\\s+", " ");
     }
 
     /**
@@ -127,30 +246,16 @@ public class ChatUtils {
      * @return detected intent type
      */
     private static IntentType detectIntentWithKeywords(String message, String conversationHistory) {
-        String lowerMessage = message.toLowerCase();
-
-        // Keywords for code review intent
-        String[] reviewKeywords = {"review", "code review", "pr review", "pull request", "diff", "commit", "check", "analyze", "quality", "bug", "issue", "error", "security", "performance", "optimization", "refactor", "best practice"
-        };
+        String lowerMessage = normalizeMessage(message);
 
-        // Keywords for review followup intent
-        String[] followupKeywords = {"why", "explain", "how", "what about", "what if", "more detail", "can you", "could you", "should i", "is this", "that line", "that code", "that part", "that comment", "that suggestion"
-        };
-
-        // Check for code review keywords
-        for (String keyword : reviewKeywords) {
-            if (lowerMessage.contains(keyword)) {
-                return IntentType.CODE_REVIEW;
-            }
+        // Check for code review keywords (whole words, so "show" does not match "how")
+        if (REVIEW_HINT_PATTERN.matcher(lowerMessage).find()) {
+            return IntentType.CODE_REVIEW;
         }
 
         // Check for followup keywords and if there's conversation history
-        if (conversationHistory != null && !conversationHistory.isEmpty()) {
-            for (String keyword : followupKeywords) {
-                if (lowerMessage.contains(keyword)) {
-                    return IntentType.REVIEW_FOLLOWUP;
-                }
-            }
+        if (conversationHistory != null && !conversationHistory.isEmpty() && (FOLLOWUP_HINT_PATTERN.matcher(lowerMessage).find() || FOLLOWUP_REFERENCE_PATTERN.matcher(lowerMessage).find())) {
+            return IntentType.REVIEW_FOLLOWUP;
         }
 
         return IntentType.GENERAL_CHAT;
@@ -190,9 +295,6 @@ public class ChatUtils {
                 return "";
             }
 
-            // Build RAG API URL
-            String apiUrl = ragBaseUrl + "/review-context";
-
             logger.info("Calling RAG API to get context. repoName={}, messageSize={}", repoName, message.length());
 
             // Build request body JSON
@@ -202,43 +304,10 @@ public class ChatUtils {
             requestMap.put("repoUrl", "https://github.com/" + repository);
             requestMap.put("branch", "main");
             requestMap.put("code", message);
-            String requestBody = mapper.writeValueAsString(requestMap);
-
-            URL url = new URL(apiUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setDoOutput(true);
-            conn.setConnectTimeout(0);
-            conn.setReadTimeout(0);
-
-            // Send request body
-            try (OutputStream os = conn.getOutputStream()) {
-                os.write(requestBody.getBytes(StandardCharsets.UTF_8));
-            }
-
-            int httpCode = conn.getResponseCode();
-            if (httpCode / 100 != 2) {
-                String errMsg = IoUtils.readStreamSafely(conn.getErrorStream());
-                logger.warn("RAG API call failed, code={}, err={}", httpCode, errMsg);
-                return "";
-            }
-
-            // Parse response
-            String responseBody = IoUtils.readStreamSafely(conn.getInputStream());
-            JsonNode root = mapper.readTree(responseBody);
-
-            // Check response code
-            String responseCode = ReviewJsonUtils.safeText(root, "code");
-            if (!"0000".equals(responseCode)) {
-                String info = ReviewJsonUtils.safeText(root, "info");
-                logger.warn("RAG API returned non-success code: {}, info: {}", responseCode, info);
-                return "";
-            }
 
             // Extract data field
-            String context = ReviewJsonUtils.safeText(root, "data");
+            JsonNode data = callRagApi(ragBaseUrl + "/review-context", requestMap, mapper);
+            String context = data != null && !data.isNull() ? data.asText() : null;
             if (context == null || context.isEmpty()) {
                 logger.warn("RAG API returned empty context");
                 return "";
@@ -253,6 +322,180 @@ public class ChatUtils {
         }
     }
 
+    /**
+     * Get RAG context for each changed file in one batched call
+     * 每个文件只携带与自身变更相关的片段，片段按得分降序，以 "---" 分隔
+     *
+     * @param files      changed files of the PR
+     * @param repository repository name (owner/repo format)
+     * @param topK       snippets per file
+     * @return file path -> RAG context; null if the call failed or is not configured, so callers can fall back to PR-wide context
+     */
+    public static Map<String, String> getRagContextPerFile(List<VCSUtils.FileChanges> files, String repository, int topK) {
+        if (files == null || files.isEmpty() || repository == null || repository.isEmpty()) {
+            return null;
+        }
+
+        try {
+            String repoName = extractRepoName(repository);
+            String ragBaseUrl = AppConfig.getInstance().getString("rag", "apiBaseUrl");
+            if (repoName == null || repoName.isEmpty() || ragBaseUrl == null || ragBaseUrl.isEmpty()) {
+                logger.warn("RAG API base URL or repoName is not configured. repository={}", repository);
+                return null;
+            }
+
+            // 每个文件以其变更行作为查询
+            List<Map<String, Object>> fileQueries = new ArrayList<>(files.size());
+            for (VCSUtils.FileChanges file : files) {
+                Map<String, Object> query = new HashMap<>();
+                query.put("path", file.path);
+                query.put("code", toRagQuery(file));
+                fileQueries.add(query);
+            }
+
+            ObjectMapper mapper = new ObjectMapper();
+            Map<String, Object> requestMap = new HashMap<>();
+            requestMap.put("repoName", repoName);
+            requestMap.put("repoUrl", "https://github.com/" + repository);
+            requestMap.put("branch", "main");
+            requestMap.put("files", fileQueries);
+            requestMap.put("topK", topK);
+
+            logger.info("Calling RAG API to get per-file context. repoName={}, files={}, topK={}", repoName, files.size(), topK);
+            JsonNode data = callRagApi(ragBaseUrl + "/review-context-files", requestMap, mapper);
+            if (data == null || !data.isObject()) {
+                return null;
+            }
+
+            Map<String, String> contexts = new HashMap<>();
+            int totalSize = 0;
+            Iterator<Map.Entry<String, JsonNode>> it = data.fields();
+            while (it.hasNext()) {
+                Map.Entry<String, JsonNode> entry = it.next();
+                List<String> snippets = new ArrayList<>();
+                for (JsonNode snippet : entry.getValue()) {
+                    String content = ReviewJsonUtils.safeText(snippet, "content");
+                    if (content != null) {
+                        snippets.add(content);
+                    }
+                }
+                String context = String.join(RAG_DOCUMENT_SEPARATOR, snippets);
+                totalSize += context.length();
+                contexts.put(entry.getKey(), context);
+            }
+
+            logger.info("Successfully retrieved per-file RAG context. files={}, totalContextSize={}", contexts.size(), totalSize);
+            return contexts;
+        } catch (Exception e) {
+            logger.error("Failed to get per-file RAG context. error={}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Build the RAG query text of one file from its changed lines, capped at {@link #RAG_QUERY_MAX_CHARS_PER_FILE}
+     *
+     * @param file changed file
+     * @return query text
+     */
+    public static String toRagQuery(VCSUtils.FileChanges file) {
+        StringBuilder code = new StringBuilder();
+        for (VCSUtils.Change change : file.changes) {
+            if (code.length() + change.content.length() + 1 > RAG_QUERY_MAX_CHARS_PER_FILE) {
+                if (code.length() == 0) {
+                    code.append(change.content, 0, RAG_QUERY_MAX_CHARS_PER_FILE - 1).append('\n');
+                }
+                break;
+            }
+            code.append(change.content).append('\n');
+        }
+        return code.toString();
+    }
+
+    /**
+     * Build a PR-wide RAG query from the changed lines of all files, used when per-file retrieval is unavailable
+     *
+     * @param files changed files
+     * @return query text
+     */
+    public static String toRagQuery(List<VCSUtils.FileChanges> files) {
+        StringBuilder code = new StringBuilder();
+        for (VCSUtils.FileChanges file : files) {
+            code.append(toRagQuery(file));
+        }
+        return code.toString();
+    }
+
+    /**
+     * Merge per-file RAG contexts into one PR-wide context (e.g. for the PR summary)
+     * 按排名轮流从各文件取片段并去重，保证每个文件最相关的片段排在前面
+     */
+    public static String mergeRagContexts(Collection<String> contexts) {
+        List<List<String>> ranked = new ArrayList<>();
+        for (String context : contexts) {
+            if (context != null && !context.isBlank()) {
+                ranked.add(Arrays.asList(context.split(RAG_DOCUMENT_SEPARATOR)));
+            }
+        }
+        Set<String> merged = new LinkedHashSet<>();
+        for (int rank = 0; ; rank++) {
+            boolean any = false;
+            for (List<String> snippets : ranked) {
+                if (rank < snippets.size()) {
+                    merged.add(snippets.get(rank));
+                    any = true;
+                }
+            }
+            if (!any) {
+                break;
+            }
+        }
+        return String.join(RAG_DOCUMENT_SEPARATOR, merged);
+    }
+
+    /**
+     * POST a request to the RAG API and return its data field
+     *
+     * @return data node, or null when the call failed or returned a non-success code
+     */
+    private static JsonNode callRagApi(String apiUrl, Map<String, Object> requestMap, ObjectMapper mapper) throws Exception {
+        String requestBody = mapper.writeValueAsString(requestMap);
+
+        URL url = new URL(apiUrl);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        conn.setRequestProperty("Accept", "application/json");
+        conn.setDoOutput(true);
+        conn.setConnectTimeout(0);
+        conn.setReadTimeout(0);
+
+        // Send request body
+        try (OutputStream os = conn.getOutputStream()) {
+            os.write(requestBody.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int httpCode = conn.getResponseCode();
+        if (httpCode / 100 != 2) {
+            String errMsg = IoUtils.readStreamSafely(conn.getErrorStream());
+            logger.warn("RAG API call failed, url={}, code={}, err={}", apiUrl, httpCode, errMsg);
+            return null;
+        }
+
+        // Parse response
+        String responseBody = IoUtils.readStreamSafely(conn.getInputStream());
+        JsonNode root = mapper.readTree(responseBody);
+
+        // Check response code
+        String responseCode = ReviewJsonUtils.safeText(root, "code");
+        if (!"0000".equals(responseCode)) {
+            String info = ReviewJsonUtils.safeText(root, "info");
+            logger.warn("RAG API returned non-success code: {}, info: {}", responseCode, info);
+            return null;
+        }
+        return root.get("data");
+    }
+
     /**
      * Extract repo name from repository string
      * Format: owner/repo, returns repo part
@@ -1,5 +1,6 @@
 package com.alias.infrastructure.git;
 
+import com.alias.utils.VCSUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
@@ -7,9 +8,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,35 +18,48 @@ public class GitCommand {
 
     private final Logger logger = LoggerFactory.getLogger(GitCommand.class);
 
+    private static final Pattern PR_URL_PATTERN = Pattern.compile("github\\.com/([^/]+)/([^/]+)/pull/(\\d+)");
+
+    private static final String DIFF_MEDIA_TYPE = "application/vnd.github.v3.diff";
+
     private final String githubToken;
 
+    private final GitHubClient gitHubClient;
+
     public GitCommand(String githubToken) {
         this.githubToken = githubToken;
+        this.gitHubClient = new GitHubClient(githubToken);
     }
 
     public String getPrDiff(String prUrl) throws IOException {
-//        // 直接请求 GitHub API 的 .diff 接口
-//        if (!prUrl.endsWith(".diff")) {
-//            if (prUrl.endsWith("/")) prUrl = prUrl.substring(0, prUrl.length() - 1);
-//            prUrl = prUrl + ".diff";
-//        }
-//
-//        URL url = new URL(prUrl);
-//        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-//        conn.setRequestProperty("Authorization", "token " + githubToken);
-//        conn.setRequestProperty("Accept", "application/vnd.github.v3.diff");
-//
-//        int status = conn.getResponseCode();
-//        if (status != 200) {
-//            throw new IOException("GitHub API request failed: " + status + " " + conn.getResponseMessage());
-//        }
-//
-//        try (InputStream in = conn.getInputStream()) {
-//            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
-//        }
+        return GitHubClient.await(getPrDiffAsync(prUrl));
+    }
+
+    /**
+     * 异步获取 PR diff
+     *
+     * @param prUrl GitHub PR URL
+     * @return diff 文本
+     */
+    public CompletableFuture<String> getPrDiffAsync(String prUrl) {
+        return gitHubClient.getAsync(buildPrDiffApiUrl(prUrl), DIFF_MEDIA_TYPE);
+    }
+
+    /**
+     * 直接从 HTTP 响应体流式解析 PR diff，不在内存中保留完整 diff 文本
+     *
+     * @param prUrl    GitHub PR URL
+     * @param consumer 每解析完一个文件回调一次
+     */
+    public void streamPrFileChanges(String prUrl, Consumer<VCSUtils.FileChanges> consumer) throws IOException {
+        try (InputStream in = GitHubClient.await(gitHubClient.getStreamAsync(buildPrDiffApiUrl(prUrl), DIFF_MEDIA_TYPE))) {
+            VCSUtils.parseUnifiedDiff(in, consumer);
+        }
+    }
+
+    private String buildPrDiffApiUrl(String prUrl) {
         // 解析 owner / repo / number
-        Pattern pattern = Pattern.compile("github\\.com/([^/]+)/([^/]+)/pull/(\\d+)");
-        Matcher m = pattern.matcher(prUrl);
+        Matcher m = PR_URL_PATTERN.matcher(prUrl);
         if (!m.find()) {
             throw new IllegalArgumentException("Invalid PR URL: " + prUrl);
         }
@@ -54,23 +68,9 @@ public class GitCommand {
         String repo = m.group(2);
         String number = m.group(3);
 
-        String apiUrl = String.format(
-                "https://api.github.com/repos/%s/%s/pulls/%s", owner, repo, number
+        return String.format(
+                GitHubClient.API_BASE_URL + "/repos/%s/%s/pulls/%s", owner, repo, number
         );
-
-        URL url = new URL(apiUrl);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestProperty("Authorization", "token " + githubToken);
-        conn.setRequestProperty("Accept", "application/vnd.github.v3.diff");
-
-        int status = conn.getResponseCode();
-        if (status != 200) {
-            throw new IOException("GitHub API request failed: " + status + " " + conn.getResponseMessage());
-        }
-
-        try (InputStream in = conn.getInputStream()) {
-            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
-        }
     }
 
     /**
@@ -81,47 +81,99 @@ public class GitCommand {
      * @return The head commit SHA of the PR
      */
     public String getPrHeadCommitSha(String repository, String prNumber) throws IOException {
-        String api = "https://api.github.com/repos/" + repository + "/pulls/" + prNumber;
-        logger.info("Fetching PR head commit SHA. api={}", api);
-        URL url = new URL(api);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.setRequestProperty("Authorization", "token " + githubToken);
-        conn.setRequestProperty("Accept", "application/vnd.github+json");
-        conn.setRequestProperty("User-Agent", "alias-openai-code-review");
-
-        int status = conn.getResponseCode();
-        if (status != 200) {
-            String errMsg = readStreamSafely(conn.getErrorStream());
-            throw new IOException("GitHub API request failed: " + status + " " + conn.getResponseMessage() + ", err=" + errMsg);
-        }
+        return GitHubClient.await(getPrHeadCommitShaAsync(repository, prNumber));
+    }
 
-        try (InputStream in = conn.getInputStream()) {
-            String response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode root = mapper.readTree(response);
-            JsonNode head = root.get("head");
-            if (head == null) {
-                throw new IOException("Cannot find 'head' field in PR response");
-            }
-            JsonNode shaNode = head.get("sha");
-            if (shaNode == null || shaNode.isNull()) {
-                throw new IOException("Cannot find 'sha' field in PR head");
+    /**
+     * 异步获取 PR head commit SHA，可与 diff 获取并发进行
+     *
+     * @param repository Repository in format "owner/repo"
+     * @param prNumber   PR number as string
+     * @return The head commit SHA of the PR
+     */
+    public CompletableFuture<String> getPrHeadCommitShaAsync(String repository, String prNumber) {
+        String api = GitHubClient.API_BASE_URL + "/repos/" + repository + "/pulls/" + prNumber;
+        logger.info("Fetching PR head commit SHA. api={}", api);
+        return gitHubClient.getAsync(api, "application/vnd.github+json").thenApply(response -> {
+            try {
+                ObjectMapper mapper = new ObjectMapper();
+                JsonNode root = mapper.readTree(response);
+                JsonNode head = root.get("head");
+                if (head == null) {
+                    throw new IOException("Cannot find 'head' field in PR response");
+                }
+                JsonNode shaNode = head.get("sha");
+                if (shaNode == null || shaNode.isNull()) {
+                    throw new IOException("Cannot find 'sha' field in PR head");
+                }
+                String sha = shaNode.asText();
+                logger.info("Resolved PR head commit SHA: {}", sha);
+                return sha;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            String sha = shaNode.asText();
-            logger.info("Resolved PR head commit SHA: {}", sha);
-            return sha;
-        }
+        });
     }
 
-    private String readStreamSafely(InputStream stream) {
-        if (stream == null) {
-            return "";
-        }
-        try {
-            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            return "Failed to read error stream: " + e.getMessage();
-        }
+    /**
+     * 在 PR 下发表普通评论
+     *
+     * @param repository  Repository in format "owner/repo"
+     * @param prNumber    PR number as string
+     * @param payloadJson 请求体 JSON，例如 {"body": "..."}
+     */
+    public CompletableFuture<String> postIssueCommentAsync(String repository, String prNumber, String payloadJson) {
+        String api = GitHubClient.API_BASE_URL + "/repos/" + repository + "/issues/" + prNumber + "/comments";
+        logger.info("Posting comment to GitHub. api={}", api);
+        return gitHubClient.postJsonAsync(api, payloadJson);
+    }
+
+    public String postIssueComment(String repository, String prNumber, String payloadJson) throws IOException {
+        return GitHubClient.await(postIssueCommentAsync(repository, prNumber, payloadJson));
+    }
+
+    /**
+     * 创建 PR review（含 inline comments）
+     *
+     * @param repository  Repository in format "owner/repo"
+     * @param prNumber    PR number as string
+     * @param payloadJson review 请求体 JSON
+     */
+    public CompletableFuture<String> createPullRequestReviewAsync(String repository, String prNumber, String payloadJson) {
+        String api = GitHubClient.API_BASE_URL + "/repos/" + repository + "/pulls/" + prNumber + "/reviews";
+        logger.info("Creating PR review. api={}", api);
+        return gitHubClient.postJsonAsync(api, payloadJson);
+    }
+
+    public String createPullRequestReview(String repository, String prNumber, String payloadJson) throws IOException {
+        return GitHubClient.await(createPullRequestReviewAsync(repository, prNumber, payloadJson));
+    }
+
+    /**
+     * 列出 PR 已有的 review（按创建时间升序，每页 100 条），用于重试前确认 review 是否已经创建
+     *
+     * @param repository Repository in format "owner/repo"
+     * @param prNumber   PR number as string
+     * @param page       页码，从 1 开始
+     */
+    public CompletableFuture<String> listPullRequestReviewsAsync(String repository, String prNumber, int page) {
+        String api = GitHubClient.API_BASE_URL + "/repos/" + repository + "/pulls/" + prNumber + "/reviews?per_page=100&page=" + page;
+        return gitHubClient.getAsync(api, "application/vnd.github+json");
+    }
+
+    /**
+     * 列出 PR 下的普通评论（按创建时间升序，每页 100 条），用于重试前确认总结评论是否已经发布
+     *
+     * @param repository Repository in format "owner/repo"
+     * @param prNumber   PR number as string
+     * @param page       页码，从 1 开始
+     */
+    public CompletableFuture<String> listIssueCommentsAsync(String repository, String prNumber, int page) {
+        String api = GitHubClient.API_BASE_URL + "/repos/" + repository + "/issues/" + prNumber + "/comments?per_page=100&page=" + page;
+        return gitHubClient.getAsync(api, "application/vnd.github+json");
+    }
+
+    public boolean hasToken() {
+        return githubToken != null && !githubToken.isEmpty();
     }
 }
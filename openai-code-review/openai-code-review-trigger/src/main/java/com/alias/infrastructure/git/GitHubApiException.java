@@ -0,0 +1,44 @@
+package com.alias.infrastructure.git;
+
+import java.io.IOException;
+
+/**
+ * GitHub API 返回非 2xx 状态码时抛出，保留状态码与 Retry-After 供调用方决定是否重试
+ */
+public class GitHubApiException extends IOException {
+
+    private final int statusCode;
+
+    private final long retryAfterSeconds;
+
+    public GitHubApiException(String message, int statusCode, long retryAfterSeconds) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return Retry-After 秒数，响应中没有该头时为 -1
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * 主/次级速率限制（403 / 429）
+     */
+    public boolean isRateLimited() {
+        return statusCode == 429 || (statusCode == 403 && (retryAfterSeconds >= 0 || String.valueOf(getMessage()).toLowerCase().contains("rate limit")));
+    }
+
+    /**
+     * 服务端错误，请求可能已经生效
+     */
+    public boolean isServerError() {
+        return statusCode / 100 == 5;
+    }
+}
@@ -0,0 +1,121 @@
+package com.alias.infrastructure.git;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * GitHub REST API client based on java.net.http.HttpClient.
+ * 所有实例共享同一个 HttpClient（HTTP/2 + 连接复用），请求带显式超时，并提供返回 CompletableFuture 的异步方法
+ */
+public class GitHubClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(GitHubClient.class);
+
+    public static final String API_BASE_URL = "https://api.github.com";
+
+    private static final String USER_AGENT = "alias-openai-code-review";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    // 进程级共享，HttpClient 线程安全，内部维护连接池
+    private static final HttpClient SHARED_CLIENT = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(CONNECT_TIMEOUT).followRedirects(HttpClient.Redirect.NORMAL).build();
+
+    private final String token;
+
+    public GitHubClient(String token) {
+        this.token = token;
+    }
+
+    public CompletableFuture<String> getAsync(String url, String accept) {
+        return sendAsync(newRequest(url, accept).GET().build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).thenApply(HttpResponse::body);
+    }
+
+    /**
+     * 以流的形式获取响应体，调用方负责关闭返回的 InputStream
+     */
+    public CompletableFuture<InputStream> getStreamAsync(String url, String accept) {
+        return sendAsync(newRequest(url, accept).GET().build(), HttpResponse.BodyHandlers.ofInputStream()).thenApply(HttpResponse::body);
+    }
+
+    public CompletableFuture<String> postJsonAsync(String url, String jsonBody) {
+        HttpRequest request = newRequest(url, "application/vnd.github+json").header("Content-Type", "application/json; charset=utf-8").POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8)).build();
+        return sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).thenApply(HttpResponse::body);
+    }
+
+    public String get(String url, String accept) throws IOException {
+        return await(getAsync(url, accept));
+    }
+
+    public String postJson(String url, String jsonBody) throws IOException {
+        return await(postJsonAsync(url, jsonBody));
+    }
+
+    /**
+     * 等待异步结果，并将异常还原为 IOException / RuntimeException
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private HttpRequest.Builder newRequest(String url, String accept) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).header("Accept", accept).header("User-Agent", USER_AGENT);
+        if (token != null && !token.isEmpty()) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder;
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        logger.debug("GitHub API request. method={}, uri={}", request.method(), request.uri());
+        return SHARED_CLIENT.sendAsync(request, bodyHandler).thenApply(response -> {
+            GitHubRateLimit.update(response.headers());
+            int status = response.statusCode();
+            if (status / 100 != 2) {
+                throw new CompletionException(new GitHubApiException("GitHub API request failed: " + status + " " + request.method() + " " + request.uri() + ", err=" + readBodySafely(response.body()), status, GitHubRateLimit.retryAfterSeconds(response.headers())));
+            }
+            return response;
+        });
+    }
+
+    private static String readBodySafely(Object body) {
+        if (body == null) {
+            return "";
+        }
+        if (body instanceof InputStream) {
+            try (InputStream in = (InputStream) body) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return "Failed to read error stream: " + e.getMessage();
+            }
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.alias.infrastructure.git;
+
+import java.net.http.HttpHeaders;
+
+/**
+ * 进程级 GitHub 速率限制状态（所有请求使用同一个 token）
+ * 每个响应的 X-RateLimit-Remaining / X-RateLimit-Reset / Retry-After 都会更新这里，
+ * 写操作在发送前通过 {@link #reserve(long)} 领取发送时间：额度充足时只保持最小间隔，额度不足时把剩余额度均匀分摊到重置前
+ */
+public final class GitHubRateLimit {
+
+    // 剩余额度低于该值时开始按重置时间分摊请求
+    private static final int LOW_WATERMARK = 100;
+
+    private static long remaining = -1;
+
+    private static long resetAtMillis = 0;
+
+    private static long blockedUntilMillis = 0;
+
+    private static long nextSlotMillis = 0;
+
+    private GitHubRateLimit() {
+    }
+
+    public static synchronized void update(HttpHeaders headers) {
+        headers.firstValue("X-RateLimit-Remaining").ifPresent(v -> remaining = parseLong(v, remaining));
+        headers.firstValue("X-RateLimit-Reset").ifPresent(v -> resetAtMillis = parseLong(v, resetAtMillis / 1000) * 1000);
+        long retryAfter = retryAfterSeconds(headers);
+        if (retryAfter >= 0) {
+            backoff(retryAfter * 1000);
+        }
+    }
+
+    /**
+     * 在 delayMillis 内暂停所有写请求（收到 Retry-After 或次级速率限制时）
+     */
+    public static synchronized void backoff(long delayMillis) {
+        blockedUntilMillis = Math.max(blockedUntilMillis, System.currentTimeMillis() + delayMillis);
+    }
+
+    /**
+     * 领取下一个发送时间
+     *
+     * @param minIntervalMillis 相邻写请求的最小间隔
+     * @return 调用方发送前需要等待的毫秒数
+     */
+    public static synchronized long reserve(long minIntervalMillis) {
+        long now = System.currentTimeMillis();
+        long slot = Math.max(Math.max(now, nextSlotMillis), blockedUntilMillis);
+        long interval = minIntervalMillis;
+        if (remaining == 0 && resetAtMillis > now) {
+            slot = Math.max(slot, resetAtMillis);
+        } else if (remaining > 0 && remaining < LOW_WATERMARK && resetAtMillis > now) {
+            interval = Math.max(interval, (resetAtMillis - now) / remaining);
+        }
+        nextSlotMillis = slot + interval;
+        return slot - now;
+    }
+
+    public static synchronized long getRemaining() {
+        return remaining;
+    }
+
+    static long retryAfterSeconds(HttpHeaders headers) {
+        return headers.firstValue("Retry-After").map(v -> parseLong(v.trim(), -1)).orElse(-1L);
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.alias.infrastructure.git;
+
+import com.alias.utils.ReviewJsonUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Publishes inline review comments to a GitHub PR.
+ * <p>
+ * - 每个 review 最多携带 {@value #MAX_COMMENTS_PER_REVIEW} 条评论；GitHub 因评论位置返回 422 时把该批拆成两半重试，
+ * 最终只丢弃单独被拒绝的评论（通常是行号不在 diff 中）
+ * - 发送节奏由 {@link GitHubRateLimit} 根据响应头自适应决定，不再固定等待；最多 {@value #MAX_CONCURRENCY} 个批次同时在发送
+ * - review 正文带有由 commit 与评论内容计算的标记，超时或 5xx 后先查询已有 review，标记已存在则视为成功，重试不会重复发布；
+ * 整体重试前调用 {@link #skipPublishedBatches()} 可跳过上次已发布的批次
+ * - PR 总结评论同样带标记（{@link #summaryMarker}），重试前用 {@link #isSummaryPublished} 确认是否已经发布
+ */
+public class GitHubReviewPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(GitHubReviewPublisher.class);
+
+    public static final int MAX_COMMENTS_PER_REVIEW = 50;
+
+    public static final int MAX_CONCURRENCY = 2;
+
+    public static final int MAX_ATTEMPTS = 4;
+
+    // GitHub 建议写请求之间至少间隔 1 秒，避免触发次级速率限制
+    public static final long MIN_INTERVAL_MILLIS = 1000;
+
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    private static final String MARKER_PREFIX = "<!-- alias-review-batch:";
+
+    private static final String SUMMARY_MARKER_PREFIX = "<!-- alias-review-summary:";
+
+    // 查找已发布标记时最多翻的页数（每页 100 条）；列表按创建时间升序，最新的标记在最后几页
+    private static final int MAX_LIST_PAGES = 10;
+
+    private static final int PAGE_SIZE = 100;
+
+    private final GitCommand gitCommand;
+
+    private final String repository;
+
+    private final String prNumber;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // PR 上已存在的批次标记，命中的批次不再发布
+    private Set<String> publishedMarkers = Collections.emptySet();
+
+    public GitHubReviewPublisher(GitCommand gitCommand, String repository, String prNumber) {
+        this.gitCommand = gitCommand;
+        this.repository = repository;
+        this.prNumber = prNumber;
+    }
+
+    public static final class InlineComment {
+        public final String path;
+        public final String side; // "RIGHT" or "LEFT"
+        public final int line;
+        public final String body;
+
+        public InlineComment(String path, String side, int line, String body) {
+            this.path = path;
+            this.side = side;
+            this.line = line;
+            this.body = body;
+        }
+    }
+
+    /**
+     * 读取 PR 上已有 review 的批次标记，之后 publish 跳过已发布过的批次；用于上次发布中途失败后的整体重试
+     *
+     * @throws IOException 读取已有 review 失败
+     */
+    public GitHubReviewPublisher skipPublishedBatches() throws IOException {
+        Set<String> markers = new HashSet<>();
+        for (String body : listReviewBodies()) {
+            int start = body.indexOf(MARKER_PREFIX);
+            int end = start >= 0 ? body.indexOf(" -->", start) : -1;
+            if (end > start) {
+                markers.add(body.substring(start, end + 4));
+            }
+        }
+        logger.info("Loaded published review batches. repo={}, pr={}, batches={}", repository, prNumber, markers.size());
+        this.publishedMarkers = markers;
+        return this;
+    }
+
+    /**
+     * PR 上是否已有带该标记的总结评论
+     *
+     * @param marker {@link #summaryMarker} 生成的标记
+     * @throws IOException 读取已有评论失败
+     */
+    public boolean isSummaryPublished(String marker) throws IOException {
+        for (String body : listBodies(page -> gitCommand.listIssueCommentsAsync(repository, prNumber, page))) {
+            if (body.contains(marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> listReviewBodies() throws IOException {
+        return listBodies(page -> gitCommand.listPullRequestReviewsAsync(repository, prNumber, page));
+    }
+
+    /**
+     * 逐页读取 review / 评论正文，直到某页不足 {@value #PAGE_SIZE} 条或达到 {@value #MAX_LIST_PAGES} 页
+     */
+    private List<String> listBodies(IntFunction<CompletableFuture<String>> pageRequest) throws IOException {
+        List<String> bodies = new ArrayList<>();
+        for (int page = 1; page <= MAX_LIST_PAGES; page++) {
+            JsonNode items = mapper.readTree(GitHubClient.await(pageRequest.apply(page)));
+            for (JsonNode item : items) {
+                String body = ReviewJsonUtils.safeText(item, "body");
+                if (body != null) {
+                    bodies.add(body);
+                }
+            }
+            if (items.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+        return bodies;
+    }
+
+    /**
+     * 发布 inline comments，按顺序切分为多个 review
+     *
+     * @param commitSha PR head commit SHA
+     * @param title     review 正文，多批次时追加批次信息
+     * @param comments  已排序的评论
+     * @return 成功发布的评论数
+     * @throws IOException 有批次在重试后仍然失败
+     */
+    public int publish(String commitSha, String title, List<InlineComment> comments) throws IOException {
+        if (comments == null || comments.isEmpty()) {
+            return 0;
+        }
+        List<List<InlineComment>> batches = new ArrayList<>();
+        for (int i = 0; i < comments.size(); i += MAX_COMMENTS_PER_REVIEW) {
+            batches.add(comments.subList(i, Math.min(i + MAX_COMMENTS_PER_REVIEW, comments.size())));
+        }
+        int totalBatches = batches.size();
+        logger.info("Publishing PR review comments. repo={}, pr={}, comments={}, batches={}, concurrency={}", repository, prNumber, comments.size(), totalBatches, Math.min(MAX_CONCURRENCY, totalBatches));
+
+        AtomicInteger published = new AtomicInteger();
+        List<String> failures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_CONCURRENCY, totalBatches), r -> {
+            Thread thread = new Thread(r, "github-review-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>(totalBatches);
+            for (int i = 0; i < totalBatches; i++) {
+                List<InlineComment> batch = batches.get(i);
+                String body = totalBatches == 1 ? title : String.format("%s [Batch %d/%d, %d comments in this batch]", title, i + 1, totalBatches, batch.size());
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        published.addAndGet(publishBatch(commitSha, body, batch));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        synchronized (failures) {
+                            failures.add("interrupted");
+                        }
+                    } catch (Exception e) {
+                        logger.error("Failed to publish review batch. comments={}, err={}", batch.size(), e.getMessage());
+                        synchronized (failures) {
+                            failures.add(e.getMessage());
+                        }
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        logger.info("PR review comments published. published={}, total={}, failedBatches={}", published.get(), comments.size(), failures.size());
+        if (!failures.isEmpty()) {
+            throw new IOException("Failed to publish " + failures.size() + " of " + totalBatches + " review batches: " + failures.get(0));
+        }
+        return published.get();
+    }
+
+    /**
+     * 发布一个批次；422 时拆分重试，单条评论被拒绝时跳过
+     */
+    private int publishBatch(String commitSha, String body, List<InlineComment> batch) throws IOException, InterruptedException {
+        try {
+            createReviewWithRetry(commitSha, body, batch);
+            return batch.size();
+        } catch (GitHubApiException e) {
+            if (e.getStatusCode() != 422 || !isCommentPositionError(e)) {
+                throw e;
+            }
+            if (batch.size() == 1) {
+                InlineComment c = batch.get(0);
+                logger.warn("GitHub rejected review comment, skipping. path={}, line={}, err={}", c.path, c.line, e.getMessage());
+                return 0;
+            }
+            int mid = batch.size() / 2;
+            logger.info("GitHub rejected review batch, splitting. comments={}", batch.size());
+            return publishBatch(commitSha, body, batch.subList(0, mid)) + publishBatch(commitSha, body, batch.subList(mid, batch.size()));
+        }
+    }
+
+    private void createReviewWithRetry(String commitSha, String body, List<InlineComment> batch) throws IOException, InterruptedException {
+        String marker = marker(commitSha, batch);
+        if (publishedMarkers.contains(marker)) {
+            logger.info("PR review batch already published, skipping. comments={}", batch.size());
+            return;
+        }
+        String payload = buildPayload(commitSha, body + "\n\n" + marker, batch);
+        for (int attempt = 1; ; attempt++) {
+            long wait = GitHubRateLimit.reserve(MIN_INTERVAL_MILLIS);
+            if (wait > 0) {
+                logger.debug("Pacing GitHub review request. waitMillis={}, remaining={}", wait, GitHubRateLimit.getRemaining());
+                Thread.sleep(wait);
+            }
+            try {
+                gitCommand.createPullRequestReview(repository, prNumber, payload);
+                logger.info("PR review created. comments={}, attempt={}", batch.size(), attempt);
+                return;
+            } catch (IOException e) {
+                GitHubApiException apiError = e instanceof GitHubApiException ? (GitHubApiException) e : null;
+                boolean rateLimited = apiError != null && apiError.isRateLimited();
+                // 超时或服务端错误时请求可能已生效
+                boolean ambiguous = apiError == null || apiError.isServerError();
+                if ((!rateLimited && !ambiguous) || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                if (ambiguous && isAlreadyPublished(marker)) {
+                    logger.info("PR review already exists, skipping retry. comments={}, attempt={}", batch.size(), attempt);
+                    return;
+                }
+                long backoff = apiError != null && apiError.getRetryAfterSeconds() >= 0 ? apiError.getRetryAfterSeconds() * 1000 : Math.min(MAX_BACKOFF_MILLIS, 1000L << attempt);
+                GitHubRateLimit.backoff(backoff);
+                logger.warn("PR review request failed, retrying. attempt={}/{}, backoffMillis={}, err={}", attempt, MAX_ATTEMPTS, backoff, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 422 是否由评论位置（path / line 不在 diff 中）引起；commit_id 无效等整体错误拆分后也不会成功
+     */
+    private static boolean isCommentPositionError(GitHubApiException e) {
+        String message = String.valueOf(e.getMessage()).toLowerCase();
+        return message.contains("pull_request_review_thread") || message.contains("line") || message.contains("path") || message.contains("diff");
+    }
+
+    private boolean isAlreadyPublished(String marker) {
+        try {
+            for (String body : listReviewBodies()) {
+                if (body.contains(marker)) {
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to list PR reviews before retry. err={}", e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 同一 commit 上内容相同的批次得到相同标记
+     */
+    static String marker(String commitSha, List<InlineComment> batch) {
+        StringBuilder sb = new StringBuilder(String.valueOf(commitSha));
+        for (InlineComment c : batch) {
+            sb.append('\n').append(c.path).append(':').append(c.side).append(':').append(c.line).append(':').append(c.body);
+        }
+        return MARKER_PREFIX + Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString().substring(0, 24) + " -->";
+    }
+
+    /**
+     * 同一 commit 上内容相同的总结评论得到相同标记
+     */
+    public static String summaryMarker(String commitSha, String body) {
+        return SUMMARY_MARKER_PREFIX + Hashing.sha256().hashString(commitSha + "\n" + body, StandardCharsets.UTF_8).toString().substring(0, 24) + " -->";
+    }
+
+    private static String buildPayload(String commitSha, String body, List<InlineComment> comments) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("\"commit_id\":").append(ReviewJsonUtils.toJsonString(commitSha)).append(",");
+        sb.append("\"body\":").append(ReviewJsonUtils.toJsonString(body)).append(",");
+        sb.append("\"event\":\"COMMENT\",");
+        sb.append("\"comments\":[");
+        for (int i = 0; i < comments.size(); i++) {
+            InlineComment c = comments.get(i);
+            sb.append("{").append("\"path\":").append(ReviewJsonUtils.toJsonString(c.path)).append(",").append("\"side\":").append(ReviewJsonUtils.toJsonString(c.side)).append(",").append("\"line\":").append(c.line).append(",").append("\"body\":").append(ReviewJsonUtils.toJsonString(c.body)).append("}");
+            if (i < comments.size() - 1) sb.append(",");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
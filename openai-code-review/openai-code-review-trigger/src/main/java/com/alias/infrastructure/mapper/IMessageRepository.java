@@ -57,6 +57,26 @@ public interface IMessageRepository {
     @ResultMap("messageResultMap")
     List<Message> findByConversationIdWithPagination(UUID conversationId, int limit, int offset);
 
+    /**
+     * Find the latest messages for a conversation, newest first
+     *
+     * @param conversationId the conversation ID
+     * @param limit          the maximum number of messages
+     * @return list of messages ordered by created_at descending
+     */
+    @Select("SELECT id, conversation_id, role, type, content, metadata, created_at " + "FROM messages WHERE conversation_id = #{conversationId, javaType=java.util.UUID, jdbcType=OTHER} " + "ORDER BY created_at DESC " + "LIMIT #{limit, jdbcType=INTEGER}")
+    @ResultMap("messageResultMap")
+    List<Message> findLatestByConversationId(UUID conversationId, int limit);
+
+    /**
+     * Find the ID of the latest message of a conversation, used to validate cached contexts
+     *
+     * @param conversationId the conversation ID
+     * @return the latest message ID, or null if the conversation has no messages
+     */
+    @Select("SELECT id::text FROM messages WHERE conversation_id = #{conversationId, javaType=java.util.UUID, jdbcType=OTHER} " + "ORDER BY created_at DESC " + "LIMIT 1")
+    String findLatestIdByConversationId(UUID conversationId);
+
     /**
      * Find messages by conversation ID and role
      *
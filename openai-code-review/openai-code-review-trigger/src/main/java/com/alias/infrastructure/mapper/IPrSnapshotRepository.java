@@ -74,6 +74,17 @@ public interface IPrSnapshotRepository {
     @ResultMap("prSnapshotResultMap")
     Optional<PrSnapshot> findByUrl(String url);
 
+    /**
+     * Find snapshot by PR url and client identifier (matches the unique key)
+     *
+     * @param url              the PR url
+     * @param clientIdentifier the client identifier, may be null
+     * @return optional containing the snapshot
+     */
+    @Select("SELECT id, url, client_identifier, repo_name, pr_number, branch, file_changes, created_at, updated_at " + "FROM pr_snapshots WHERE url = #{url, jdbcType=VARCHAR} " + "AND client_identifier IS NOT DISTINCT FROM #{clientIdentifier, javaType=java.util.UUID, jdbcType=OTHER} " + "LIMIT 1")
+    @ResultMap("prSnapshotResultMap")
+    Optional<PrSnapshot> findByUrlAndClientIdentifier(String url, UUID clientIdentifier);
+
     /**
      * Find snapshots by repository name and PR number
      *
@@ -0,0 +1,50 @@
+package com.alias.infrastructure.mapper;
+
+import com.alias.domain.model.ReviewCacheEntry;
+import com.alias.infrastructure.typehandler.JsonbTypeHandler;
+import org.apache.ibatis.annotations.*;
+
+import java.util.Optional;
+
+/**
+ * Review Cache Repository Interface
+ * Data access layer for per-file review results
+ */
+@Mapper
+public interface IReviewCacheRepository {
+
+    /**
+     * Save or update a review cache entry based on cache_key
+     *
+     * @param entry the entry to save
+     * @return number of rows affected
+     */
+    @Insert("""
+                    INSERT INTO review_cache (cache_key, model, prompt_version, file_path, review, created_at, updated_at)
+                    VALUES (
+                            #{cacheKey, jdbcType=VARCHAR},
+                            #{model, jdbcType=VARCHAR},
+                            #{promptVersion, jdbcType=VARCHAR},
+                            #{filePath, jdbcType=VARCHAR},
+                            #{review, jdbcType=OTHER, typeHandler=com.alias.infrastructure.typehandler.JsonbTypeHandler},
+                            #{createdAt, jdbcType=TIMESTAMP},
+                            #{updatedAt, jdbcType=TIMESTAMP}
+                    )
+                    ON CONFLICT (cache_key) DO UPDATE SET
+                        review = EXCLUDED.review,
+                        file_path = EXCLUDED.file_path,
+                        updated_at = CURRENT_TIMESTAMP
+            """)
+    int save(ReviewCacheEntry entry);
+
+    /**
+     * Find entry by cache key
+     *
+     * @param cacheKey the cache key
+     * @return optional containing the entry
+     */
+    @Select("SELECT cache_key, model, prompt_version, file_path, review, created_at, updated_at " + "FROM review_cache WHERE cache_key = #{cacheKey, jdbcType=VARCHAR}")
+    @Results(id = "reviewCacheResultMap", value = {@Result(column = "cache_key", property = "cacheKey", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "model", property = "model", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "prompt_version", property = "promptVersion", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "file_path", property = "filePath", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "review", property = "review", jdbcType = org.apache.ibatis.type.JdbcType.OTHER, typeHandler = JsonbTypeHandler.class), @Result(column = "created_at", property = "createdAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP), @Result(column = "updated_at", property = "updatedAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP)
+    })
+    Optional<ReviewCacheEntry> findByCacheKey(String cacheKey);
+}
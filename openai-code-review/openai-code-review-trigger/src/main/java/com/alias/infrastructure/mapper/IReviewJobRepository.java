@@ -0,0 +1,115 @@
+package com.alias.infrastructure.mapper;
+
+import com.alias.domain.model.ReviewJob;
+import com.alias.infrastructure.typehandler.JsonbTypeHandler;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Review Job Repository Interface
+ * Data access layer for the shared review job queue
+ */
+@Mapper
+public interface IReviewJobRepository {
+
+    /**
+     * Insert a new queued job unless the shared queue is already full.
+     * max-queue-depth is a soft limit: under READ COMMITTED, concurrent submits do not see each other's uncommitted
+     * inserts, so the queue can overshoot by up to the number of simultaneous submits.
+     *
+     * @param job           the job to insert
+     * @param maxQueueDepth max QUEUED jobs across all instances
+     * @return number of rows affected, 0 if the queue is full
+     */
+    @Insert("""
+                    INSERT INTO review_jobs (id, pr_url, model, status, created_at, updated_at)
+                    SELECT
+                            #{job.id, javaType=java.util.UUID, jdbcType=OTHER},
+                            #{job.prUrl, jdbcType=VARCHAR},
+                            #{job.model, jdbcType=VARCHAR},
+                            'QUEUED',
+                            #{job.createdAt, jdbcType=TIMESTAMP},
+                            #{job.updatedAt, jdbcType=TIMESTAMP}
+                    WHERE (SELECT COUNT(*) FROM review_jobs WHERE status = 'QUEUED') < #{maxQueueDepth}
+            """)
+    int insertIfQueueBelow(ReviewJob job, long maxQueueDepth);
+
+    /**
+     * Find job by ID
+     *
+     * @param id the job ID
+     * @return optional containing the job
+     */
+    @Select("SELECT id, pr_url, model, status, attempts, worker_id, locked_until, result, last_error, created_at, started_at, finished_at, updated_at " + "FROM review_jobs WHERE id = #{id, javaType=java.util.UUID, jdbcType=OTHER}")
+    @Results(id = "reviewJobResultMap", value = {@Result(column = "id", property = "id", javaType = UUID.class, jdbcType = org.apache.ibatis.type.JdbcType.OTHER), @Result(column = "pr_url", property = "prUrl", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "model", property = "model", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "status", property = "status", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "attempts", property = "attempts", jdbcType = org.apache.ibatis.type.JdbcType.INTEGER), @Result(column = "worker_id", property = "workerId", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "locked_until", property = "lockedUntil", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP), @Result(column = "result", property = "result", jdbcType = org.apache.ibatis.type.JdbcType.OTHER, typeHandler = JsonbTypeHandler.class), @Result(column = "last_error", property = "lastError", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "created_at", property = "createdAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP), @Result(column = "started_at", property = "startedAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP), @Result(column = "finished_at", property = "finishedAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP), @Result(column = "updated_at", property = "updatedAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP)
+    })
+    Optional<ReviewJob> findById(UUID id);
+
+    /**
+     * Claim jobs for a worker.
+     * QUEUED jobs and RUNNING jobs whose lease expired (their instance stopped renewing it) are claimed in submit
+     * order; rows locked by another instance are skipped, so every instance can poll the same table.
+     *
+     * @param limit        max jobs to claim, normally the free worker slots
+     * @param workerId     the claiming worker
+     * @param leaseSeconds lease length, renewed by {@link #renewLeases}
+     * @return claimed jobs, status RUNNING and attempts already incremented
+     */
+    @Select("""
+                    UPDATE review_jobs SET
+                        status = 'RUNNING',
+                        worker_id = #{workerId, jdbcType=VARCHAR},
+                        attempts = attempts + 1,
+                        locked_until = CURRENT_TIMESTAMP + make_interval(secs => #{leaseSeconds}),
+                        started_at = CURRENT_TIMESTAMP,
+                        updated_at = CURRENT_TIMESTAMP
+                    WHERE id IN (
+                        SELECT id FROM review_jobs
+                        WHERE status = 'QUEUED'
+                           OR (status = 'RUNNING' AND locked_until < CURRENT_TIMESTAMP)
+                        ORDER BY created_at
+                        LIMIT #{limit}
+                        FOR UPDATE SKIP LOCKED
+                    )
+                    RETURNING id, pr_url, model, status, attempts, worker_id, locked_until, result, last_error, created_at, started_at, finished_at, updated_at
+            """)
+    @Options(flushCache = Options.FlushCachePolicy.TRUE)
+    @ResultMap("reviewJobResultMap")
+    List<ReviewJob> claim(int limit, String workerId, int leaseSeconds);
+
+    /**
+     * Renew the leases of all jobs a worker is running
+     *
+     * @param workerId     the worker
+     * @param leaseSeconds lease length
+     * @return number of jobs renewed
+     */
+    @Update("UPDATE review_jobs SET locked_until = CURRENT_TIMESTAMP + make_interval(secs => #{leaseSeconds}) " + "WHERE worker_id = #{workerId, jdbcType=VARCHAR} AND status = 'RUNNING'")
+    int renewLeases(String workerId, int leaseSeconds);
+
+    /**
+     * Mark a job as succeeded; ignored if the job has been claimed by another worker meanwhile
+     *
+     * @param id       the job ID
+     * @param workerId the worker that ran the job
+     * @param result   the review result
+     * @return number of rows affected
+     */
+    @Update("UPDATE review_jobs SET status = 'SUCCEEDED', result = #{result, jdbcType=OTHER, typeHandler=com.alias.infrastructure.typehandler.JsonbTypeHandler}, " + "last_error = NULL, locked_until = NULL, finished_at = CURRENT_TIMESTAMP, updated_at = CURRENT_TIMESTAMP " + "WHERE id = #{id, javaType=java.util.UUID, jdbcType=OTHER} AND worker_id = #{workerId, jdbcType=VARCHAR} AND status = 'RUNNING'")
+    int markSucceeded(UUID id, String workerId, Map<String, Object> result);
+
+    /**
+     * Mark a job as failed; ignored if the job has been claimed by another worker meanwhile
+     *
+     * @param id        the job ID
+     * @param workerId  the worker that ran the job
+     * @param lastError the error message
+     * @return number of rows affected
+     */
+    @Update("UPDATE review_jobs SET status = 'FAILED', last_error = #{lastError, jdbcType=VARCHAR}, " + "locked_until = NULL, finished_at = CURRENT_TIMESTAMP, updated_at = CURRENT_TIMESTAMP " + "WHERE id = #{id, javaType=java.util.UUID, jdbcType=OTHER} AND worker_id = #{workerId, jdbcType=VARCHAR} AND status = 'RUNNING'")
+    int markFailed(UUID id, String workerId, String lastError);
+}
@@ -0,0 +1,134 @@
+package com.alias.infrastructure.mapper;
+
+import com.alias.domain.model.ReviewOutboxEntry;
+import com.alias.infrastructure.typehandler.JsonbTypeHandler;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Review Outbox Repository Interface
+ * Data access layer for reviews waiting to be published
+ */
+@Mapper
+public interface IReviewOutboxRepository {
+
+    /**
+     * Insert a new outbox entry; an entry with the same ID is kept as is
+     *
+     * @param entry the entry to insert
+     * @return number of rows affected, 0 if the ID already exists
+     */
+    @Insert("""
+                    INSERT INTO review_outbox (id, pr_url, repo_name, pr_number, head_commit_sha, model, conversation_id, client_identifier, review, snapshot, status, next_attempt_at, created_at, updated_at)
+                    VALUES (
+                            #{id, javaType=java.util.UUID, jdbcType=OTHER},
+                            #{prUrl, jdbcType=VARCHAR},
+                            #{repoName, jdbcType=VARCHAR},
+                            #{prNumber, jdbcType=VARCHAR},
+                            #{headCommitSha, jdbcType=VARCHAR},
+                            #{model, jdbcType=VARCHAR},
+                            #{conversationId, javaType=java.util.UUID, jdbcType=OTHER},
+                            #{clientIdentifier, javaType=java.util.UUID, jdbcType=OTHER},
+                            #{review, jdbcType=OTHER, typeHandler=com.alias.infrastructure.typehandler.JsonbTypeHandler},
+                            #{snapshot, jdbcType=OTHER, typeHandler=com.alias.infrastructure.typehandler.JsonbTypeHandler},
+                            'PENDING',
+                            CURRENT_TIMESTAMP,
+                            #{createdAt, jdbcType=TIMESTAMP},
+                            #{updatedAt, jdbcType=TIMESTAMP}
+                    )
+                    ON CONFLICT (id) DO NOTHING
+            """)
+    int insert(ReviewOutboxEntry entry);
+
+    /**
+     * Find entry by ID
+     *
+     * @param id the entry ID
+     * @return optional containing the entry
+     */
+    @Select("SELECT id, pr_url, repo_name, pr_number, head_commit_sha, model, conversation_id, client_identifier, review, snapshot, status, " + "message_saved, comment_posted, attempts, last_error, next_attempt_at, locked_until, created_at, updated_at " + "FROM review_outbox WHERE id = #{id, javaType=java.util.UUID, jdbcType=OTHER}")
+    @ResultMap("reviewOutboxResultMap")
+    Optional<ReviewOutboxEntry> findById(UUID id);
+
+    /**
+     * Claim due entries for this worker.
+     * PENDING entries whose next_attempt_at has passed and PROCESSING entries whose lease expired (worker died) are
+     * claimed; rows locked by another worker are skipped, so several instances can drain the table concurrently.
+     *
+     * Every claim stamps a fresh claim token; progress updates must present it, so a worker whose lease expired and
+     * whose entry was reclaimed can no longer write.
+     *
+     * @param limit        max entries to claim
+     * @param leaseSeconds lease length; the entry becomes claimable again after it expires
+     * @param claimToken   token identifying this claim
+     * @return claimed entries, status PROCESSING and attempts already incremented
+     */
+    @Select("""
+                    UPDATE review_outbox SET
+                        status = 'PROCESSING',
+                        attempts = attempts + 1,
+                        locked_until = CURRENT_TIMESTAMP + make_interval(secs => #{leaseSeconds}),
+                        claim_token = #{claimToken, jdbcType=VARCHAR},
+                        updated_at = CURRENT_TIMESTAMP
+                    WHERE id IN (
+                        SELECT id FROM review_outbox
+                        WHERE (status = 'PENDING' AND next_attempt_at <= CURRENT_TIMESTAMP)
+                           OR (status = 'PROCESSING' AND locked_until < CURRENT_TIMESTAMP)
+                        ORDER BY next_attempt_at
+                        LIMIT #{limit}
+                        FOR UPDATE SKIP LOCKED
+                    )
+                    RETURNING id, pr_url, repo_name, pr_number, head_commit_sha, model, conversation_id, client_identifier, review, snapshot, status,
+                              message_saved, comment_posted, attempts, last_error, next_attempt_at, locked_until, created_at, updated_at
+            """)
+    @Options(flushCache = Options.FlushCachePolicy.TRUE)
+    @Results(id = "reviewOutboxResultMap", value = {@Result(column = "id", property = "id", javaType = UUID.class, jdbcType = org.apache.ibatis.type.JdbcType.OTHER), @Result(column = "pr_url", property = "prUrl", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "repo_name", property = "repoName", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "pr_number", property = "prNumber", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "head_commit_sha", property = "headCommitSha", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "model", property = "model", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "conversation_id", property = "conversationId", javaType = UUID.class, jdbcType = org.apache.ibatis.type.JdbcType.OTHER), @Result(column = "client_identifier", property = "clientIdentifier", javaType = UUID.class, jdbcType = org.apache.ibatis.type.JdbcType.OTHER), @Result(column = "review", property = "review", jdbcType = org.apache.ibatis.type.JdbcType.OTHER, typeHandler = JsonbTypeHandler.class), @Result(column = "snapshot", property = "snapshot", jdbcType = org.apache.ibatis.type.JdbcType.OTHER, typeHandler = JsonbTypeHandler.class), @Result(column = "status", property = "status", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "message_saved", property = "messageSaved", jdbcType = org.apache.ibatis.type.JdbcType.BOOLEAN), @Result(column = "comment_posted", property = "commentPosted", jdbcType = org.apache.ibatis.type.JdbcType.BOOLEAN), @Result(column = "attempts", property = "attempts", jdbcType = org.apache.ibatis.type.JdbcType.INTEGER), @Result(column = "last_error", property = "lastError", jdbcType = org.apache.ibatis.type.JdbcType.VARCHAR), @Result(column = "next_attempt_at", property = "nextAttemptAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP), @Result(column = "locked_until", property = "lockedUntil", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP), @Result(column = "created_at", property = "createdAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP), @Result(column = "updated_at", property = "updatedAt", jdbcType = org.apache.ibatis.type.JdbcType.TIMESTAMP)
+    })
+    List<ReviewOutboxEntry> claimDue(int limit, int leaseSeconds, String claimToken);
+
+    /**
+     * Mark the review message of an entry as saved; ignored once the claim's lease is lost
+     *
+     * @param id         the entry ID
+     * @param claimToken the token of the claim doing the work
+     * @return number of rows affected, 0 if the lease was lost
+     */
+    @Update("UPDATE review_outbox SET message_saved = TRUE, updated_at = CURRENT_TIMESTAMP " + "WHERE id = #{id, javaType=java.util.UUID, jdbcType=OTHER} AND claim_token = #{claimToken, jdbcType=VARCHAR} AND status = 'PROCESSING' AND locked_until > CURRENT_TIMESTAMP")
+    int markMessageSaved(UUID id, String claimToken);
+
+    /**
+     * Mark the PR summary comment of an entry as posted; ignored once the claim's lease is lost
+     *
+     * @param id         the entry ID
+     * @param claimToken the token of the claim doing the work
+     * @return number of rows affected, 0 if the lease was lost
+     */
+    @Update("UPDATE review_outbox SET comment_posted = TRUE, updated_at = CURRENT_TIMESTAMP " + "WHERE id = #{id, javaType=java.util.UUID, jdbcType=OTHER} AND claim_token = #{claimToken, jdbcType=VARCHAR} AND status = 'PROCESSING' AND locked_until > CURRENT_TIMESTAMP")
+    int markCommentPosted(UUID id, String claimToken);
+
+    /**
+     * Mark an entry as fully published; ignored once the claim's lease is lost
+     *
+     * @param id         the entry ID
+     * @param claimToken the token of the claim doing the work
+     * @return number of rows affected, 0 if the lease was lost
+     */
+    @Update("UPDATE review_outbox SET status = 'DONE', last_error = NULL, locked_until = NULL, updated_at = CURRENT_TIMESTAMP " + "WHERE id = #{id, javaType=java.util.UUID, jdbcType=OTHER} AND claim_token = #{claimToken, jdbcType=VARCHAR} AND status = 'PROCESSING' AND locked_until > CURRENT_TIMESTAMP")
+    int markDone(UUID id, String claimToken);
+
+    /**
+     * Record a failed attempt; ignored once the claim's lease is lost
+     *
+     * @param id           the entry ID
+     * @param claimToken   the token of the claim doing the work
+     * @param status       PENDING to retry later, FAILED to give up
+     * @param lastError    the error message
+     * @param delaySeconds delay before the next attempt
+     * @return number of rows affected, 0 if the lease was lost
+     */
+    @Update("UPDATE review_outbox SET status = #{status, jdbcType=VARCHAR}, last_error = #{lastError, jdbcType=VARCHAR}, " + "next_attempt_at = CURRENT_TIMESTAMP + make_interval(secs => #{delaySeconds}), locked_until = NULL, updated_at = CURRENT_TIMESTAMP " + "WHERE id = #{id, javaType=java.util.UUID, jdbcType=OTHER} AND claim_token = #{claimToken, jdbcType=VARCHAR} AND status = 'PROCESSING' AND locked_until > CURRENT_TIMESTAMP")
+    int markFailed(UUID id, String claimToken, String status, String lastError, long delaySeconds);
+}
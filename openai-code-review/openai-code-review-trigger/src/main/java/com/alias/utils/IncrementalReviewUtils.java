@@ -0,0 +1,270 @@
+package com.alias.utils;
+
+import com.alias.domain.prompt.PromptBudgeter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental PR re-review against the last pr_snapshots entry.
+ * <p>
+ * 快照 file_changes 中保存上次审查的文件变更（files，每条 change 带所属 hunk 序号）与各文件的审查评论（reviews）。
+ * hunk 边界取自 diff 的 @@ 标头，再次审查时按 hunk 内容（变更类型 + 行内容，与行号无关）与上次快照比对：
+ * - 内容相同的 hunk 视为未变化，上次落在该 hunk 内的评论按行号偏移平移后沿用，并标记 carried（已发布过，不再重复发布）
+ * - 新出现或内容变化的 hunk 才发送给 LLM
+ * - 已消失的 hunk 上的评论丢弃
+ * 上次快照中没有审查结果或没有 hunk 序号的文件按全新文件处理
+ */
+public final class IncrementalReviewUtils {
+
+    public static final String FILES_KEY = "files";
+
+    public static final String REVIEWS_KEY = "reviews";
+
+    /**
+     * 沿用评论上的标记：上次审查已发布到 GitHub，本次只用于 SSE 输出、摘要与快照
+     */
+    public static final String CARRIED_KEY = "carried";
+
+    private static final String HUNK_KEY = "hunk";
+
+    private IncrementalReviewUtils() {
+    }
+
+    /**
+     * 单个文件的增量审查计划
+     */
+    public static final class FilePlan {
+        /**
+         * 需要送审的部分（只包含新增或变化的 hunk），为 null 表示所有 hunk 都未变化
+         */
+        public final VCSUtils.FileChanges changedPart;
+        /**
+         * 从上次审查沿用、已平移到当前行号的评论
+         */
+        public final List<JsonNode> carriedComments;
+        public final int unchangedHunks;
+        public final int changedHunks;
+        public final int removedHunks;
+
+        FilePlan(VCSUtils.FileChanges changedPart, List<JsonNode> carriedComments, int unchangedHunks, int changedHunks, int removedHunks) {
+            this.changedPart = changedPart;
+            this.carriedComments = carriedComments;
+            this.unchangedHunks = unchangedHunks;
+            this.changedHunks = changedHunks;
+            this.removedHunks = removedHunks;
+        }
+    }
+
+    /**
+     * 对比当前 diff 与上次快照，为每个能找到基线的文件生成增量审查计划
+     *
+     * @param mapper          ObjectMapper
+     * @param files           当前 diff 解析出的文件变更
+     * @param previousPayload 上次快照的 file_changes
+     * @return 文件路径 -> 计划；不在结果中的文件需要完整审查
+     */
+    public static Map<String, FilePlan> plan(ObjectMapper mapper, List<VCSUtils.FileChanges> files, Map<String, Object> previousPayload) {
+        Map<String, FilePlan> plans = new HashMap<>();
+        if (previousPayload == null || files == null) {
+            return plans;
+        }
+        Map<String, VCSUtils.FileChanges> previousFiles = readFiles(mapper, previousPayload.get(FILES_KEY));
+        JsonNode previousReviews = mapper.valueToTree(previousPayload.get(REVIEWS_KEY));
+        if (previousReviews == null || !previousReviews.isObject()) {
+            return plans;
+        }
+
+        for (VCSUtils.FileChanges file : files) {
+            VCSUtils.FileChanges previous = previousFiles.get(file.path);
+            JsonNode previousComments = previousReviews.get(file.path);
+            if (previous == null || previousComments == null || !previousComments.isArray()) {
+                continue;
+            }
+            plans.put(file.path, planFile(file, previous, previousComments));
+        }
+        return plans;
+    }
+
+    /**
+     * 生成快照 file_changes：当前文件变更 + 各文件审查评论（审查失败的文件不记录评论，下次完整审查）
+     */
+    public static Map<String, Object> buildPayload(ObjectMapper mapper, List<VCSUtils.FileChanges> files, Map<String, JsonNode> fileReviews) {
+        Map<String, Object> payload = new HashMap<>();
+        List<Map<String, Object>> filePayload = mapper.convertValue(files, new TypeReference<List<Map<String, Object>>>() {
+        });
+        // hunk 序号不参与 prompt 序列化，单独写入快照，供下次按 @@ 边界还原 hunk
+        for (int i = 0; i < files.size(); i++) {
+            Object changes = filePayload.get(i).get("changes");
+            if (changes instanceof List) {
+                List<?> changeList = (List<?>) changes;
+                for (int j = 0; j < changeList.size(); j++) {
+                    if (changeList.get(j) instanceof Map) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> change = (Map<String, Object>) changeList.get(j);
+                        change.put(HUNK_KEY, files.get(i).changes.get(j).hunk);
+                    }
+                }
+            }
+        }
+        payload.put(FILES_KEY, filePayload);
+        payload.put("totalFiles", files.size());
+
+        if (fileReviews != null) {
+            Map<String, Object> reviews = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonNode> entry : fileReviews.entrySet()) {
+                JsonNode comments = entry.getValue() != null ? entry.getValue().get("comments") : null;
+                if (comments != null && comments.isArray()) {
+                    reviews.put(entry.getKey(), mapper.convertValue(comments, new TypeReference<List<Object>>() {
+                    }));
+                }
+            }
+            payload.put(REVIEWS_KEY, reviews);
+        }
+        return payload;
+    }
+
+    /**
+     * 是否为从上次审查沿用的评论
+     */
+    public static boolean isCarried(JsonNode comment) {
+        return comment != null && comment.path(CARRIED_KEY).asBoolean(false);
+    }
+
+    /**
+     * 把沿用的评论合并到本次审查结果中
+     *
+     * @param fileReview 本次审查结果，为 null 时只返回沿用的评论
+     */
+    public static JsonNode mergeComments(ObjectMapper mapper, JsonNode fileReview, List<JsonNode> carriedComments) {
+        ObjectNode merged = fileReview != null && fileReview.isObject() ? ((ObjectNode) fileReview).deepCopy() : mapper.createObjectNode();
+        ArrayNode comments = mapper.createArrayNode();
+        comments.addAll(carriedComments);
+        JsonNode fresh = merged.get("comments");
+        if (fresh != null && fresh.isArray()) {
+            comments.addAll((ArrayNode) fresh);
+        }
+        merged.set("comments", comments);
+        return merged;
+    }
+
+    private static FilePlan planFile(VCSUtils.FileChanges file, VCSUtils.FileChanges previous, JsonNode previousComments) {
+        // 上次的 hunk 按内容签名分组，同一签名可出现多次，按顺序逐个匹配
+        List<List<VCSUtils.Change>> previousHunks = PromptBudgeter.splitHunks(previous.changes);
+        Map<String, Deque<List<VCSUtils.Change>>> bySignature = new HashMap<>();
+        for (List<VCSUtils.Change> hunk : previousHunks) {
+            bySignature.computeIfAbsent(signature(hunk), k -> new ArrayDeque<>()).add(hunk);
+        }
+
+        List<VCSUtils.Change> changed = new ArrayList<>();
+        List<JsonNode> carried = new ArrayList<>();
+        int unchangedHunks = 0;
+        int changedHunks = 0;
+        for (List<VCSUtils.Change> hunk : PromptBudgeter.splitHunks(file.changes)) {
+            Deque<List<VCSUtils.Change>> candidates = bySignature.get(signature(hunk));
+            List<VCSUtils.Change> matched = candidates != null ? candidates.poll() : null;
+            if (matched == null) {
+                changed.addAll(hunk);
+                changedHunks++;
+                continue;
+            }
+            unchangedHunks++;
+            int[] oldRange = newLineRange(matched);
+            if (oldRange == null) {
+                continue;
+            }
+            int offset = newLineRange(hunk)[0] - oldRange[0];
+            for (JsonNode comment : previousComments) {
+                int line = comment.path("line").asInt(-1);
+                if (comment.isObject() && line >= oldRange[0] && line <= oldRange[1]) {
+                    ObjectNode moved = ((ObjectNode) comment).deepCopy();
+                    moved.put("path", file.path);
+                    moved.put("line", line + offset);
+                    moved.put(CARRIED_KEY, true);
+                    carried.add(moved);
+                }
+            }
+        }
+
+        VCSUtils.FileChanges changedPart = null;
+        if (!changed.isEmpty()) {
+            changedPart = new VCSUtils.FileChanges(file.path, file.oldPath);
+            changedPart.changes.addAll(changed);
+            changedPart.linesChanged = changed.size();
+            changedPart.context.oldText = file.context.oldText;
+            changedPart.context.newText = file.context.newText;
+        }
+        int removedHunks = previousHunks.size() - unchangedHunks;
+        return new FilePlan(changedPart, carried, unchangedHunks, changedHunks, removedHunks);
+    }
+
+    private static String signature(List<VCSUtils.Change> hunk) {
+        StringBuilder sb = new StringBuilder();
+        for (VCSUtils.Change change : hunk) {
+            sb.append(change.type).append(':').append(change.content).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * hunk 中新增行在 head 中的行号范围，纯删除的 hunk 返回 null（其上不会有评论）
+     */
+    private static int[] newLineRange(List<VCSUtils.Change> hunk) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (VCSUtils.Change change : hunk) {
+            if (change.newLine != null) {
+                min = Math.min(min, change.newLine);
+                max = Math.max(max, change.newLine);
+            }
+        }
+        return min == Integer.MAX_VALUE ? null : new int[]{min, max};
+    }
+
+    /**
+     * 从快照 JSON 还原文件变更，只还原增量比对需要的 path 与 changes；缺少 hunk 序号的旧快照文件不还原
+     */
+    private static Map<String, VCSUtils.FileChanges> readFiles(ObjectMapper mapper, Object filesPayload) {
+        Map<String, VCSUtils.FileChanges> files = new HashMap<>();
+        JsonNode array = mapper.valueToTree(filesPayload);
+        if (array == null || !array.isArray()) {
+            return files;
+        }
+        for (JsonNode node : array) {
+            String path = ReviewJsonUtils.safeText(node, "path");
+            if (path == null) {
+                continue;
+            }
+            VCSUtils.FileChanges file = new VCSUtils.FileChanges(path, ReviewJsonUtils.safeText(node, "oldPath"));
+            boolean complete = true;
+            for (JsonNode change : node.path("changes")) {
+                if (!change.hasNonNull(HUNK_KEY)) {
+                    complete = false;
+                    break;
+                }
+                String type = ReviewJsonUtils.safeText(change, "type");
+                String content = ReviewJsonUtils.safeText(change, "content");
+                int hunk = change.get(HUNK_KEY).asInt();
+                if (VCSUtils.ChangeType.ADD.name().equalsIgnoreCase(type) && change.hasNonNull("newLine")) {
+                    file.changes.add(VCSUtils.Change.add(change.get("newLine").asInt(), content, hunk));
+                } else if (VCSUtils.ChangeType.DELETE.name().equalsIgnoreCase(type) && change.hasNonNull("oldLine")) {
+                    file.changes.add(VCSUtils.Change.delete(change.get("oldLine").asInt(), content, hunk));
+                }
+            }
+            if (complete) {
+                files.put(path, file);
+            }
+        }
+        return files;
+    }
+}
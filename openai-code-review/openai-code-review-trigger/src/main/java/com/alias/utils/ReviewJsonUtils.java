@@ -1,12 +1,20 @@
 package com.alias.utils;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.List;
 
 /**
  * Utilities for safe JSON field access and payload extraction/serialization.
  */
 public final class ReviewJsonUtils {
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     private ReviewJsonUtils() {
     }
 
@@ -60,9 +68,55 @@ public final class ReviewJsonUtils {
         return s.trim();
     }
 
+    /**
+     * 合并同一文件按 hunk 分组后得到的多份 review 结果：以第一份为基础，依次拼接各份的 comments
+     */
+    public static String mergeReviewParts(ObjectMapper mapper, List<String> parts) throws JsonProcessingException {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        ObjectNode merged = null;
+        ArrayNode comments = mapper.createArrayNode();
+        for (String part : parts) {
+            JsonNode node;
+            try {
+                node = mapper.readTree(part);
+            } catch (JsonProcessingException e) {
+                node = mapper.readTree(extractJsonPayload(part));
+            }
+            if (!(node instanceof ObjectNode)) {
+                continue;
+            }
+            if (merged == null) {
+                merged = (ObjectNode) node;
+            }
+            JsonNode partComments = node.get("comments");
+            if (partComments != null && partComments.isArray()) {
+                comments.addAll((ArrayNode) partComments);
+            }
+        }
+        if (merged == null) {
+            merged = mapper.createObjectNode();
+        }
+        merged.set("comments", comments);
+        return mapper.writeValueAsString(merged);
+    }
+
     public static String toJsonString(String s) {
         if (s == null) return "null";
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        appendJsonString(sb, s);
+        return sb.toString();
+    }
+
+    /**
+     * Append s as a quoted JSON string literal to sb, without intermediate allocations.
+     */
+    public static void appendJsonString(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
         sb.append('"');
         for (int i = 0; i < s.length(); i++) {
             char c = s.charAt(i);
@@ -90,14 +144,12 @@ public final class ReviewJsonUtils {
                     break;
                 default:
                     if (c < 0x20) {
-                        sb.append(String.format("\\u%04x", (int) c));
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
                     } else {
                         sb.append(c);
                     }
             }
         }
         sb.append('"');
-        return sb.toString();
     }
 }
-
@@ -0,0 +1,310 @@
+package com.alias.utils;
+
+import org.reactivestreams.Subscription;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SSE writer bound to a single SseEmitter.
+ * <p>
+ * 所有事件统一使用 {"content": ..., "conversationId": ...[, "fileIndex": ..., "filePath": ...]} 负载，
+ * 事件 ID 为单调递增的序号；对同一个 emitter 的写入串行化，可在多个线程中共享。
+ * 高频 token 流通过 {@link #tokens(String)} 合并为帧：累计字符数达到 maxFrameChars 或缓冲内容等待超过 maxFrameDelayMillis 时发送一次，
+ * 以先到者为准；时间预算由定时任务保证，模型中途停顿时已缓冲的内容也会按时发出。
+ * <p>
+ * {@link #bridge} / {@link #collect} 以非阻塞方式订阅上游 Flux（逐个 request 形成背压），
+ * 客户端断开（发送失败或 emitter 出错）时取消所有仍在进行的上游订阅
+ */
+public class SseStreamWriter {
+
+    public static final int DEFAULT_MAX_FRAME_CHARS = 256;
+
+    public static final long DEFAULT_MAX_FRAME_DELAY_MILLIS = 50;
+
+    private final SseEmitter emitter;
+
+    private final String conversationId;
+
+    private final int maxFrameChars;
+
+    private final long maxFrameDelayMillis;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    // 仍在进行的上游订阅，客户端断开时统一取消
+    private final Disposable.Composite subscriptions = Disposables.composite();
+
+    private volatile boolean closed;
+
+    // 负载拼装缓冲区，在 emitter 锁内复用
+    private final StringBuilder payload = new StringBuilder(512);
+
+    public SseStreamWriter(SseEmitter emitter, String conversationId) {
+        this(emitter, conversationId, DEFAULT_MAX_FRAME_CHARS, DEFAULT_MAX_FRAME_DELAY_MILLIS);
+    }
+
+    public SseStreamWriter(SseEmitter emitter, String conversationId, int maxFrameChars, long maxFrameDelayMillis) {
+        this.emitter = emitter;
+        this.conversationId = conversationId != null ? conversationId : "";
+        this.maxFrameChars = maxFrameChars;
+        this.maxFrameDelayMillis = maxFrameDelayMillis;
+        emitter.onError(e -> close());
+    }
+
+    public SseEmitter getEmitter() {
+        return emitter;
+    }
+
+    /**
+     * 发送一个带 content 负载的事件
+     */
+    public void send(String eventName, String content) throws IOException {
+        send(eventName, content, null, null);
+    }
+
+    /**
+     * 发送一个带文件信息的事件（fileIndex / filePath）
+     */
+    public void send(String eventName, String content, Integer fileIndex, String filePath) throws IOException {
+        synchronized (emitter) {
+            payload.setLength(0);
+            payload.append("{\"content\":");
+            ReviewJsonUtils.appendJsonString(payload, content != null ? content : "");
+            payload.append(",\"conversationId\":");
+            ReviewJsonUtils.appendJsonString(payload, conversationId);
+            if (fileIndex != null) {
+                payload.append(",\"fileIndex\":").append(fileIndex.intValue());
+            }
+            if (filePath != null) {
+                payload.append(",\"filePath\":");
+                ReviewJsonUtils.appendJsonString(payload, filePath);
+            }
+            payload.append('}');
+            doSend(SseEmitter.event().id(nextId()).name(eventName).data(payload.toString()));
+        }
+    }
+
+    /**
+     * 发送原始数据（不包装为 JSON 负载），例如 complete 事件
+     */
+    public void sendRaw(String eventName, String data) throws IOException {
+        synchronized (emitter) {
+            doSend(SseEmitter.event().id(nextId()).name(eventName).data(data));
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 客户端已断开：取消所有上游订阅，之后的发送直接失败
+     */
+    public void close() {
+        closed = true;
+        subscriptions.dispose();
+    }
+
+    /**
+     * 非阻塞地把 token 流桥接到 SSE：token 按帧合并后以 eventName 事件发送
+     *
+     * @return 上游结束时以完整文本完成；上游出错、客户端断开时异常完成
+     */
+    public CompletableFuture<String> bridge(Flux<String> tokens, String eventName) {
+        return bridge(tokens, eventName, null, null);
+    }
+
+    public CompletableFuture<String> bridge(Flux<String> tokens, String eventName, Integer fileIndex, String filePath) {
+        return subscribe(tokens, tokens(eventName, fileIndex, filePath));
+    }
+
+    /**
+     * 非阻塞地收集 token 流而不转发给客户端，客户端断开时同样取消上游
+     */
+    public CompletableFuture<String> collect(Flux<String> tokens) {
+        return subscribe(tokens, null);
+    }
+
+    private CompletableFuture<String> subscribe(Flux<String> tokens, TokenStream stream) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new CancellationException("SSE client disconnected"));
+            return result;
+        }
+        StringBuilder full = new StringBuilder();
+        BaseSubscriber<String> subscriber = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(1);
+            }
+
+            @Override
+            protected void hookOnNext(String token) {
+                full.append(token);
+                try {
+                    if (stream != null) {
+                        stream.append(token);
+                    }
+                } catch (IOException e) {
+                    cancel();
+                    result.completeExceptionally(e);
+                    return;
+                }
+                request(1);
+            }
+
+            @Override
+            protected void hookOnComplete() {
+                try {
+                    if (stream != null) {
+                        stream.flush();
+                    }
+                    result.complete(full.toString());
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            protected void hookOnError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            protected void hookOnCancel() {
+                result.completeExceptionally(new CancellationException("SSE client disconnected"));
+            }
+
+            @Override
+            protected void hookFinally(SignalType type) {
+                if (stream != null) {
+                    stream.close();
+                }
+                subscriptions.remove(this);
+            }
+        };
+        subscriptions.add(subscriber);
+        // 发送与拼接在 boundedElastic 上进行，不占用上游 IO 线程；prefetch 限制了缓冲的 token 数
+        tokens.publishOn(Schedulers.boundedElastic(), 32).subscribe(subscriber);
+        return result;
+    }
+
+    private void doSend(SseEmitter.SseEventBuilder event) throws IOException {
+        if (closed) {
+            throw new IOException("SSE client disconnected");
+        }
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 创建一个 token 流，合并后以 eventName 事件发送
+     */
+    public TokenStream tokens(String eventName) {
+        return new TokenStream(eventName, null, null);
+    }
+
+    public TokenStream tokens(String eventName, Integer fileIndex, String filePath) {
+        return new TokenStream(eventName, fileIndex, filePath);
+    }
+
+    private String nextId() {
+        return Long.toString(sequence.incrementAndGet());
+    }
+
+    /**
+     * 单个 token 流的合并缓冲区，应由产生 token 的单一订阅者追加；定时发送在 parallel 调度器上执行，缓冲区访问已同步
+     */
+    public final class TokenStream {
+
+        private final String eventName;
+
+        private final Integer fileIndex;
+
+        private final String filePath;
+
+        private final StringBuilder pending = new StringBuilder(maxFrameChars * 2);
+
+        private long lastFlushAt = System.currentTimeMillis();
+
+        // 缓冲区非空时等待发送的定时任务，发送或关闭时取消
+        private Disposable timer;
+
+        private TokenStream(String eventName, Integer fileIndex, String filePath) {
+            this.eventName = eventName;
+            this.fileIndex = fileIndex;
+            this.filePath = filePath;
+        }
+
+        /**
+         * 追加 token，达到字符或时间预算时发送一帧；新一帧的首个 token 到达时安排定时发送
+         */
+        public synchronized void append(String token) throws IOException {
+            if (token == null || token.isEmpty()) {
+                return;
+            }
+            boolean frameStarted = pending.length() == 0;
+            pending.append(token);
+            long now = System.currentTimeMillis();
+            if (pending.length() >= maxFrameChars || now - lastFlushAt >= maxFrameDelayMillis) {
+                flush();
+            } else if (frameStarted && timer == null) {
+                timer = Schedulers.parallel().schedule(this::timedFlush, maxFrameDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 立即发送缓冲区中剩余的内容
+         */
+        public synchronized void flush() throws IOException {
+            cancelTimer();
+            lastFlushAt = System.currentTimeMillis();
+            if (pending.length() == 0) {
+                return;
+            }
+            String frame = pending.toString();
+            pending.setLength(0);
+            send(eventName, frame, fileIndex, filePath);
+        }
+
+        /**
+         * 取消等待中的定时发送，缓冲区中未发送的内容丢弃
+         */
+        public synchronized void close() {
+            cancelTimer();
+            pending.setLength(0);
+        }
+
+        private synchronized void timedFlush() {
+            // 当前定时任务已在执行，不再取消它自身
+            timer = null;
+            try {
+                flush();
+            } catch (IOException e) {
+                // 发送失败时 doSend 已关闭 writer 并取消上游订阅，结果由订阅者异常完成
+            }
+        }
+
+        private void cancelTimer() {
+            if (timer != null) {
+                timer.dispose();
+                timer = null;
+            }
+        }
+    }
+}
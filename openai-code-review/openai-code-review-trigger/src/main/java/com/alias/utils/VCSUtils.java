@@ -1,8 +1,19 @@
 package com.alias.utils;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -22,73 +33,19 @@ public class VCSUtils {
      * @return FileChanges 结构化变更对象
      */
     public static FileChanges parseSingleFileDiff(String diffText, String filePath, String oldFilePath) {
-        FileChanges fileChanges = new FileChanges(filePath, oldFilePath);
-
-        int oldLineNumStart = 0;
-        int newLineNumStart = 0;
-        int oldLineNumCurrent = 0;
-        int newLineNumCurrent = 0;
-
-        List<String> hunkContextLines = new ArrayList<>();
-
-        String[] lines = diffText == null ? new String[0] : diffText.split("\\R", -1);
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i];
-            if (line.startsWith("--- ") || line.startsWith("+++ ")) {
-                continue;
-            } else if (line.startsWith("@@ ")) {
-                Matcher matcher = HUNK_HEADER.matcher(line);
-                if (matcher.find()) {
-                    oldLineNumStart = parseInt(matcher.group(1), 0);
-                    newLineNumStart = parseInt(matcher.group(3), 0);
-                    oldLineNumCurrent = oldLineNumStart;
-                    newLineNumCurrent = newLineNumStart;
-                    if (!hunkContextLines.isEmpty()) {
-                        fileChanges.context.oldTextLines.addAll(hunkContextLines);
-                        fileChanges.context.newTextLines.addAll(hunkContextLines);
-                        hunkContextLines = new ArrayList<>();
-                    }
-                } else {
-                    LOG.warning("警告: 无法解析 " + filePath + " 中的 hunk 标头: " + line);
-                    oldLineNumStart = 0;
-                    newLineNumStart = 0;
-                    oldLineNumCurrent = 0;
-                    newLineNumCurrent = 0;
+        FileDiffAccumulator accumulator = new FileDiffAccumulator(filePath, oldFilePath);
+        if (diffText != null) {
+            try (BufferedReader reader = new BufferedReader(new StringReader(diffText))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    accumulator.accept(line);
                 }
-            } else if (line.startsWith("+")) {
-                fileChanges.changes.add(Change.add(newLineNumCurrent, slice(line, 1)));
-                newLineNumCurrent += 1;
-            } else if (line.startsWith("-")) {
-                fileChanges.changes.add(Change.delete(oldLineNumCurrent, slice(line, 1)));
-                oldLineNumCurrent += 1;
-            } else if (line.startsWith(" ")) {
-                hunkContextLines.add(oldLineNumCurrent + " -> " + newLineNumCurrent + ": " + slice(line, 1));
-                oldLineNumCurrent += 1;
-                newLineNumCurrent += 1;
-            } else {
-                // 其他行（例如 \ No newline at end of file），忽略
-            }
-        }
-
-        if (!hunkContextLines.isEmpty()) {
-            fileChanges.context.oldTextLines.addAll(hunkContextLines);
-            fileChanges.context.newTextLines.addAll(hunkContextLines);
-        }
-
-        // 限制上下文行数，并拼接为字符串
-        fileChanges.context.oldText = joinTail(fileChanges.context.oldTextLines, CONTEXT_LIMIT);
-        fileChanges.context.newText = joinTail(fileChanges.context.newTextLines, CONTEXT_LIMIT);
-
-        // 变更行数统计（仅统计 add/delete）
-        int count = 0;
-        for (Change c : fileChanges.changes) {
-            if (c.type == ChangeType.ADD || c.type == ChangeType.DELETE) {
-                count += 1;
+            } catch (IOException e) {
+                // StringReader 不会抛出 IOException
+                throw new UncheckedIOException(e);
             }
         }
-        fileChanges.linesChanged = count;
-
-        return fileChanges;
+        return accumulator.build();
     }
 
     private static int parseInt(String text, int defaultValue) {
@@ -135,51 +92,60 @@ public class VCSUtils {
         if (unifiedDiff == null || unifiedDiff.isEmpty()) {
             return results;
         }
-        String[] lines = unifiedDiff.split("\\R", -1);
+        try {
+            parseUnifiedDiff(new StringReader(unifiedDiff), results::add);
+        } catch (IOException e) {
+            // StringReader 不会抛出 IOException
+            throw new UncheckedIOException(e);
+        }
+        return results;
+    }
 
-        StringBuilder currentBuffer = new StringBuilder();
-        String currentOldPath = null;
-        String currentNewPath = null;
-        boolean inFile = false;
+    /**
+     * 以流的方式解析 unified diff（UTF-8），例如直接读取 HTTP 响应体。
+     *
+     * @param in       diff 输入流，由调用方负责关闭
+     * @param consumer 每解析完一个文件回调一次
+     */
+    public static void parseUnifiedDiff(InputStream in, Consumer<FileChanges> consumer) throws IOException {
+        parseUnifiedDiff(new InputStreamReader(in, StandardCharsets.UTF_8), consumer);
+    }
 
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i];
+    /**
+     * 单遍流式解析 unified diff：逐行读取，每遇到下一个文件头即输出上一个文件的 FileChanges，
+     * 不需要把完整 diff 拆成行数组或按文件复制缓冲区。已删除的文件不会输出。
+     *
+     * @param reader   diff 字符流，由调用方负责关闭
+     * @param consumer 每解析完一个文件回调一次
+     */
+    public static void parseUnifiedDiff(Reader reader, Consumer<FileChanges> consumer) throws IOException {
+        BufferedReader buffered = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        FileDiffAccumulator current = null;
+        String line;
+        while ((line = buffered.readLine()) != null) {
             if (line.startsWith(DIFF_FILE_PREFIX)) {
                 // flush previous file
-                if (inFile) {
-                    FileChanges fc = flushOne(currentBuffer, currentOldPath, currentNewPath);
-                    if (!isDeletedFile(fc)) {
-                        results.add(fc);
-                    }
-                    currentBuffer = new StringBuilder();
-                    currentOldPath = null;
-                    currentNewPath = null;
-                }
-                inFile = true;
-                currentBuffer.append(line).append('\n');
+                emit(current, consumer);
+                current = new FileDiffAccumulator(null, null);
                 continue;
             }
-            if (!inFile) {
+            if (current == null) {
                 // skip headers before first file
                 continue;
             }
-            // track paths
-            if (line.startsWith("--- ")) {
-                currentOldPath = normalizePathFromMarker(line.substring(4));
-            } else if (line.startsWith("+++ ")) {
-                currentNewPath = normalizePathFromMarker(line.substring(4));
-            }
-            currentBuffer.append(line).append('\n');
-        }
-        if (inFile) {
-            results.add(flushOne(currentBuffer, currentNewPath, currentOldPath));
+            current.accept(line);
         }
-        return results;
+        emit(current, consumer);
     }
 
-    private static FileChanges flushOne(StringBuilder buf, String newPath, String oldPath) {
-        String fp = newPath != null ? newPath : (oldPath != null ? oldPath : "");
-        return parseSingleFileDiff(buf.toString(), fp, oldPath);
+    private static void emit(FileDiffAccumulator accumulator, Consumer<FileChanges> consumer) {
+        if (accumulator == null) {
+            return;
+        }
+        FileChanges fc = accumulator.build();
+        if (!isDeletedFile(fc)) {
+            consumer.accept(fc);
+        }
     }
 
     private static String normalizePathFromMarker(String markerPath) {
@@ -214,6 +180,99 @@ public class VCSUtils {
         return !hasAdditionsOrModifications;
     }
 
+    /**
+     * 单个文件的增量解析状态，逐行喂入，build() 时生成 FileChanges
+     */
+    private static final class FileDiffAccumulator {
+        private final String fixedPath;
+        private final String fixedOldPath;
+        private String markerOldPath;
+        private String markerNewPath;
+        private boolean inHunk = false;
+        private int hunkIndex = -1;
+        private int oldLineNumCurrent = 0;
+        private int newLineNumCurrent = 0;
+        private final List<Change> changes = new ArrayList<>();
+        private final List<String> contextLines = new ArrayList<>();
+        private List<String> hunkContextLines = new ArrayList<>();
+
+        FileDiffAccumulator(String fixedPath, String fixedOldPath) {
+            this.fixedPath = fixedPath;
+            this.fixedOldPath = fixedOldPath;
+        }
+
+        void accept(String line) {
+            // ---/+++ 只在第一个 hunk 之前作为文件头处理，hunk 内以 "--"/"++" 开头的内容行按删除/新增处理
+            if (!inHunk && (line.startsWith("--- ") || line.startsWith("+++ "))) {
+                if (line.startsWith("--- ")) {
+                    markerOldPath = normalizePathFromMarker(line.substring(4));
+                } else {
+                    markerNewPath = normalizePathFromMarker(line.substring(4));
+                }
+            } else if (line.startsWith("@@ ")) {
+                inHunk = true;
+                hunkIndex += 1;
+                Matcher matcher = HUNK_HEADER.matcher(line);
+                if (matcher.find()) {
+                    oldLineNumCurrent = parseInt(matcher.group(1), 0);
+                    newLineNumCurrent = parseInt(matcher.group(3), 0);
+                    if (!hunkContextLines.isEmpty()) {
+                        contextLines.addAll(hunkContextLines);
+                        hunkContextLines = new ArrayList<>();
+                    }
+                } else {
+                    LOG.warning("警告: 无法解析 " + resolvePath() + " 中的 hunk 标头: " + line);
+                    oldLineNumCurrent = 0;
+                    newLineNumCurrent = 0;
+                }
+            } else if (!inHunk) {
+                // diff --git / index / mode 等文件头，忽略
+            } else if (line.startsWith("+")) {
+                changes.add(Change.add(newLineNumCurrent, slice(line, 1), hunkIndex));
+                newLineNumCurrent += 1;
+            } else if (line.startsWith("-")) {
+                changes.add(Change.delete(oldLineNumCurrent, slice(line, 1), hunkIndex));
+                oldLineNumCurrent += 1;
+            } else if (line.startsWith(" ")) {
+                hunkContextLines.add(oldLineNumCurrent + " -> " + newLineNumCurrent + ": " + slice(line, 1));
+                oldLineNumCurrent += 1;
+                newLineNumCurrent += 1;
+            } else {
+                // 其他行（例如 \ No newline at end of file），忽略
+            }
+        }
+
+        private String resolvePath() {
+            if (fixedPath != null) {
+                return fixedPath;
+            }
+            return markerNewPath != null ? markerNewPath : (markerOldPath != null ? markerOldPath : "");
+        }
+
+        FileChanges build() {
+            FileChanges fileChanges = new FileChanges(resolvePath(), fixedPath != null ? fixedOldPath : markerOldPath);
+            fileChanges.changes.addAll(changes);
+            fileChanges.context.oldTextLines.addAll(contextLines);
+            fileChanges.context.newTextLines.addAll(contextLines);
+            fileChanges.context.oldTextLines.addAll(hunkContextLines);
+            fileChanges.context.newTextLines.addAll(hunkContextLines);
+
+            // 限制上下文行数，并拼接为字符串
+            fileChanges.context.oldText = joinTail(fileChanges.context.oldTextLines, CONTEXT_LIMIT);
+            fileChanges.context.newText = joinTail(fileChanges.context.newTextLines, CONTEXT_LIMIT);
+
+            // 变更行数统计（仅统计 add/delete）
+            int count = 0;
+            for (Change c : fileChanges.changes) {
+                if (c.type == ChangeType.ADD || c.type == ChangeType.DELETE) {
+                    count += 1;
+                }
+            }
+            fileChanges.linesChanged = count;
+            return fileChanges;
+        }
+    }
+
     // ===== 数据结构 =====
 
     public enum ChangeType {
@@ -225,20 +284,34 @@ public class VCSUtils {
         public final Integer oldLine; // 对于 ADD 为 null
         public final Integer newLine; // 对于 DELETE 为 null
         public final String content;
+        /**
+         * 所属 hunk 在文件 diff 中的序号（按 @@ 标头划分，从 0 开始）；不写入 prompt JSON
+         */
+        @JsonIgnore
+        public final int hunk;
 
-        private Change(ChangeType type, Integer oldLine, Integer newLine, String content) {
+        private Change(ChangeType type, Integer oldLine, Integer newLine, String content, int hunk) {
             this.type = Objects.requireNonNull(type, "type");
             this.oldLine = oldLine;
             this.newLine = newLine;
             this.content = content == null ? "" : content;
+            this.hunk = hunk;
         }
 
         public static Change add(Integer newLine, String content) {
-            return new Change(ChangeType.ADD, null, newLine, content);
+            return add(newLine, content, 0);
+        }
+
+        public static Change add(Integer newLine, String content, int hunk) {
+            return new Change(ChangeType.ADD, null, newLine, content, hunk);
         }
 
         public static Change delete(Integer oldLine, String content) {
-            return new Change(ChangeType.DELETE, oldLine, null, content);
+            return delete(oldLine, content, 0);
+        }
+
+        public static Change delete(Integer oldLine, String content, int hunk) {
+            return new Change(ChangeType.DELETE, oldLine, null, content, hunk);
         }
 
         @Override
@@ -0,0 +1,52 @@
+package com.alias.test;
+
+import com.alias.domain.model.ChatContext;
+import com.alias.domain.model.ChatMessage;
+import com.alias.domain.utils.ChatUtils;
+import com.alias.utils.VCSUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class ChatUtilsTest {
+
+    @Test
+    public void test_detectIntent_local() {
+        // 高置信度的消息由本地规则直接判断，不依赖 aiConversationService
+        Assert.assertEquals(ChatUtils.IntentType.CODE_REVIEW, ChatUtils.detectIntent("please look at https://github.com/AliasJeff/alias-rag-review/pull/12", (ChatContext) null));
+        Assert.assertEquals(ChatUtils.IntentType.CODE_REVIEW, ChatUtils.detectIntent("Can you do a code review for me?", (ChatContext) null));
+        Assert.assertEquals(ChatUtils.IntentType.GENERAL_CHAT, ChatUtils.detectIntent("Hello!", (ChatContext) null));
+        Assert.assertEquals(ChatUtils.IntentType.GENERAL_CHAT, ChatUtils.detectIntent("show me how to write a haiku", (ChatContext) null));
+    }
+
+    @Test
+    public void test_detectIntent_followup() {
+        ChatContext context = ChatContext.builder().conversationId("c1").build();
+        context.addMessage(ChatMessage.builder().role("user").content("review https://github.com/a/b/pull/1").build());
+        context.addMessage(ChatMessage.builder().role("assistant").content("Found 3 issues in Foo.java").build());
+        context.addMessage(ChatMessage.builder().role("user").content("Why is that suggestion needed?").build());
+
+        Assert.assertEquals(ChatUtils.IntentType.REVIEW_FOLLOWUP, ChatUtils.detectIntent("Why is that suggestion needed?", context));
+    }
+
+    @Test
+    public void test_toRagQuery_capped() {
+        StringBuilder diff = new StringBuilder("diff --git a/gen/Big.java b/gen/Big.java\n--- a/gen/Big.java\n+++ b/gen/Big.java\n@@ -0,0 +1,2000 @@\n");
+        for (int i = 0; i < 2000; i++) {
+            diff.append("+    int field").append(i).append(" = ").append(i).append(";\n");
+        }
+        VCSUtils.FileChanges file = VCSUtils.parseUnifiedDiff(diff.toString()).get(0);
+
+        String query = ChatUtils.toRagQuery(file);
+        Assert.assertTrue(query.length() <= ChatUtils.RAG_QUERY_MAX_CHARS_PER_FILE);
+        Assert.assertTrue(query.startsWith("    int field0 = 0;\n"));
+        Assert.assertTrue(query.endsWith(";\n"));
+    }
+
+    @Test
+    public void test_mergeRagContexts_roundRobinDedup() {
+        String merged = ChatUtils.mergeRagContexts(Arrays.asList("a1\n---\na2\n---\nshared", "b1\n---\nshared", "", null));
+        Assert.assertEquals("a1\n---\nb1\n---\na2\n---\nshared", merged);
+    }
+}
@@ -0,0 +1,41 @@
+package com.alias.test;
+
+import com.alias.infrastructure.git.GitHubRateLimit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.http.HttpHeaders;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class GitHubRateLimitTest {
+
+    private static HttpHeaders headers(String... nameValues) {
+        Map<String, List<String>> map = new HashMap<>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            map.put(nameValues[i], Collections.singletonList(nameValues[i + 1]));
+        }
+        return HttpHeaders.of(map, (name, value) -> true);
+    }
+
+    @Test
+    public void test_reserve_spreadsRemainingBudgetUntilReset() {
+        long resetAt = System.currentTimeMillis() / 1000 + 100;
+        GitHubRateLimit.update(headers("X-RateLimit-Remaining", "10", "X-RateLimit-Reset", String.valueOf(resetAt)));
+        Assert.assertEquals(10, GitHubRateLimit.getRemaining());
+
+        long first = GitHubRateLimit.reserve(0);
+        long second = GitHubRateLimit.reserve(0);
+        // 剩余 10 次、约 100 秒后重置：相邻请求间隔约 10 秒
+        long gap = second - first;
+        Assert.assertTrue("gap=" + gap, gap > 8_000 && gap <= 10_500);
+
+        // 额度恢复后只保持最小间隔
+        GitHubRateLimit.update(headers("X-RateLimit-Remaining", "4000", "X-RateLimit-Reset", String.valueOf(resetAt)));
+        List<Long> waits = Arrays.asList(GitHubRateLimit.reserve(1000), GitHubRateLimit.reserve(1000));
+        Assert.assertTrue(waits.get(1) - waits.get(0) >= 900 && waits.get(1) - waits.get(0) <= 1100);
+    }
+}
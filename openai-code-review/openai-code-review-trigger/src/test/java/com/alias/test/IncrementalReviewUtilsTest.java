@@ -0,0 +1,101 @@
+package com.alias.test;
+
+import com.alias.utils.IncrementalReviewUtils;
+import com.alias.utils.VCSUtils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class IncrementalReviewUtilsTest {
+
+    private static final String HEADER = "diff --git a/src/A.java b/src/A.java\n--- a/src/A.java\n+++ b/src/A.java\n";
+
+    private static final String FIRST_PUSH = HEADER + "@@ -10,0 +10,2 @@\n+String a = load();\n+a.trim();\n" + "@@ -50,0 +52,1 @@\n+int b = 1;\n";
+
+    // 第二次推送：顶部新增一个 hunk（后续行号下移 5 行），第一个 hunk 内容不变，第二个 hunk 内容变化
+    private static final String SECOND_PUSH = HEADER + "@@ -1,0 +1,5 @@\n+import a;\n+import b;\n+import c;\n+import d;\n+import e;\n" + "@@ -10,0 +15,2 @@\n+String a = load();\n+a.trim();\n" + "@@ -50,0 +57,1 @@\n+int b = 2;\n";
+
+    // 修改型 hunk（删除旧行 + 新增新行），第二次推送在其上方插入 5 行，hunk 本身不变
+    private static final String MODIFIED_FIRST_PUSH = HEADER + "@@ -10,1 +10,1 @@\n-int x = 1;\n+int x = 2;\n";
+
+    private static final String MODIFIED_SECOND_PUSH = HEADER + "@@ -1,0 +1,5 @@\n+import a;\n+import b;\n+import c;\n+import d;\n+import e;\n" + "@@ -10,1 +15,1 @@\n-int x = 1;\n+int x = 2;\n";
+
+    private static Map<String, Object> snapshot(ObjectMapper mapper, String diff, String review) throws Exception {
+        List<VCSUtils.FileChanges> files = VCSUtils.parseUnifiedDiff(diff);
+        JsonNode fileReview = mapper.readTree(review);
+        return mapper.convertValue(IncrementalReviewUtils.buildPayload(mapper, files, Collections.singletonMap("src/A.java", fileReview)), new TypeReference<Map<String, Object>>() {
+        });
+    }
+
+    @Test
+    public void test_plan_modifiedHunkShiftedByInsertAbove() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Object> snapshot = snapshot(mapper, MODIFIED_FIRST_PUSH, "{\"comments\":[{\"path\":\"src/A.java\",\"line\":10,\"body\":\"why 2?\"}]}");
+
+        IncrementalReviewUtils.FilePlan plan = IncrementalReviewUtils.plan(mapper, VCSUtils.parseUnifiedDiff(MODIFIED_SECOND_PUSH), snapshot).get("src/A.java");
+
+        Assert.assertNotNull(plan);
+        Assert.assertEquals(1, plan.unchangedHunks);
+        Assert.assertEquals(1, plan.changedHunks);
+        Assert.assertEquals(0, plan.removedHunks);
+        // 只送审新增的 5 行 import
+        Assert.assertEquals(5, plan.changedPart.changes.size());
+        Assert.assertEquals(1, plan.carriedComments.size());
+        Assert.assertEquals(15, plan.carriedComments.get(0).get("line").asInt());
+        Assert.assertTrue(IncrementalReviewUtils.isCarried(plan.carriedComments.get(0)));
+    }
+
+    @Test
+    public void test_plan_snapshotWithoutHunkIdsNeedsFullReview() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Object> snapshot = snapshot(mapper, MODIFIED_FIRST_PUSH, "{\"comments\":[{\"path\":\"src/A.java\",\"line\":10,\"body\":\"why 2?\"}]}");
+        for (Object file : (List<?>) snapshot.get(IncrementalReviewUtils.FILES_KEY)) {
+            for (Object change : (List<?>) ((Map<?, ?>) file).get("changes")) {
+                ((Map<?, ?>) change).remove("hunk");
+            }
+        }
+
+        Assert.assertNull(IncrementalReviewUtils.plan(mapper, VCSUtils.parseUnifiedDiff(MODIFIED_SECOND_PUSH), snapshot).get("src/A.java"));
+    }
+
+    @Test
+    public void test_plan_carriesForwardCommentsOnUnchangedHunks() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<VCSUtils.FileChanges> first = VCSUtils.parseUnifiedDiff(FIRST_PUSH);
+        JsonNode firstReview = mapper.readTree("{\"comments\":[{\"path\":\"src/A.java\",\"line\":11,\"body\":\"trim result is ignored\"},{\"path\":\"src/A.java\",\"line\":52,\"body\":\"magic number\"}]}");
+        Map<String, Object> snapshot = mapper.convertValue(IncrementalReviewUtils.buildPayload(mapper, first, Collections.singletonMap("src/A.java", firstReview)), new TypeReference<Map<String, Object>>() {
+        });
+
+        List<VCSUtils.FileChanges> second = VCSUtils.parseUnifiedDiff(SECOND_PUSH);
+        IncrementalReviewUtils.FilePlan plan = IncrementalReviewUtils.plan(mapper, second, snapshot).get("src/A.java");
+
+        Assert.assertNotNull(plan);
+        Assert.assertEquals(1, plan.unchangedHunks);
+        Assert.assertEquals(2, plan.changedHunks);
+        Assert.assertEquals(1, plan.removedHunks);
+        // 只送审新增的 import 与变化的 int b
+        Assert.assertEquals(6, plan.changedPart.changes.size());
+        // 未变化 hunk 上的评论平移 5 行后沿用，已变化 hunk 上的评论丢弃
+        Assert.assertEquals(1, plan.carriedComments.size());
+        Assert.assertEquals(16, plan.carriedComments.get(0).get("line").asInt());
+    }
+
+    @Test
+    public void test_plan_unchangedFileNeedsNoReview() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<VCSUtils.FileChanges> first = VCSUtils.parseUnifiedDiff(FIRST_PUSH);
+        JsonNode firstReview = mapper.readTree("{\"comments\":[{\"path\":\"src/A.java\",\"line\":52,\"body\":\"magic number\"}]}");
+        Map<String, Object> snapshot = mapper.convertValue(IncrementalReviewUtils.buildPayload(mapper, first, Collections.singletonMap("src/A.java", firstReview)), new TypeReference<Map<String, Object>>() {
+        });
+
+        IncrementalReviewUtils.FilePlan plan = IncrementalReviewUtils.plan(mapper, VCSUtils.parseUnifiedDiff(FIRST_PUSH), snapshot).get("src/A.java");
+        Assert.assertNull(plan.changedPart);
+        Assert.assertEquals(1, IncrementalReviewUtils.mergeComments(mapper, null, plan.carriedComments).get("comments").size());
+    }
+}
@@ -0,0 +1,58 @@
+package com.alias.test;
+
+import com.alias.domain.prompt.PromptBudgeter;
+import com.alias.domain.prompt.ReviewPrompts;
+import com.alias.utils.VCSUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class PromptBudgeterTest {
+
+    private static String diff(int hunks, int linesPerHunk) {
+        StringBuilder sb = new StringBuilder("diff --git a/src/Big.java b/src/Big.java\n--- a/src/Big.java\n+++ b/src/Big.java\n");
+        int line = 1;
+        for (int h = 0; h < hunks; h++) {
+            sb.append("@@ -").append(line).append(",0 +").append(line).append(',').append(linesPerHunk).append(" @@\n");
+            for (int i = 0; i < linesPerHunk; i++) {
+                sb.append("+    String value").append(h).append('_').append(i).append(" = service.load(\"key-").append(i).append("\");\n");
+            }
+            line += linesPerHunk + 100;
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void test_fitRagDocuments_dropsLowestScoredFirst() {
+        List<String> docs = Arrays.asList("most relevant snippet", "second snippet", "least relevant snippet with a lot more text in it than the others");
+        int budget = PromptBudgeter.estimate(docs.get(0)) + PromptBudgeter.estimate(PromptBudgeter.RAG_DOCUMENT_SEPARATOR) + PromptBudgeter.estimate(docs.get(1));
+
+        Assert.assertEquals(docs.subList(0, 2), PromptBudgeter.fitRagDocuments(docs, budget));
+        Assert.assertEquals(docs, PromptBudgeter.fitRagDocuments(docs, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void test_buildFilePrompts_splitsOversizeFileIntoHunkGroups() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        VCSUtils.FileChanges file = VCSUtils.parseUnifiedDiff(diff(6, 40)).get(0);
+
+        List<String> single = new PromptBudgeter(PromptBudgeter.DEFAULT_MAX_PROMPT_TOKENS).buildFilePrompts(mapper, ReviewPrompts.PR_REVIEW_PROMPT, file, "doc1");
+        Assert.assertEquals(1, single.size());
+
+        int maxTokens = PromptBudgeter.estimate(ReviewPrompts.PR_REVIEW_PROMPT) + 3000;
+        List<String> groups = new PromptBudgeter(maxTokens).buildFilePrompts(mapper, ReviewPrompts.PR_REVIEW_PROMPT, file, "doc1");
+        Assert.assertTrue(groups.size() > 1);
+        for (String prompt : groups) {
+            Assert.assertTrue(PromptBudgeter.estimate(prompt) <= maxTokens + 200);
+        }
+        // 每个变更行恰好出现在一个分组中
+        int total = 0;
+        for (String prompt : groups) {
+            total += prompt.split("service.load", -1).length - 1;
+        }
+        Assert.assertEquals(file.changes.size(), total);
+    }
+}
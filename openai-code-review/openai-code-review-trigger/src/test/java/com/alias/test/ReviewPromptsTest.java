@@ -0,0 +1,26 @@
+package com.alias.test;
+
+import com.alias.domain.prompt.ReviewPrompts;
+import com.alias.utils.VCSUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReviewPromptsTest {
+
+    private static final String DIFF = "diff --git a/src/A.java b/src/A.java\n--- a/src/A.java\n+++ b/src/A.java\n@@ -1,1 +1,1 @@\n-int a = 1;\n+int a = 2;\n";
+
+    @Test
+    public void test_reviewCacheKey() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        VCSUtils.FileChanges file = VCSUtils.parseUnifiedDiff(DIFF).get(0);
+        VCSUtils.FileChanges same = VCSUtils.parseUnifiedDiff(DIFF).get(0);
+        VCSUtils.FileChanges changed = VCSUtils.parseUnifiedDiff(DIFF.replace("int a = 2;", "int a = 3;")).get(0);
+
+        String key = ReviewPrompts.reviewCacheKey(mapper, "gpt-4o", file);
+        Assert.assertEquals(64, key.length());
+        Assert.assertEquals(key, ReviewPrompts.reviewCacheKey(mapper, "gpt-4o", same));
+        Assert.assertNotEquals(key, ReviewPrompts.reviewCacheKey(mapper, "gpt-4o", changed));
+        Assert.assertNotEquals(key, ReviewPrompts.reviewCacheKey(mapper, "glm-4-flash", file));
+    }
+}
@@ -0,0 +1,69 @@
+package com.alias.test;
+
+import com.alias.utils.VCSUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class VCSUtilsTest {
+
+    private static final String DIFF = "diff --git a/src/Main.java b/src/Main.java\n"
+            + "index 1111111..2222222 100644\n"
+            + "--- a/src/Main.java\n"
+            + "+++ b/src/Main.java\n"
+            + "@@ -1,3 +1,4 @@\n"
+            + " public class Main {\n"
+            + "-    int a = 1;\n"
+            + "+    int a = 2;\n"
+            + "+    int b = 3;\n"
+            + " }\n"
+            + "diff --git a/schema.sql b/schema.sql\n"
+            + "--- a/schema.sql\n"
+            + "+++ b/schema.sql\n"
+            + "@@ -1,2 +1,2 @@\n"
+            + "--- old comment\n"
+            + "+-- new comment\n"
+            + " SELECT 1;\n"
+            + "diff --git a/Removed.java b/Removed.java\n"
+            + "deleted file mode 100644\n"
+            + "--- a/Removed.java\n"
+            + "+++ /dev/null\n"
+            + "@@ -1,1 +0,0 @@\n"
+            + "-class Removed {}\n";
+
+    @Test
+    public void test_parseUnifiedDiff() {
+        List<VCSUtils.FileChanges> files = VCSUtils.parseUnifiedDiff(DIFF);
+
+        Assert.assertEquals(2, files.size());
+
+        VCSUtils.FileChanges main = files.get(0);
+        Assert.assertEquals("src/Main.java", main.path);
+        Assert.assertEquals("src/Main.java", main.oldPath);
+        Assert.assertEquals(3, main.linesChanged);
+        Assert.assertEquals(Integer.valueOf(2), main.changes.get(0).oldLine);
+        Assert.assertEquals(Integer.valueOf(3), main.changes.get(2).newLine);
+
+        // hunk 内以 "--" 开头的删除行不能被当成文件头
+        VCSUtils.FileChanges sql = files.get(1);
+        Assert.assertEquals("schema.sql", sql.path);
+        Assert.assertEquals(2, sql.linesChanged);
+        Assert.assertEquals("-- old comment", sql.changes.get(0).content);
+    }
+
+    @Test
+    public void test_parseUnifiedDiff_stream() throws Exception {
+        List<VCSUtils.FileChanges> streamed = new ArrayList<>();
+        VCSUtils.parseUnifiedDiff(new ByteArrayInputStream(DIFF.getBytes(StandardCharsets.UTF_8)), streamed::add);
+
+        List<VCSUtils.FileChanges> parsed = VCSUtils.parseUnifiedDiff(DIFF);
+        Assert.assertEquals(parsed.size(), streamed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            Assert.assertEquals(parsed.get(i).toString(), streamed.get(i).toString());
+        }
+    }
+}